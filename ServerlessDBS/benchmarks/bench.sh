@@ -0,0 +1,55 @@
+#!/bin/bash
+
+# Compiles the peer with the JMH benchmarks and runs them, any argument is passed to JMH:
+#   bash bench.sh                                  runs every benchmark
+#   bash bench.sh MessageBenchmark -p type=STORED   runs one benchmark with one parameter
+#   bash bench.sh -l                               lists the benchmarks
+# The JMH jars are downloaded from Maven Central on the first run and checked against their published SHA-1.
+# Results are written to results/<Date>-<Commit>.json, with the JVM that produced them.
+
+JMH_VERSION=1.37
+MAVEN=https://repo1.maven.org/maven2
+
+cd "$(dirname "$0")"
+
+function fetch {
+
+	jar=lib/$2-$3.jar
+	if [ ! -f "$jar" ]; then
+		mkdir -p lib
+		url=$MAVEN/$1/$2/$3/$2-$3.jar
+		curl -fsSL -o "$jar" "$url" || { echo "Failed to download $url"; rm -f "$jar"; exit 1; }
+		if [ "$(curl -fsSL "$url.sha1" | cut -c1-40)" != "$(sha1sum "$jar" | cut -c1-40)" ]; then
+			echo "Checksum of $jar doesn't match"
+			rm -f "$jar"
+			exit 1
+		fi
+	fi
+}
+
+function compile {
+
+	rm -rf classes
+	mkdir -p classes
+	javac -cp "$CLASSPATH" -processorpath "$CLASSPATH" -d classes $(find ../src ./src -name "*.java") || exit 1
+}
+
+function run {
+
+	mkdir -p results work
+	result=$(pwd)/results/$(date +%Y%m%d-%H%M%S)-$(git rev-parse --short HEAD 2>/dev/null || echo unknown).json
+	# Peers keep their metadata in the working directory
+	cd work
+	java -cp "../classes:$CLASSPATH" org.openjdk.jmh.Main -rf json -rff "$result" "$@"
+	cd ..
+}
+
+fetch org/openjdk/jmh jmh-core $JMH_VERSION
+fetch org/openjdk/jmh jmh-generator-annprocess $JMH_VERSION
+fetch net/sf/jopt-simple jopt-simple 5.0.4
+fetch org/apache/commons commons-math3 3.6.1
+
+CLASSPATH=$(echo lib/*.jar | tr ' ' ':')
+compile
+CLASSPATH=$(echo "$(pwd)"/lib/*.jar | tr ' ' ':')
+run "$@"
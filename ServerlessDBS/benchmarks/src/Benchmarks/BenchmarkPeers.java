@@ -0,0 +1,140 @@
+package Benchmarks;
+
+import Message.Message;
+import Peer.Peer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+
+import static Utilities.Constants.*;
+import static Utilities.Utilities.createHash;
+
+/**
+ * Fixtures shared by the benchmarks: messages of every type and version 1.0 peers on loopback multicast channels.
+ * Everything random is drawn from a fixed seed, so that every run measures the same data.
+ */
+final class BenchmarkPeers {
+
+    static final long SEED = 42;
+    static final String VERSION = "1.0";
+    static final String FILE_ID = createHash("benchmark");
+
+    private static final String MC_IP = "224.0.0.10";
+    private static final String MDB_IP = "224.0.0.11";
+    private static final String MDR_IP = "224.0.0.12";
+    private static final int MC_PORT = 5445;
+    private static final int MDB_PORT = 5446;
+    private static final int MDR_PORT = 5447;
+
+    private static final AtomicInteger PEERS = new AtomicInteger();
+
+    private BenchmarkPeers() {
+    }
+
+    /**
+     * Starts a peer with an id of its own, its metadata goes to a folder with that id in the working directory
+     */
+    static Peer startPeer() throws IOException {
+        String peerId = "bench" + System.nanoTime() + "-" + PEERS.incrementAndGet();
+        return new Peer(VERSION, peerId, peerId, MC_IP, MDB_IP, MDR_IP, MC_PORT, MDB_PORT, MDR_PORT);
+    }
+
+    /**
+     * Stops a peer and deletes its metadata
+     */
+    static void stopPeer(Peer peer) {
+        peer.close();
+        delete(new File(peer.getPeerId()));
+    }
+
+    /**
+     * Fills a peer with stored chunks of FILE_ID, with desired replication degrees of 1 to 3
+     * and 0 to 4 holders each, so that every tier of the reclaim planner has chunks
+     */
+    static void fillStore(Peer peer, int numberOfChunks) {
+        Random random = new Random(SEED);
+        for (int chunkNo = 0; chunkNo < numberOfChunks; chunkNo++) {
+            String chunk = Integer.toString(chunkNo);
+            int size = chunkNo % 10 == 0 ? random.nextInt(CHUNK_SIZE) : CHUNK_SIZE;
+            peer.addChunkToRegistry(FILE_ID, chunk, Integer.toString(1 + random.nextInt(3)), size);
+            peer.setUsedSpace(peer.getUsedSpace() + size);
+            for (int holder = random.nextInt(5); holder > 0; holder--)
+                peer.addHolder(FILE_ID, chunk, Integer.toString(holder));
+        }
+        peer.setStorageSpace(Integer.MAX_VALUE);
+    }
+
+    /**
+     * @return returns a message of the given type as a peer would send it
+     */
+    static Message newMessage(String type) {
+        Random random = new Random(SEED);
+        byte[] chunk = new byte[CHUNK_SIZE];
+        random.nextBytes(chunk);
+
+        Message message;
+        switch (type) {
+            case PUTCHUNK:
+                message = new Message(PUTCHUNK, VERSION, "1", FILE_ID, "7", "2");
+                message.setBody(chunk);
+                break;
+            case PUTSHARD:
+                message = new Message(PUTSHARD, VERSION, "1", FILE_ID, "7", "4+2");
+                message.setBody(chunk);
+                break;
+            case CHUNK:
+                message = new Message(CHUNK, VERSION, "1", FILE_ID, "7");
+                message.setBody(chunk);
+                break;
+            case REMOVEDBATCH:
+                message = new Message(REMOVEDBATCH, VERSION, "1", FILE_ID, "0");
+                message.setBody(new byte[]{(byte) 0xFF, 0x0F, 0x00, 0x01});
+                break;
+            case DELETE:
+                message = new Message(DELETE, VERSION, "1", FILE_ID);
+                break;
+            case DELETEBATCH:
+            case DELETED:
+            case ALIVE:
+                message = new Message(type, VERSION, "1");
+                if (type.equals(DELETEBATCH))
+                    message.getMessageHeader().setSequence("1");
+                message.setBody(lines(100, i -> createHash(Integer.toString(i))));
+                break;
+            case DIGEST:
+                message = new Message(DIGEST, VERSION, "1");
+                message.getMessageHeader().setSequence("0-~");
+                message.setBody(lines(100, i -> createHash(Integer.toString(i)) + " 0 1073741824 " + Long.toHexString(random.nextLong())));
+                break;
+            case DIGESTREQ:
+                message = new Message(DIGESTREQ, VERSION, "1");
+                message.getMessageHeader().setTargetId("2");
+                message.setBody(lines(32, i -> createHash(Integer.toString(i)) + " 0 1073741824"));
+                break;
+            default:
+                //STORED, GETCHUNK and REMOVED only have a header
+                message = new Message(type, VERSION, "1", FILE_ID, "7");
+                break;
+        }
+        return message;
+    }
+
+    private static byte[] lines(int count, IntFunction<String> line) {
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < count; i++)
+            body.append(line.apply(i)).append('\n');
+        return body.toString().getBytes();
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children)
+                delete(child);
+        }
+        file.delete();
+    }
+}
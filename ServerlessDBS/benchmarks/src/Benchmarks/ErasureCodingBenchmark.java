@@ -0,0 +1,65 @@
+package Benchmarks;
+
+import Utilities.ReedSolomon;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static Utilities.Constants.CHUNK_SIZE;
+
+/**
+ * Reed-Solomon encode and decode of a stripe of dataShards + parityShards shards of CHUNK_SIZE bytes.
+ * Decoding always rebuilds min(parityShards, dataShards) lost data shards, the worst case for a restore.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 2, jvmArgs = {"-Xms1g", "-Xmx1g"})
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+public class ErasureCodingBenchmark {
+
+    /* Data shards of a stripe, k */
+    @Param({"4", "6", "10"})
+    private int dataShards;
+
+    /* Parity shards of a stripe, m */
+    @Param({"2", "3", "4"})
+    private int parityShards;
+
+    private ReedSolomon code;
+    private byte[][] shards;
+
+    /* Shards left after losing the first data shards */
+    private boolean[] present;
+
+    @Setup
+    public void setUp() {
+        code = new ReedSolomon(dataShards, parityShards);
+        shards = new byte[code.getTotalShards()][CHUNK_SIZE];
+        Random random = new Random(42);
+        for (int i = 0; i < dataShards; i++)
+            random.nextBytes(shards[i]);
+        code.encodeParity(shards, CHUNK_SIZE);
+
+        int lost = Math.min(parityShards, dataShards);
+        present = new boolean[code.getTotalShards()];
+        for (int i = 0; i < present.length; i++)
+            present[i] = i >= lost;
+    }
+
+    @Benchmark
+    public byte[][] encode() {
+        code.encodeParity(shards, CHUNK_SIZE);
+        return shards;
+    }
+
+    /**
+     * The lost shards are rebuilt in place with the same bytes, so every invocation decodes the same stripe
+     */
+    @Benchmark
+    public boolean decode() {
+        return code.decodeMissing(shards, present, CHUNK_SIZE);
+    }
+}
@@ -0,0 +1,25 @@
+package Benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hashes a file name and modification date into a fileId, as a backup or a restore does for each file
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(value = 2, jvmArgs = {"-Xms1g", "-Xmx1g"})
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+public class HashBenchmark {
+
+    @Param({"300kb.pdf04/02/2018 18:30:00", "a/much/longer/path/to/a/file/with/a/long/name.tar.gz04/02/2018 18:30:00"})
+    private String data;
+
+    @Benchmark
+    public String createHash() {
+        return Utilities.Utilities.createHash(data);
+    }
+}
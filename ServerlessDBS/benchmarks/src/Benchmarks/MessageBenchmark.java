@@ -0,0 +1,51 @@
+package Benchmarks;
+
+import Message.Message;
+import org.openjdk.jmh.annotations.*;
+
+import java.net.DatagramPacket;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static Utilities.Constants.*;
+
+/**
+ * Parses and serializes every message type, as the channels and the mailmen do for each datagram
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(value = 2, jvmArgs = {"-Xms1g", "-Xmx1g"})
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+public class MessageBenchmark {
+
+    @Param({PUTCHUNK, PUTSHARD, STORED, GETCHUNK, CHUNK, DELETE, DELETEBATCH, DELETED, REMOVED, REMOVEDBATCH, ALIVE, DIGEST, DIGESTREQ})
+    private String type;
+
+    private Message message;
+    private DatagramPacket packet;
+
+    @Setup
+    public void setUp() {
+        message = BenchmarkPeers.newMessage(type);
+        byte[] bytes = message.getMessageBytes(type);
+        //Channels receive into a buffer of 70000 bytes
+        packet = new DatagramPacket(Arrays.copyOf(bytes, 70000), bytes.length);
+    }
+
+    @Benchmark
+    public Message parse() {
+        return new Message(packet);
+    }
+
+    @Benchmark
+    public byte[] serialize() {
+        return message.getMessageBytes(type);
+    }
+
+    @Benchmark
+    public String getHeaderString() {
+        return message.getMessageHeader().getHeaderString();
+    }
+}
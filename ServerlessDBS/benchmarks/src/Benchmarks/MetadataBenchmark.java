@@ -0,0 +1,21 @@
+package Benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Saves the metadata of a peer, as it does after every STORED, REMOVED and DELETE
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 2, jvmArgs = {"-Xms1g", "-Xmx1g", "-Djava.net.preferIPv4Stack=true"})
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+public class MetadataBenchmark {
+
+    @Benchmark
+    public void saveMetadataToDisk(StoreState store) {
+        store.peer.saveMetadataToDisk();
+    }
+}
@@ -0,0 +1,29 @@
+package Benchmarks;
+
+import Subprotocols.ReclaimPlanner;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Plans which chunks a SPACERECLAIM removes, without removing them, so that every invocation plans over the same store
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 2, jvmArgs = {"-Xms1g", "-Xmx1g", "-Djava.net.preferIPv4Stack=true"})
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+public class ReclaimBenchmark {
+
+    /* Percentage of the used space to be reclaimed */
+    @Param({"10", "50"})
+    private int reclaimed;
+
+    @Benchmark
+    public List<String> plan(StoreState store) {
+        long space = (long) store.peer.getUsedSpace() * reclaimed / 100;
+        return new ReclaimPlanner(store.peer).plan(space);
+    }
+}
@@ -0,0 +1,84 @@
+package Benchmarks;
+
+import Message.Message;
+import Peer.Peer;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static Utilities.Constants.STORED;
+
+/**
+ * Counts STORED messages from 4 threads at once, as the receiver executor does while many peers answer a backup.
+ * Every STORED comes from a new holder so that it changes the replication degree, the holders are forgotten after
+ * every iteration so that each one starts from the same metadata.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Threads(4)
+@Fork(value = 2, jvmArgs = {"-Xms1g", "-Xmx1g", "-Djava.net.preferIPv4Stack=true"})
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+public class ReplicationDegreeBenchmark {
+
+    /* Chunks the STORED messages are spread over */
+    private static final int CHUNKS = 64;
+
+    private Peer peer;
+
+    @State(Scope.Thread)
+    public static class Holders {
+
+        private static final AtomicInteger THREADS = new AtomicInteger();
+
+        private String prefix = THREADS.incrementAndGet() + "-";
+        private long next = 0;
+
+        String nextSender() {
+            return prefix + next++;
+        }
+
+        String nextChunk() {
+            return Long.toString(next % CHUNKS);
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        peer = BenchmarkPeers.startPeer();
+    }
+
+    @TearDown(Level.Iteration)
+    public void forgetHolders() {
+        for (int chunkNo = 0; chunkNo < CHUNKS; chunkNo++)
+            peer.removeFromChunksReplicationDegree(BenchmarkPeers.FILE_ID + chunkNo);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        BenchmarkPeers.stopPeer(peer);
+    }
+
+    /**
+     * Whole STORED handling, which saves the metadata on every change
+     */
+    @Benchmark
+    public void increaseReplicationDegree(Holders holders) {
+        String chunkNo = holders.nextChunk();
+        peer.increaseReplicationDegree(new Message(STORED, BenchmarkPeers.VERSION, holders.nextSender(), BenchmarkPeers.FILE_ID, chunkNo));
+    }
+
+    /**
+     * Only the bookkeeping in memory, a holder added and forgotten again
+     */
+    @Benchmark
+    public void addAndForgetHolder(Holders holders) {
+        String chunkNo = holders.nextChunk();
+        String sender = holders.nextSender();
+        peer.addHolder(BenchmarkPeers.FILE_ID, chunkNo, sender);
+        peer.forgetHolder(BenchmarkPeers.FILE_ID, chunkNo, sender);
+    }
+}
@@ -0,0 +1,29 @@
+package Benchmarks;
+
+import Peer.Peer;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+
+/**
+ * Peer storing a given number of chunks, for the benchmarks whose cost grows with the store
+ */
+@State(Scope.Benchmark)
+public class StoreState {
+
+    @Param({"100", "1000", "10000"})
+    private int storedChunks;
+
+    Peer peer;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        peer = BenchmarkPeers.startPeer();
+        BenchmarkPeers.fillStore(peer, storedChunks);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        BenchmarkPeers.stopPeer(peer);
+    }
+}
@@ -0,0 +1,32 @@
+#!/bin/bash
+
+# Compiles the peer with the load test and runs it, arguments that start with -D or -X are passed to the JVM:
+#   bash loadtest.sh 5 1.0 100 4 64000,300000 1,2,3 2:2:1 0.01
+#   bash loadtest.sh -Dloadtest.transport=memory 200 1.1 500 16 64000 1,2,3 2:2:1 0.01
+# Peers keep their metadata and test files in an empty work folder, their output goes to work/loadtest.log.
+
+cd "$(dirname "$0")"
+
+function compile {
+
+	rm -rf classes
+	mkdir -p classes
+	javac -d classes $(find ../src ./src -name "*.java") || exit 1
+}
+
+function run {
+
+	options=(-Djava.net.preferIPv4Stack=true)
+	while [[ "$1" == -D* || "$1" == -X* ]]; do
+		options+=("$1")
+		shift
+	done
+	rm -rf work
+	mkdir -p work
+	cd work
+	java "${options[@]}" -cp ../classes LoadTest.LoadTest "$@"
+	cd ..
+}
+
+compile
+run "$@"
@@ -0,0 +1,476 @@
+package LoadTest;
+
+import Peer.Peer;
+import Subprotocols.Backup;
+import Transport.LossyTransport;
+import Transport.MemoryNetwork;
+import Transport.NetworkTransport;
+import Transport.Transport;
+import Utilities.Clock;
+import Utilities.SystemClock;
+import Utilities.VirtualClock;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.OperatingSystemMXBean;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static Utilities.Constants.CHUNK_SIZE;
+
+/**
+ * Starts many peers in this JVM on the same multicast channels and runs a mix of backups, restores and deletes
+ * against them from concurrent clients, then reports throughput, latency and resource usage.
+ * A backup is timed until every chunk reaches its replication degree, a restore until the restored file
+ * is complete and matches the original, and a delete until the DELETE is sent.
+ * Files are written to TestFiles and peers keep their metadata in the working directory, so loadtest.sh runs it from
+ * an empty work directory. The output of the peers goes to loadtest.log.
+ * With -Dloadtest.transport=memory the peers share a simulated network instead of the multicast channels,
+ * where the packet loss applies, so that runs with up to a thousand peers fit in one JVM.
+ * Adding -Dloadtest.clock=virtual runs that network and the peers in virtual time, which skips the time every peer
+ * spends waiting, and the latencies and throughput are then measured in virtual time.
+ *
+ * bash loadtest.sh [ -D<Property>=<Value> ... ] <Number of Peers> <Version> <Operations> <Concurrency>
+ * <File Sizes> <Replication Degrees> <Backups>:<Restores>:<Deletes> <Packet Loss>
+ * e.g. bash loadtest.sh 5 1.0 100 4 64000,300000 1,2,3 2:2:1 0.01
+ */
+class LoadTest {
+
+    /* Longest an operation may take before it counts as failed, can be set with -Dloadtest.timeout=<Milliseconds> */
+    private static final long TIMEOUT = Long.getLong("loadtest.timeout", 60000);
+
+    /* Seed of the workload, can be set with -Dloadtest.seed=<Seed> */
+    private static final long SEED = Long.getLong("loadtest.seed", 42);
+
+    /* Network of the peers, multicast or memory, can be set with -Dloadtest.transport=<Transport> */
+    private static final String TRANSPORT = System.getProperty("loadtest.transport", "multicast");
+
+    /* Latency and bandwidth per peer of the memory network, can be set with -Dloadtest.latency=<Milliseconds> and -Dloadtest.bandwidth=<Bytes per second> */
+    private static final long LATENCY = Long.getLong("loadtest.latency", 1);
+    private static final long BANDWIDTH = Long.getLong("loadtest.bandwidth", 0);
+
+    /* Time of the peers, real or virtual, can be set with -Dloadtest.clock=<Clock> */
+    private static final String CLOCK = System.getProperty("loadtest.clock", "real");
+
+    /* Ids of the peers start here, so that they don't reuse the metadata of peers started by peers.sh */
+    private static final int FIRST_PEER_ID = 9001;
+
+    private static final String MC_IP = "224.0.0.20";
+    private static final String MDB_IP = "224.0.0.21";
+    private static final String MDR_IP = "224.0.0.22";
+    private static final int MC_PORT = 6445;
+    private static final int MDB_PORT = 6446;
+    private static final int MDR_PORT = 6447;
+
+    private static final String BACKUP = "BACKUP";
+    private static final String RESTORE = "RESTORE";
+    private static final String DELETE = "DELETE";
+
+    private int numberOfPeers;
+    private String version;
+    private int operations;
+    private int concurrency;
+    private int[] fileSizes;
+    private int[] replicationDegrees;
+    private int[] mix;
+    private double packetLoss;
+
+    private List<Peer> peers = new ArrayList<>();
+    private Clock clock;
+    private Random random = new Random(SEED);
+    private AtomicInteger nextFile = new AtomicInteger();
+
+    /* Backed up files that no operation is using */
+    private BlockingDeque<TestFile> idleFiles = new LinkedBlockingDeque<>();
+
+    /* Clients that didn't run out of operations yet */
+    private int runningClients;
+
+    /**
+     * String is the operation
+     * List holds the latency in milliseconds of every operation that succeeded
+     */
+    private Map<String, List<Long>> latencies = new ConcurrentHashMap<>();
+    private Map<String, AtomicInteger> failures = new ConcurrentHashMap<>();
+    private AtomicLong backedUpBytes = new AtomicLong();
+    private AtomicLong restoredBytes = new AtomicLong();
+
+    private LoadTest(String[] args) {
+        numberOfPeers = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        version = args.length > 1 ? args[1] : "1.0";
+        operations = args.length > 2 ? Integer.parseInt(args[2]) : 50;
+        concurrency = args.length > 3 ? Integer.parseInt(args[3]) : 4;
+        fileSizes = parseList(args.length > 4 ? args[4] : "64000,300000", ",");
+        replicationDegrees = parseList(args.length > 5 ? args[5] : "1,2", ",");
+        mix = parseList(args.length > 6 ? args[6] : "2:2:1", ":");
+        packetLoss = args.length > 7 ? Double.parseDouble(args[7]) : 0;
+        clock = CLOCK.equals("virtual") ? new VirtualClock(SEED) : new SystemClock(SEED);
+
+        for (String operation : new String[]{BACKUP, RESTORE, DELETE}) {
+            latencies.put(operation, Collections.synchronizedList(new ArrayList<>()));
+            failures.put(operation, new AtomicInteger());
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+
+        /* Needed for Mac OS X */
+        System.setProperty("java.net.preferIPv4Stack", "true");
+
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(new FileOutputStream("loadtest.log"), true));
+
+        if (CLOCK.equals("virtual") && !TRANSPORT.equals("memory")) {
+            console.println("The virtual clock needs -Dloadtest.transport=memory");
+            System.exit(1);
+        }
+
+        LoadTest loadTest = new LoadTest(args);
+        //The main thread starts the peers and waits for the clients as a thread of the clock
+        loadTest.clock.enter();
+        loadTest.startPeers();
+        Usage before = new Usage();
+        long start = System.nanoTime();
+        long clockStart = loadTest.clock.millis();
+        loadTest.run();
+        long wallTime = (System.nanoTime() - start) / 1000000;
+        long clockTime = loadTest.clock.millis() - clockStart;
+        Usage usage = new Usage().since(before);
+
+        loadTest.report(console, wallTime, clockTime, usage);
+        loadTest.stopPeers();
+        loadTest.deletePeerFolders();
+        System.exit(0);
+    }
+
+    private void startPeers() throws IOException {
+        deletePeerFolders();
+        new File("TestFiles").mkdir();
+        MemoryNetwork network = TRANSPORT.equals("memory") ? new MemoryNetwork(LATENCY, packetLoss, BANDWIDTH, clock) : null;
+        for (int i = 0; i < numberOfPeers; i++) {
+            String peerId = Integer.toString(FIRST_PEER_ID + i);
+            //The memory network drops datagrams itself, the multicast channels through a lossy transport
+            Transport transport = network != null ? network.newTransport()
+                    : new LossyTransport(new NetworkTransport(), packetLoss, clock.newRandom("Loss-" + peerId));
+            Peer peer = new Peer(version, peerId, peerId, MC_IP, MDB_IP, MDR_IP, MC_PORT, MDB_PORT, MDR_PORT, transport, clock);
+            peer.setStorageSpace(Integer.MAX_VALUE);
+            peers.add(peer);
+        }
+    }
+
+    /**
+     * Runs the operations from concurrency clients, each one picks its next operation from the mix
+     */
+    private void run() throws InterruptedException {
+        AtomicInteger remaining = new AtomicInteger(operations);
+        runningClients = concurrency;
+        for (int i = 0; i < concurrency; i++) {
+            clock.start(new Thread(() -> {
+                clock.enter();
+                try {
+                    while (remaining.getAndDecrement() > 0)
+                        runOperation(pickOperation());
+                } finally {
+                    synchronized (this) {
+                        runningClients--;
+                        clock.signal(this);
+                    }
+                    clock.exit();
+                }
+            }));
+        }
+        synchronized (this) {
+            while (runningClients > 0)
+                clock.await(this, 0);
+        }
+    }
+
+    private String pickOperation() {
+        int pick = random.nextInt(mix[0] + mix[1] + mix[2]);
+        if (pick < mix[0])
+            return BACKUP;
+        return pick < mix[0] + mix[1] ? RESTORE : DELETE;
+    }
+
+    /**
+     * Restores and deletes take a file no other operation is using, a backup is run instead if there is none
+     */
+    private void runOperation(String operation) {
+        TestFile file = operation.equals(BACKUP) ? null : idleFiles.pollFirst();
+        if (file == null) {
+            operation = BACKUP;
+            file = createFile();
+            if (file == null) {
+                failures.get(BACKUP).incrementAndGet();
+                return;
+            }
+        }
+
+        Operation run = new Operation(operation, file);
+        Thread thread = new Thread(run);
+        thread.setDaemon(true);
+        clock.start(thread);
+        boolean succeeded;
+        try {
+            succeeded = run.await(TIMEOUT);
+        } catch (InterruptedException e) {
+            succeeded = false;
+        }
+        long latency = run.end - run.start;
+
+        if (succeeded)
+            latencies.get(operation).add(latency);
+        else
+            failures.get(operation).incrementAndGet();
+
+        //A file whose backup failed may still be restored, only deleted files leave the pool
+        if (!operation.equals(DELETE))
+            idleFiles.addLast(file);
+    }
+
+    /**
+     * Operation run on a daemon thread, so that one that times out is left behind and doesn't keep the JVM running
+     */
+    private class Operation implements Runnable {
+
+        private String type;
+        private TestFile file;
+        private long start = clock.millis();
+
+        /* Set once the operation is done, null until then */
+        private Boolean succeeded;
+
+        /* Timed by the thread that runs the operation, as the client may only run a while after it ends */
+        private long end;
+
+        Operation(String type, TestFile file) {
+            this.type = type;
+            this.file = file;
+        }
+
+        public void run() {
+            clock.enter();
+            boolean done = false;
+            try {
+                switch (type) {
+                    case BACKUP:
+                        done = backup(file);
+                        break;
+                    case RESTORE:
+                        done = restore(file);
+                        break;
+                    default:
+                        done = delete(file);
+                }
+            } catch (Exception e) {
+                e.printStackTrace();
+            } finally {
+                synchronized (this) {
+                    succeeded = done;
+                    end = clock.millis();
+                    clock.signal(this);
+                }
+                clock.exit();
+            }
+        }
+
+        /**
+         * @param timeout longest time to wait in milliseconds, measured by the clock of the peers
+         * @return returns true if the operation succeeded before the time ran out
+         */
+        synchronized boolean await(long timeout) throws InterruptedException {
+            long deadline = start + timeout;
+            for (long left = timeout; succeeded == null; left = deadline - clock.millis()) {
+                if (left <= 0)
+                    return false;
+                clock.await(this, left);
+            }
+            return succeeded;
+        }
+    }
+
+    /**
+     * Writes a file of random bytes, with a size and replication degree from the workload, to TestFiles.
+     * Its modification time, which the fileId hashes, is taken from the clock so that virtual time runs back up the same fileIds
+     */
+    private TestFile createFile() {
+        String name = "loadtest-" + nextFile.incrementAndGet() + ".bin";
+        int size = fileSizes[random.nextInt(fileSizes.length)];
+        int replicationDegree = Math.min(replicationDegrees[random.nextInt(replicationDegrees.length)], numberOfPeers - 1);
+        byte[] data = new byte[size];
+        random.nextBytes(data);
+        try {
+            Files.write(Paths.get("TestFiles", name), data);
+            Paths.get("TestFiles", name).toFile().setLastModified(clock.millis());
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+        return new TestFile(name, size, replicationDegree, peers.get(random.nextInt(peers.size())));
+    }
+
+    /**
+     * @return returns true once every chunk of the file reached its replication degree
+     */
+    private boolean backup(TestFile file) throws InterruptedException {
+        file.initiator.backup(file.name, file.replicationDegree);
+
+        String fileId = new Backup(file.name, file.replicationDegree, file.initiator).computeFileId();
+        int numberOfChunks = file.size / CHUNK_SIZE + 1;
+        for (int chunkNo = 0; chunkNo < numberOfChunks; chunkNo++) {
+            if (!file.initiator.awaitReplicationDegree(fileId, Integer.toString(chunkNo), file.replicationDegree, TIMEOUT))
+                return false;
+        }
+        backedUpBytes.addAndGet(file.size);
+        return true;
+    }
+
+    /**
+     * @return returns true if the restored file matches the original
+     */
+    private boolean restore(TestFile file) throws IOException {
+        File restored = new File(file.initiator.getPeerId() + "/Restored Files/" + file.name);
+        //Restores append to the file
+        restored.delete();
+        file.initiator.restore(file.name);
+
+        if (!Arrays.equals(Files.readAllBytes(restored.toPath()), Files.readAllBytes(Paths.get("TestFiles", file.name))))
+            return false;
+        restoredBytes.addAndGet(file.size);
+        return true;
+    }
+
+    private boolean delete(TestFile file) {
+        file.initiator.delete(file.name);
+        new File("TestFiles/" + file.name).delete();
+        return true;
+    }
+
+    /**
+     * @param wallTime  real time the operations took, in milliseconds
+     * @param clockTime time of the clock of the peers the operations took, the same as wallTime unless it's virtual
+     */
+    private void report(PrintStream out, long wallTime, long clockTime, Usage usage) {
+        long retries = 0;
+        long diskUsed = 0;
+        for (Peer peer : peers) {
+            retries += peer.getMetrics().getPutchunkRetries();
+            diskUsed += peer.getUsedSpace();
+        }
+
+        out.printf("Peers: %d | Version: %s | Transport: %s | Clock: %s | Operations: %d (%d concurrent) | Packet loss: %.1f%%%n",
+                numberOfPeers, version, TRANSPORT, CLOCK, operations, concurrency, packetLoss * 100);
+        out.printf("%-8s %6s %6s %8s %8s %8s%n", "", "Done", "Failed", "p50 ms", "p99 ms", "Max ms");
+        for (String operation : new String[]{BACKUP, RESTORE, DELETE}) {
+            List<Long> times = new ArrayList<>(latencies.get(operation));
+            Collections.sort(times);
+            out.printf("%-8s %6d %6d %8d %8d %8d%n", operation, times.size(), failures.get(operation).get(),
+                    percentile(times, 0.50), percentile(times, 0.99), times.isEmpty() ? 0 : times.get(times.size() - 1));
+        }
+        //A run where nothing ran for a millisecond is reported as one, rather than as infinite rates
+        double seconds = Math.max(1, clockTime) / 1000.0;
+        if (CLOCK.equals("virtual"))
+            out.printf("Virtual time: %.1f s | Wall time: %.1f s (%.1fx real time)%n", seconds, wallTime / 1000.0, (double) clockTime / Math.max(1, wallTime));
+        else
+            out.printf("Wall time: %.1f s%n", seconds);
+        out.printf("Backed up: %.2f MB/s | Restored: %.2f MB/s | Operations: %.2f/s%n",
+                backedUpBytes.get() / 1e6 / seconds, restoredBytes.get() / 1e6 / seconds, operations / seconds);
+        out.printf("CPU time: %.1f s | GC time: %.1f s | Peak heap: %d MB | Peak threads: %d%n",
+                usage.cpuTime / 1e9, usage.gcTime / 1000.0, usage.peakHeap / (1024 * 1024), usage.peakThreads);
+        out.printf("PUTCHUNK retries: %d | Chunks stored: %.2f MB%n", retries, diskUsed / 1e6);
+    }
+
+    private static long percentile(List<Long> sorted, double fraction) {
+        if (sorted.isEmpty())
+            return 0;
+        return sorted.get((int) Math.min(sorted.size() - 1, Math.ceil(fraction * sorted.size()) - 1));
+    }
+
+    private void stopPeers() {
+        for (Peer peer : peers)
+            peer.close();
+    }
+
+    private void deletePeerFolders() {
+        for (int i = 0; i < numberOfPeers; i++)
+            delete(new File(Integer.toString(FIRST_PEER_ID + i)));
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children)
+                delete(child);
+        }
+        file.delete();
+    }
+
+    private static int[] parseList(String list, String separator) {
+        String[] values = list.split(separator);
+        int[] parsed = new int[values.length];
+        for (int i = 0; i < values.length; i++)
+            parsed[i] = Integer.parseInt(values[i].trim());
+        return parsed;
+    }
+
+    private static class TestFile {
+
+        private String name;
+        private int size;
+        private int replicationDegree;
+        private Peer initiator;
+
+        TestFile(String name, int size, int replicationDegree, Peer initiator) {
+            this.name = name;
+            this.size = size;
+            this.replicationDegree = replicationDegree;
+            this.initiator = initiator;
+        }
+    }
+
+    /**
+     * Resources used by the JVM, the peak values are reset when it is taken
+     */
+    private static class Usage {
+
+        private long cpuTime;
+        private long gcTime;
+        private long peakHeap;
+        private int peakThreads;
+
+        Usage() {
+            OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+            if (os instanceof com.sun.management.OperatingSystemMXBean)
+                cpuTime = ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+            for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans())
+                gcTime += Math.max(0, collector.getCollectionTime());
+            for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                if (pool.getType() == MemoryType.HEAP) {
+                    peakHeap += pool.getPeakUsage().getUsed();
+                    pool.resetPeakUsage();
+                }
+            }
+            peakThreads = ManagementFactory.getThreadMXBean().getPeakThreadCount();
+            ManagementFactory.getThreadMXBean().resetPeakThreadCount();
+        }
+
+        /**
+         * @return returns the resources used between an earlier usage and this one
+         */
+        Usage since(Usage before) {
+            cpuTime -= before.cpuTime;
+            gcTime -= before.gcTime;
+            return this;
+        }
+    }
+}
@@ -1,17 +1,18 @@
 package Channels;
 
 import Peer.Peer;
+import Transport.GroupSocket;
 
 import java.io.IOException;
 import java.net.DatagramPacket;
-import java.net.InetAddress;
-import java.net.MulticastSocket;
 
-public class Channel {
+public abstract class Channel {
 
-    private MulticastSocket mc_socket;
-    private Thread thread;
+    private GroupSocket mc_socket;
+    private String address;
+    private int port;
     private Peer peer;
+    private int channel;
 
     /**
      * Class that connects and listens to a multicast
@@ -22,57 +23,49 @@ public class Channel {
      * @throws IOException
      */
     Channel(String address, int port, Peer peer) throws IOException {
-        InetAddress channel_addr = InetAddress.getByName(address);
-
         System.out.println(address);
         System.out.println(port);
 
-        mc_socket = new MulticastSocket(port);
-        mc_socket.joinGroup(channel_addr);
-
+        this.address = address;
+        this.port = port;
         this.peer = peer;
+        this.channel = peer.getMetrics().getChannel(address, port);
 
     }
 
     /**
-     * Listens for incoming packets
+     * Counts a packet of the channel and hands it to the channel
      *
-     * @param protocol protocol calling the listener
-     * @return packet
-     * @throws IOException
+     * @param request received packet
      */
-    DatagramPacket receiveRequests(String protocol) throws IOException {
-
-        byte[] buf;
-        buf = new byte[70000];
-
-        /*if ("BACKUP".equals(protocol) || "RESTORE".equals(protocol)) {
-            buf = new byte[70000];
-        } else {
-            buf = new byte[256];
-        }*/
-        DatagramPacket request = new DatagramPacket(buf, buf.length);
-        mc_socket.receive(request);
+    private void receiveRequest(DatagramPacket request) {
+        peer.getMetrics().recordPacket(channel, request.getLength());
         System.out.println("PACKET LENGHT: " + request.getLength());
-        return request;
+        handleRequest(request);
     }
 
-
     /**
-     * Starts channel listener thread
+     * Handles a packet of the channel, called by the transport as packets arrive
+     *
+     * @param request received packet
      */
-    public void listen() {
-        this.thread.start();
+    abstract void handleRequest(DatagramPacket request);
 
+    /**
+     * Joins the multicast, packets are handled from now on
+     *
+     * @throws IOException
+     */
+    public void listen() throws IOException {
+        mc_socket = peer.getTransport().join(address, port, this::receiveRequest);
     }
 
     /**
-     * Sets channel thread
-     *
-     * @param thread
+     * Leaves the multicast
      */
-    void setThread(Thread thread) {
-        this.thread = thread;
+    public void close() {
+        if (mc_socket != null)
+            mc_socket.close();
     }
 
 
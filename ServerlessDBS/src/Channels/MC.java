@@ -19,34 +19,14 @@ public class MC extends Channel {
      */
     public MC(String address, int port, Peer peer) throws IOException {
         super(address, port, peer);
-        setThread(new MC.MCThread());
     }
 
-    /**
-     * Channel thread that concurrently listens for incoming packets
+    /***
+     * Receives control message
+     * @param request
      */
-    public class MCThread extends Thread {
-        public void run() {
-            try {
-                while (true) {
-                    DatagramPacket packet = receiveRequests("");
-                    handleRequest(packet);
-                }
-
-            } catch (IOException e) {
-                System.out.println("Error handling peer:" + e);
-            }
-        }
-
-        /***
-         * Receives control message
-         * @param request
-         */
-        public void handleRequest(DatagramPacket request) {
-            Mailman messageHandeler = new Mailman(request, getPeer());
-            messageHandeler.startMailmanThread();
-        }
-
-
+    void handleRequest(DatagramPacket request) {
+        Mailman messageHandeler = new Mailman(request, getPeer());
+        messageHandeler.startMailmanThread();
     }
 }
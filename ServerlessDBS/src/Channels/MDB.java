@@ -18,32 +18,14 @@ public class MDB extends Channel {
      */
     public MDB(String address, int port, Peer peer) throws IOException {
         super(address, port, peer);
-        setThread(new MDB.MDBThread());
     }
 
-    /**
-     * Channel thread that concurrently listens for incoming packets
+    /***
+     * Receives backup request and saves chunks to peerId/FileId folder
+     * @param request Backup DatagramPacket with file info and chunk content
      */
-    public class MDBThread extends Thread {
-        public void run() {
-            try {
-                while (true) {
-                    DatagramPacket packet = receiveRequests("BACKUP");
-                    handleRequest(packet);
-                }
-            } catch (IOException e) {
-                System.out.println("Error handling peer:" + e);
-            }
-        }
-
-        /***
-         * Receives backup request and saves chunks to peerId/FileId folder
-         * @param request Backup DatagramPacket with file info and chunk content
-         */
-        public void handleRequest(DatagramPacket request) {
-            Mailman messageHandeler = new Mailman(request, getPeer());
-            messageHandeler.startMailmanThread();
-        }
-
+    void handleRequest(DatagramPacket request) {
+        Mailman messageHandeler = new Mailman(request, getPeer());
+        messageHandeler.startMailmanThread();
     }
-}
\ No newline at end of file
+}
@@ -19,34 +19,14 @@ public class MDR extends Channel {
      */
     public MDR(String address, int port, Peer peer) throws IOException {
         super(address, port, peer);
-        setThread(new MDR.MDRThread());
-
     }
 
-    /**
-     * Channel thread that concurrently listens for incoming packets
+    /***
+     * Receives chunk datagram
+     * @param chunk Chunk Datagram
      */
-    public class MDRThread extends Thread {
-        public void run() {
-            try {
-                while (true) {
-                    DatagramPacket packet = receiveRequests("RESTORE");
-                    handleRequest(packet);
-                }
-            } catch (IOException e) {
-                System.out.println("Error handling peer:" + e);
-            }
-        }
-
-        /***
-         * Receives chunk datagram
-         * @param chunk Chunk Datagram
-         */
-        public void handleRequest(DatagramPacket chunk) {
-            Mailman messageHandeler = new Mailman(chunk, getPeer());
-            messageHandeler.startMailmanThread();
-        }
-
-
+    void handleRequest(DatagramPacket chunk) {
+        Mailman messageHandeler = new Mailman(chunk, getPeer());
+        messageHandeler.startMailmanThread();
     }
 }
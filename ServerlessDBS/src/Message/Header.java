@@ -10,6 +10,9 @@ public class Header {
     private String fileId;
     private String chunkNo;
     private String replicationDeg;
+    private String targetId;
+    private String port;
+    private String sequence;
 
     /**
      * Message header for PUTCHUNKS messages
@@ -99,9 +102,26 @@ public class Header {
 
         switch (messageType) {
             case PUTCHUNK:
+            case PUTSHARD:
                 return messageType + SPACE + version + SPACE + senderId + SPACE + fileId + SPACE + chunkNo + SPACE + replicationDeg + SPACE + CRLF + CRLF;
             case DELETE:
+                if (sequence != null)
+                    return messageType + SPACE + version + SPACE + senderId + SPACE + fileId + SPACE + sequence + SPACE + CRLF + CRLF;
                 return messageType + SPACE + version + SPACE + senderId + SPACE + fileId + SPACE + CRLF + CRLF;
+            case DELETEBATCH:
+            case DIGEST:
+                return messageType + SPACE + version + SPACE + senderId + SPACE + sequence + SPACE + CRLF + CRLF;
+            case DIGESTREQ:
+                return messageType + SPACE + version + SPACE + senderId + SPACE + targetId + SPACE + CRLF + CRLF;
+            case ALIVE:
+            case DELETED:
+                return messageType + SPACE + version + SPACE + senderId + SPACE + CRLF + CRLF;
+            case GETCHUNK:
+                if (port != null)
+                    return messageType + SPACE + version + SPACE + senderId + SPACE + fileId + SPACE + chunkNo + SPACE + (targetId != null ? targetId : ANY_PEER) + SPACE + port + SPACE + CRLF + CRLF;
+                if (targetId != null)
+                    return messageType + SPACE + version + SPACE + senderId + SPACE + fileId + SPACE + chunkNo + SPACE + targetId + SPACE + CRLF + CRLF;
+                return messageType + SPACE + version + SPACE + senderId + SPACE + fileId + SPACE + chunkNo + SPACE + CRLF + CRLF;
             default:
                 return messageType + SPACE + version + SPACE + senderId + SPACE + fileId + SPACE + chunkNo + SPACE + CRLF + CRLF;
 
@@ -156,4 +176,42 @@ public class Header {
         this.replicationDeg = replicationDeg;
     }
 
+    /**
+     * Id of the only peer that should answer a GETCHUNK message (version 1.1),
+     * null when any holder may answer
+     */
+    public String getTargetId() {
+        return targetId;
+    }
+
+    public void setTargetId(String targetId) {
+        this.targetId = targetId;
+    }
+
+    /**
+     * TCP port where the initiator of a GETCHUNK message receives the chunk (version 1.1),
+     * null when the chunk should be sent to the multicast data restore channel
+     */
+    public String getPort() {
+        return port;
+    }
+
+    public void setPort(String port) {
+        this.port = port;
+    }
+
+    /**
+     * Position of a DELETE message in the delete log of its sender (version 1.1),
+     * null when the delete isn't logged.
+     * For a DELETEBATCH message the range of positions it covers: <From>-<To>
+     * For a DIGEST message the range of fileIds it covers: <From>-<To>, or * if it only answers a DIGESTREQ
+     */
+    public String getSequence() {
+        return sequence;
+    }
+
+    public void setSequence(String sequence) {
+        this.sequence = sequence;
+    }
+
 }
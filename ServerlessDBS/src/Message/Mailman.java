@@ -4,8 +4,6 @@ import Peer.Peer;
 
 import java.io.IOException;
 import java.net.DatagramPacket;
-import java.net.DatagramSocket;
-import java.net.InetAddress;
 
 import static Utilities.Constants.*;
 
@@ -99,15 +97,10 @@ public class Mailman {
      */
     private void deliverMessage(Message message, String addr, int port, String messageType) {
 
-        DatagramSocket socket;
-        DatagramPacket packet;
-
         try {
-            socket = new DatagramSocket();
             byte[] buf = message.getMessageBytes(messageType);
-            InetAddress address = InetAddress.getByName(addr.replace("/", ""));
-            packet = new DatagramPacket(buf, buf.length, address, port);
-            socket.send(packet);
+            peer.getTransport().send(addr, port, buf);
+            peer.getMetrics().recordSent(message.getMessageHeader().getMessageType(), peer.getMetrics().getChannel(addr, port), buf.length);
 
         } catch (IOException e) {
             e.printStackTrace();
@@ -131,7 +124,8 @@ public class Mailman {
             System.out.println("Sended request:" + message.getMessageHeader().getMessageType());
             switch (message.getMessageHeader().getMessageType()) {
                 case PUTCHUNK:
-                    peer.getBackup().deliverPutchunkMessage(message);
+                case PUTSHARD:
+                    peer.getBackupProtocol(message.getMessageHeader().getFileId()).deliverPutchunkMessage(message);
                     break;
                 case STORED:
                     if (peer.getVersion().equals("1.0")) {
@@ -151,11 +145,22 @@ public class Mailman {
                         peer.getDeleteProtocol().deliverDeleteMessage(message);
                     break;
                 case REMOVED:
+                case REMOVEDBATCH:
                     peer.getSpaceReclaimProtocol().deliverRemovedMessage(message);
                     break;
                 case ALIVE:
                     peer.getDeleteProtocol().deliverAliveMessage(message);
                     break;
+                case DELETEBATCH:
+                    peer.getDeleteProtocol().deliverDeleteBatchMessage(message);
+                    break;
+                case DELETED:
+                    peer.getDeleteProtocol().deliverDeletedMessage(message);
+                    break;
+                case DIGEST:
+                case DIGESTREQ:
+                    peer.getAntiEntropy().deliverDigestMessage(message);
+                    break;
                 default:
                     break;
             }
@@ -171,22 +176,24 @@ public class Mailman {
             //Ignores requests sent by itself
             if (message.getMessageHeader().getSenderId().equals(peer.getPeerId()))
                 return;
+            peer.getMetrics().recordReceived(message.getMessageHeader().getMessageType());
             switch (message.getMessageHeader().getMessageType()) {
                 case PUTCHUNK:
                     peer.getSpaceReclaimProtocol().increaseReceivedPUTCHUNK(message);
+                    peer.getRepairScheduler().postpone(message);
                     if (peer.getVersion().equals("1.0")) {
                         peer.getBackup().storeChunk(message);
                     } else {
                         peer.getBackup().storeChunkEnhanced(message);
                     }
                     break;
+                case PUTSHARD:
+                    peer.getSpaceReclaimProtocol().increaseReceivedPUTCHUNK(message);
+                    peer.getRepairScheduler().postpone(message);
+                    peer.getBackup().storeShard(message);
+                    break;
                 case STORED:
-                    if (peer.getVersion().equals("1.0")) {
-                        peer.increaseReplicationDegree(message);
-                    } else {
-                        peer.increaseReplicationDegree(message);
-                        peer.removeMessageFromStackDelete(message.getMessageHeader().getFileId());
-                    }
+                    peer.increaseReplicationDegree(message);
                     break;
                 case GETCHUNK:
                     peer.getRestoreProtocol().sendChunk(message);
@@ -197,16 +204,32 @@ public class Mailman {
                 case REMOVED:
                     peer.getSpaceReclaimProtocol().updateChunkRepDegree(message);
                     break;
+                case REMOVEDBATCH:
+                    peer.getSpaceReclaimProtocol().updateChunksRepDegree(message);
+                    break;
                 case DELETE:
                     if (peer.getVersion().equals("1.0"))
                         peer.getDeleteProtocol().deleteChunks(message.getMessageHeader().getFileId());
-                    else {
-                        peer.getDeleteProtocol().deleteChunks(message.getMessageHeader().getFileId());
-                        peer.addMessageToStackDelete(message);
-                    }
+                    else
+                        peer.getDeleteProtocol().applyDelete(message);
+                    break;
+                case DELETEBATCH:
+                    peer.getDeleteProtocol().applyDeleteBatch(message);
+                    break;
+                case DELETED:
+                    peer.getDeleteProtocol().acknowledgeDelete(message);
                     break;
                 case ALIVE:
-                    peer.getDeleteProtocol().resendDeleteMessage();
+                    peer.getDeleteProtocol().sendCatchUp(message);
+                    break;
+                case DIGEST:
+                    //Anti-entropy is an enhancement, 1.0 peers don't take part in it
+                    if (peer.getVersion().equals("1.1"))
+                        peer.getAntiEntropy().applyDigest(message);
+                    break;
+                case DIGESTREQ:
+                    if (peer.getVersion().equals("1.1") && message.getMessageHeader().getTargetId().equals(peer.getPeerId()))
+                        peer.getAntiEntropy().answerDigestRequest(message);
                     break;
                 default:
                     break;
@@ -157,6 +157,7 @@ public class Message {
         byte[] bodyContent;
         switch (messageHeader.getMessageType()) {
             case PUTCHUNK:
+            case PUTSHARD:
                 messageHeader.setVersion(requestHeader[1]);
                 messageHeader.setSenderId(requestHeader[2]);
                 messageHeader.setFileId(requestHeader[3]);
@@ -169,6 +170,10 @@ public class Message {
             case GETCHUNK:
                 setPacketIP(packet.getAddress());
                 setPacketPort(packet.getPort());
+                if (requestHeader.length > 5 && !requestHeader[5].equals(ANY_PEER))
+                    messageHeader.setTargetId(requestHeader[5]);
+                if (requestHeader.length > 6)
+                    messageHeader.setPort(requestHeader[6]);
             case STORED:
             case REMOVED:
                 messageHeader.setVersion(requestHeader[1]);
@@ -177,6 +182,7 @@ public class Message {
                 messageHeader.setChunkNo(requestHeader[4]);
                 break;
             case CHUNK:
+            case REMOVEDBATCH:
                 messageHeader.setVersion(requestHeader[1]);
                 messageHeader.setSenderId(requestHeader[2]);
                 messageHeader.setFileId(requestHeader[3]);
@@ -186,13 +192,36 @@ public class Message {
                 setBody(bodyContent);
                 break;
             case DELETE:
+                if (requestHeader.length > 4)
+                    messageHeader.setSequence(requestHeader[4]);
                 messageHeader.setVersion(requestHeader[1]);
                 messageHeader.setSenderId(requestHeader[2]);
                 messageHeader.setFileId(requestHeader[3]);
                 break;
+            case DIGESTREQ:
+                messageHeader.setTargetId(requestHeader[3]);
+                messageHeader.setVersion(requestHeader[1]);
+                messageHeader.setSenderId(requestHeader[2]);
+                bodyContent = new byte[packet.getLength() - header.length() - 4];
+                message.read(bodyContent);
+                setBody(bodyContent);
+                break;
+            case DELETEBATCH:
+            case DIGEST:
+                messageHeader.setSequence(requestHeader[3]);
+                messageHeader.setVersion(requestHeader[1]);
+                messageHeader.setSenderId(requestHeader[2]);
+                bodyContent = new byte[packet.getLength() - header.length() - 4];
+                message.read(bodyContent);
+                setBody(bodyContent);
+                break;
             case ALIVE:
+            case DELETED:
                 messageHeader.setVersion(requestHeader[1]);
                 messageHeader.setSenderId(requestHeader[2]);
+                bodyContent = new byte[packet.getLength() - header.length() - 4];
+                message.read(bodyContent);
+                setBody(bodyContent);
                 break;
             default:
                 System.out.println("Unrecognized message type");
@@ -209,7 +238,9 @@ public class Message {
 
         byte[] headerBytes = messageHeader.getHeaderString().getBytes();
         byte[] buf;
-        if (protocol.equals(PUTCHUNK) || protocol.equals(CHUNK)) {
+        boolean hasBody = body != null && (protocol.equals(ALIVE) || protocol.equals(DELETEBATCH) || protocol.equals(DELETED) || protocol.equals(REMOVEDBATCH)
+                || protocol.equals(DIGEST) || protocol.equals(DIGESTREQ));
+        if (protocol.equals(PUTCHUNK) || protocol.equals(PUTSHARD) || protocol.equals(CHUNK) || hasBody) {
             buf = new byte[headerBytes.length + body.length];
             System.arraycopy(headerBytes, 0, buf, 0, headerBytes.length);
             System.arraycopy(body, 0, buf, headerBytes.length, body.length);
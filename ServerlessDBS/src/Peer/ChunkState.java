@@ -0,0 +1,53 @@
+package Peer;
+
+import java.io.Serializable;
+
+/**
+ * State of a chunk, either stored by a peer or belonging to a file it backed up
+ */
+public class ChunkState implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private String chunkId;
+    private int desiredReplicationDegree;
+    private int perceivedReplicationDegree;
+    private int size;
+
+    /**
+     * @param chunkId                    fileId + chunk number
+     * @param desiredReplicationDegree   desired replication degree of the chunk
+     * @param perceivedReplicationDegree number of peers known to store the chunk
+     * @param size                       size in bytes of the chunk, 0 if the peer doesn't store it
+     */
+    public ChunkState(String chunkId, int desiredReplicationDegree, int perceivedReplicationDegree, int size) {
+        this.chunkId = chunkId;
+        this.desiredReplicationDegree = desiredReplicationDegree;
+        this.perceivedReplicationDegree = perceivedReplicationDegree;
+        this.size = size;
+    }
+
+    public String getChunkId() {
+        return chunkId;
+    }
+
+    public int getDesiredReplicationDegree() {
+        return desiredReplicationDegree;
+    }
+
+    public int getPerceivedReplicationDegree() {
+        return perceivedReplicationDegree;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    @Override
+    public String toString() {
+        String state = "Chunk id: " + chunkId + " | Perceived replication degree: " + perceivedReplicationDegree + " of " + desiredReplicationDegree;
+        if (size > 0)
+            state += " | Size: " + (size + 1023) / 1024 + " KBytes";
+        return state;
+    }
+}
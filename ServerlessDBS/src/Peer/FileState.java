@@ -0,0 +1,86 @@
+package Peer;
+
+import java.io.Serializable;
+
+/**
+ * State of a file whose backup was initiated by a peer
+ */
+public class FileState implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private String pathname;
+    private String serviceId;
+    private String fileId;
+    private int replicationDegree;
+    private int dataShards;
+    private int parityShards;
+    private int retries;
+    private int numberOfChunks;
+
+    /**
+     * @param pathname          pathname of the file
+     * @param serviceId         id of the peer that backed up the file
+     * @param fileId            id of the file
+     * @param replicationDegree desired replication degree, unused if the file is erasure coded
+     * @param dataShards        data shards per stripe, 0 if the file is replicated
+     * @param parityShards      parity shards per stripe
+     * @param retries           number of PUTCHUNK messages that had to be sent again
+     * @param numberOfChunks    number of chunks, or shards, of the file
+     */
+    public FileState(String pathname, String serviceId, String fileId, int replicationDegree, int dataShards, int parityShards, int retries, int numberOfChunks) {
+        this.pathname = pathname;
+        this.serviceId = serviceId;
+        this.fileId = fileId;
+        this.replicationDegree = replicationDegree;
+        this.dataShards = dataShards;
+        this.parityShards = parityShards;
+        this.retries = retries;
+        this.numberOfChunks = numberOfChunks;
+    }
+
+    public String getPathname() {
+        return pathname;
+    }
+
+    public String getServiceId() {
+        return serviceId;
+    }
+
+    public String getFileId() {
+        return fileId;
+    }
+
+    public int getReplicationDegree() {
+        return replicationDegree;
+    }
+
+    public boolean isErasureCoded() {
+        return dataShards > 0;
+    }
+
+    public int getDataShards() {
+        return dataShards;
+    }
+
+    public int getParityShards() {
+        return parityShards;
+    }
+
+    public int getRetries() {
+        return retries;
+    }
+
+    public int getNumberOfChunks() {
+        return numberOfChunks;
+    }
+
+    @Override
+    public String toString() {
+        return "File pathname: " + pathname + "\n"
+                + "Backup service id: " + serviceId + "\n"
+                + "File id: " + fileId + "\n"
+                + (isErasureCoded() ? "Erasure coding: " + dataShards + " data + " + parityShards + " parity shards" : "Desired Replication degree: " + replicationDegree) + "\n"
+                + "PUTCHUNK retries: " + retries;
+    }
+}
@@ -4,21 +4,49 @@ import Channels.MC;
 import Channels.MDB;
 import Channels.MDR;
 import Message.Message;
+import Subprotocols.AntiEntropy;
 import Subprotocols.Backup;
 import Subprotocols.Delete;
 import Subprotocols.Restore;
+import Subprotocols.RepairScheduler;
 import Subprotocols.SpaceReclaim;
+import Transport.NetworkTransport;
+import Transport.Transport;
+import Utilities.Clock;
+import Utilities.DeleteLog;
+import Utilities.PeerMetrics;
+import Utilities.RangeDigest;
+import Utilities.SystemClock;
+import Utilities.Tasks;
+import Utilities.TokenBucket;
+import Utilities.TrashPurger;
+import Utilities.VolunteerBackoff;
 
 import java.io.*;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.rmi.NoSuchObjectException;
+import java.rmi.RemoteException;
 import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
 import java.util.Properties;
+import java.util.Random;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+
+import static Utilities.Utilities.getStripeWidth;
+import static Utilities.Utilities.parseLayout;
 
 
 public class Peer extends UnicastRemoteObject implements PeerInterface {
@@ -27,7 +55,45 @@ public class Peer extends UnicastRemoteObject implements PeerInterface {
     private Delete deleteProtocol = null;
     private Backup backup = null;
     private SpaceReclaim spaceReclaimProtocol = null;
-    private Map<String, Backup> backupProtocol = new ConcurrentHashMap<>();
+    private Tasks tasks = null;
+    private VolunteerBackoff volunteerBackoff = null;
+    private DeleteLog deleteLog = null;
+    private TrashPurger trashPurger = null;
+    private RepairScheduler repairScheduler = null;
+    private AntiEntropy antiEntropy = null;
+    private Recovery recovery = null;
+    private Transport transport;
+    private MDB backupChannel;
+    private MDR restoreChannel;
+    private MC controlChannel;
+    private Clock clock;
+
+    /**
+     * Random sources of the protocol delays, seeded from the clock
+     * String is the name of the protocol
+     * Random holds its own source, so that protocols don't take draws from each other
+     */
+    private Map<String, Random> randoms = new ConcurrentHashMap<>();
+    private PeerMetrics metrics;
+
+    /* Chunks announced as removed per second, can be set with -Dreclaim.rate=<Chunks> */
+    private static final int RECLAIM_RATE = Integer.getInteger("reclaim.rate", 100);
+
+    private TokenBucket removedBucket;
+
+    /**
+     * Holds the backup sessions started by this peer
+     * String is the fileId
+     * Backup holds the session state of that file
+     */
+    private NavigableMap<String, Backup> backupProtocol = new ConcurrentSkipListMap<>();
+
+    /**
+     * Holds the restore sessions running on this peer
+     * String is the fileId
+     * Set holds every running restore of that file
+     */
+    private Map<String, Set<Restore>> restoreSessions = new ConcurrentHashMap<>();
     private String mc_ip, mdb_ip, mdr_ip;
     private int mc_port, mdb_port, mdr_port;
     private String peerId;
@@ -42,8 +108,36 @@ public class Peer extends UnicastRemoteObject implements PeerInterface {
     /**
      * String is a par of fileId+chunkNo
      * String holds the desired replication degree
+     * Sorted so that the state is listed in pages
      */
-    private Map<String, String> storedChunks = new ConcurrentHashMap<>();
+    private NavigableMap<String, String> storedChunks = new ConcurrentSkipListMap<>();
+
+    /* Most items in a page of the state */
+    private static final int MAX_PAGE_SIZE = 1000;
+
+    /* How long the metadata writer waits for more STORED messages before saving them */
+    private static final long METADATA_SAVE_DELAY = 100;
+
+    /* Set when a STORED message changed the metadata and it wasn't saved since, guarded by metadataChanges */
+    private final Object metadataChanges = new Object();
+    private boolean metadataChanged = false;
+    private Thread metadataWriter;
+
+    /**
+     * Statistics of the state summary, updated with the lock of statistics held
+     * whenever storedChunks or chunksReplicationDegree change, and signalled whenever a holder is added
+     */
+    private final Object statistics = new Object();
+    private int storedChunkCount = 0;
+    private int underReplicatedChunks = 0;
+    private int overReplicatedChunks = 0;
+    private AtomicInteger backedUpFiles = new AtomicInteger();
+
+    /**
+     * String is a par of fileId+chunkNo
+     * String holds the size in bytes of the stored chunk
+     */
+    private Map<String, String> storedChunkSizes = new ConcurrentHashMap<>();
     /**
      * Holds information about chunks replication degree in the network
      * String is a par of fileId+chunkNo
@@ -51,6 +145,13 @@ public class Peer extends UnicastRemoteObject implements PeerInterface {
      */
     private Map<String, String> chunksReplicationDegree = new ConcurrentHashMap<>();
 
+    /**
+     * Secondary index of storedChunks and chunksReplicationDegree, rebuilt from both on startup
+     * String is the fileId
+     * Set holds the numbers of the chunks of the file present in either map
+     */
+    private Map<String, Set<String>> fileChunks = new ConcurrentHashMap<>();
+
     /**
      * Holds information regarding if the chunk has been sent
      * String is a par of fileId+chunkNo
@@ -59,21 +160,71 @@ public class Peer extends UnicastRemoteObject implements PeerInterface {
     private Map<String, Boolean> sentChunks = new ConcurrentHashMap<>();
 
     /**
-     * Holds information about received DELETE Messages
-     * String is the id of the file to be deleted
-     * Message is the received DELETE message
+     * Holds information about received Stored Messages
+     * String is the unique combination of FileId+ChunkNo:SenderId, see getHolderKey
      */
-    private Map<String, Message> stackDeleteMessage = new ConcurrentHashMap<>();
+    private Map<String, String> receivedStoredMessages = new ConcurrentHashMap<>();
 
     /**
-     * Holds information about received Stored Messages
-     * String is the unique combination of FileId+ChunkNo+SenderId
+     * Holds the peers known to store each chunk, rebuilt from receivedStoredMessages on startup
+     * String is a par of fileId+chunkNo
+     * Set holds the ids of the peers that sent STORED for the chunk
      */
-    private Map<String, String> receivedStoredMessages = new ConcurrentHashMap<>();
+    private Map<String, Set<String>> chunkHolders = new ConcurrentHashMap<>();
+
+    /**
+     * Chunks stored by this peer with their anti-entropy digests, kept up to date with storedChunks
+     * String is the fileId
+     * RangeDigest holds the numbers of the chunks of the file stored by this peer
+     */
+    private NavigableMap<String, RangeDigest> storedDigests = new ConcurrentSkipListMap<>();
+
+    /**
+     * Chunks every other peer is believed to store with their anti-entropy digests, kept up to date with chunkHolders
+     * String is the id of the holder, then the fileId
+     * RangeDigest holds the numbers of the chunks of the file the holder stores
+     */
+    private Map<String, NavigableMap<String, RangeDigest>> holderDigests = new ConcurrentHashMap<>();
+
+    /**
+     * Holds information about the files this peer backed up with erasure coding
+     * String is the fileId
+     * String holds the stripe layout and the file name: <DataShards>+<ParityShards>-<FileName>
+     */
+    private Map<String, String> erasureCodedFiles = new ConcurrentHashMap<>();
+
+    /**
+     * Holds information about stored chunks that are shards of an erasure coded stripe
+     * String is a par of fileId+shardNo
+     * String holds the stripe layout: <DataShards>+<ParityShards>
+     */
+    private Map<String, String> storedShards = new ConcurrentHashMap<>();
+
+    /**
+     * Stripes in which this peer already holds (or is storing) a shard
+     * String is a par of fileId#stripeNo
+     * String holds the shard number
+     */
+    private Map<String, String> reservedStripes = new ConcurrentHashMap<>();
 
     public Peer(String version, String peerId, String peerAccessPoint, String mc_ip, String mdb_ip, String mdr_ip, int mc_port, int mdb_port, int mdr_port) throws IOException {
+        this(version, peerId, peerAccessPoint, mc_ip, mdb_ip, mdr_ip, mc_port, mdb_port, mdr_port, new NetworkTransport(), new SystemClock());
+    }
+
+    /**
+     * Starts a peer whose channels and restore connections go through the given transport
+     * and whose delays and timeouts are measured by the given clock
+     *
+     * @param transport UDP multicast and TCP, or a simulated network
+     * @param clock     real time, or the virtual time of a simulation
+     */
+    public Peer(String version, String peerId, String peerAccessPoint, String mc_ip, String mdb_ip, String mdr_ip, int mc_port, int mdb_port, int mdr_port, Transport transport, Clock clock) throws IOException {
         super();
 
+        this.transport = transport;
+        this.clock = clock;
+        this.metrics = new PeerMetrics(this, clock);
+        this.removedBucket = new TokenBucket(RECLAIM_RATE, RECLAIM_RATE, clock);
         this.version = version;
         this.peerId = peerId;
         this.peerAccessPoint = peerAccessPoint;
@@ -83,13 +234,14 @@ public class Peer extends UnicastRemoteObject implements PeerInterface {
         this.mdb_port = mdb_port;
         this.mdr_ip = mdr_ip;
         this.mdr_port = mdr_port;
-        senderExecutor = Executors.newFixedThreadPool(5);
-        deliverExecutor = Executors.newFixedThreadPool(11);
-        receiverExecutor = Executors.newFixedThreadPool(10);
+        senderExecutor = clock.newExecutor(5);
+        deliverExecutor = clock.newExecutor(11);
+        receiverExecutor = clock.newExecutor(10);
+        metrics.register();
 
-        MDB backupChannel = new MDB(mdb_ip, mdb_port, this);
-        MDR restoreChannel = new MDR(mdr_ip, mdr_port, this);
-        MC controlChannel = new MC(mc_ip, mc_port, this);
+        backupChannel = new MDB(mdb_ip, mdb_port, this);
+        restoreChannel = new MDR(mdr_ip, mdr_port, this);
+        controlChannel = new MC(mc_ip, mc_port, this);
 
 
         //Creates peer "disk storage"
@@ -99,24 +251,33 @@ public class Peer extends UnicastRemoteObject implements PeerInterface {
         //loads information about chunks replication degree (if such exists)
         loadMetadataFromDisk();
 
-        //Launches a thread for each channel to listen for requests
-        backupChannel.listen();
-        restoreChannel.listen();
-        controlChannel.listen();
-
-
         restoreProtocol = new Restore(this);
         deleteProtocol = new Delete(this);
         spaceReclaimProtocol = new SpaceReclaim(this);
         backup = new Backup(this);
+        volunteerBackoff = new VolunteerBackoff(this);
+        deleteLog = new DeleteLog(this);
+        deleteLog.load();
+        trashPurger = new TrashPurger(this);
+        trashPurger.start();
+        metadataWriter = new Thread(this::writeMetadata, "MetadataWriter-" + peerId);
+        metadataWriter.setDaemon(true);
+        clock.start(metadataWriter);
+        repairScheduler = new RepairScheduler(this);
+        repairScheduler.load();
+        clock.start(repairScheduler);
+        antiEntropy = new AntiEntropy(this);
+        tasks = new Tasks(this);
+        tasks.loadTasks();
+
+        //Joins the channels once every protocol can handle their requests
+        backupChannel.listen();
+        restoreChannel.listen();
+        controlChannel.listen();
 
-        //Sends pending PUTCHUNKS
-        if (this.version.equals("1.1")) {
-            backup.finishPendingTasks();
-            deleteProtocol.sendAliveMessage();
-        }
-
-        saveMetadataToDisk();
+        //Sends pending PUTCHUNKS and announces the peer in the background, so it can be bound to the registry right away
+        recovery = new Recovery(this);
+        clock.start(recovery);
     }
 
     /***
@@ -126,19 +287,29 @@ public class Peer extends UnicastRemoteObject implements PeerInterface {
      */
     public void backup(String file, int replicationDegree) {
 
+        //Each call gets its own session, registered by fileId, so concurrent backups don't share state
+        Backup session = new Backup(file, replicationDegree, this);
 
-        this.backup = new Backup(file, replicationDegree, this);
+        //Reads chunks from a file and sends chunks to backup broadcast channel
+        session.readChunks();
 
-        //Finishes sendind pending PUTCHUNKS (if any)
-        backup.finishPendingTasks();
+        System.out.println("Finished Reading Chunks");
+    }
 
-        //Reads chunks from a file and sends chunks to backup broadcast channel
-        backup.readChunks();
+    /***
+     * Starts erasure coded backup protocol
+     * @param file file to backup
+     * @param dataShards number of data shards per stripe
+     * @param parityShards number of parity shards per stripe
+     */
+    public void backupErasureCoded(String file, int dataShards, int parityShards) {
 
-        //Starts backup protocol
-        backupProtocol.put(backup.getFileId(), backup);
+        Backup session = new Backup(file, dataShards, parityShards, this);
 
-        System.out.println("Finished Reading Chunks");
+        //Encodes the file in stripes and sends every shard to backup broadcast channel
+        session.readStripes();
+
+        System.out.println("Finished Reading Stripes");
     }
 
     /**
@@ -148,14 +319,46 @@ public class Peer extends UnicastRemoteObject implements PeerInterface {
      */
     public void restore(String file) {
 
-        restoreProtocol = new Restore(file, this);
+        //Each call gets its own session, received chunks are routed to it by fileId
+        Restore session = new Restore(file, this);
 
-        restoreProtocol.start();
+        session.start();
 
         System.out.println("Restore completed");
 
     }
 
+    /**
+     * Restores a byte range of a file, only the chunks that hold the range are requested
+     *
+     * @param file   file to be restored
+     * @param offset first byte of the range
+     * @param length number of bytes of the range
+     * @return returns the bytes of the range
+     */
+    public byte[] restoreRange(String file, long offset, int length) {
+
+        Restore session = new Restore(file, offset, length, this);
+
+        byte[] range = session.readRange();
+
+        System.out.println("Restore completed: " + range.length + " bytes");
+
+        return range;
+    }
+
+    /**
+     * Starts a streaming restore of a file, the client pulls the chunks in order while the following ones arrive
+     *
+     * @param file file to be restored
+     * @return returns the remote iterator over the chunks of the file
+     * @throws RemoteException
+     */
+    public RemoteChunkIterator restoreStream(String file) throws RemoteException {
+
+        return new RestoreIterator(file, this);
+    }
+
     /**
      * Starts space reclaim protocol which tries to free an given amount of space
      * if the amount of space is bigger than the disk space, it frees the whole
@@ -187,56 +390,141 @@ public class Peer extends UnicastRemoteObject implements PeerInterface {
     }
 
     /**
-     * This operation allows to observe the service state. In response to such a request, the peer shall send to the client the following information:
-     * For each file whose backup it has initiated:
-     * The file pathname ✓
-     * The backup service id of the file ✓
-     * The desired replication degree ✓
-     * For each chunk of the file:
-     * Its id ✓
-     * Its perceived replication degree ✓
-     * For each chunk it stores:
-     * Its id  ✓
-     * Its size (in KBytes)
-     * Its perceived replication degree ✓
-     * The peer's storage capacity, i.e. the maximum amount of disk space that can be used to store chunks, and the amount of storage (both in KBytes) used to backup the chunks.
-     */
-    public void state() {
-
-        String[] state = new String[1024];
-
-        int i = 0;
-        for (Backup b : backupProtocol.values()) {
-            i++;
-            state[i] = "File pathname: " + b.getPeer().peerId + "/" + b.getFileName();
-            i++;
-            state[i] = "Backup service id: " + b.getPeer().peerId;
-            i++;
-            state[i] = "Desired Replication degree: " + b.getReplicationDegree();
-
-            for (int n = 1; n <= b.getNumberOfChunks(); n++) {
-                i++;
-                state[i] = "Chunk id: " + b.getFileId() + n;
-                i++;
-                state[i] = "Perceived replication degree: " + chunksReplicationDegree.get(b.getFileId() + n);
-            }
+     * Starts delete protocol for many files at once
+     *
+     * @param files files to be deleted
+     */
+    public void deleteFiles(String[] files) {
+
+        Delete session = new Delete(files, this);
+
+        session.startBatch();
+
+        System.out.println("Deleted " + files.length + " files");
+    }
+
+    /**
+     * Reports whether the peer finished recovering after starting
+     *
+     * @return returns READY, or the recovery stage and progress
+     */
+    public String status() {
+        return recovery.getStatus();
+    }
+
+    /**
+     * This operation allows to observe the service state. The state is split in a summary and pages of details:
+     * The summary has the peer's storage capacity and used space, the number of files whose backup it initiated,
+     * and the number of chunks it stores with how many are under and over replicated.
+     * The pages list, for each file whose backup it has initiated, the file pathname, the backup service id,
+     * the desired replication degree and, for each chunk of the file, its id and perceived replication degree,
+     * and for each chunk it stores, its id, its size and its perceived replication degree.
+     *
+     * @return returns the summary, kept up to date as the metadata changes
+     */
+    public StateSummary stateSummary() {
+        synchronized (statistics) {
+            return new StateSummary(diskSpace, usedSpace, backedUpFiles.get(), storedChunkCount, underReplicatedChunks, overReplicatedChunks);
         }
-        for (Map.Entry<String, String> entry : storedChunks.entrySet()) {
-            String key = entry.getKey();
-            Object value = entry.getValue();
-            i++;
-            state[i] = "Stored chunk: " + key;
-            i++;
-            state[i] = "Perceived replication degree: " + value;
+    }
 
+    /**
+     * Lists the files whose backup this peer initiated, sorted by fileId
+     *
+     * @param after fileId of the last file of the previous page, null for the first page
+     * @param limit most files in the page
+     * @return returns a page of files
+     */
+    public StatePage<FileState> backedUpFiles(String after, int limit) {
+        return getPage(backupProtocol, after, limit, (fileId, session) ->
+                new FileState(peerId + "/" + session.getFileName(), peerId, fileId, session.getReplicationDegree(),
+                        session.getDataShards(), session.getParityShards(), session.getNumberOfRetries(), session.getNumberOfChunks()));
+    }
+
+    /**
+     * Lists the chunks of a file whose backup this peer initiated, sorted by chunk number
+     *
+     * @param fileId id of the file
+     * @param after  chunk number of the last chunk of the previous page, null for the first page
+     * @param limit  most chunks in the page
+     * @return returns a page of chunks, empty if this peer didn't back up the file
+     */
+    public StatePage<ChunkState> backedUpChunks(String fileId, String after, int limit) {
+        List<ChunkState> chunks = new ArrayList<>();
+        Backup session = backupProtocol.get(fileId);
+        if (session == null)
+            return new StatePage<>(chunks, null);
+
+        int desiredRepDeg = session.isErasureCoded() ? 1 : session.getReplicationDegree();
+        int first = after == null ? 0 : Integer.parseInt(after) + 1;
+        int end = Math.min(session.getNumberOfChunks(), first + getPageSize(limit));
+        for (int chunkNo = first; chunkNo < end; chunkNo++) {
+            String chunkId = fileId + chunkNo;
+            chunks.add(new ChunkState(chunkId, desiredRepDeg, getReplicationDegreeOfChunk(chunkId), getStoredChunkSize(chunkId)));
         }
-        i++;
-        state[i] = "Storage capacity = " + getStorageSpace() + " | Used space: " + getUsedSpace();
+        return new StatePage<>(chunks, end < session.getNumberOfChunks() ? Integer.toString(end - 1) : null);
+    }
+
+    /**
+     * Lists the chunks stored by this peer, sorted by chunkId
+     *
+     * @param after chunkId of the last chunk of the previous page, null for the first page
+     * @param limit most chunks in the page
+     * @return returns a page of chunks
+     */
+    public StatePage<ChunkState> storedChunks(String after, int limit) {
+        return getPage(storedChunks, after, limit, (chunkId, desiredRepDeg) ->
+                new ChunkState(chunkId, Integer.parseInt(desiredRepDeg), getReplicationDegreeOfChunk(chunkId), getStoredChunkSize(chunkId)));
+    }
 
-        for (String s : state) {
-            if (s != null)
-                System.out.println(s);
+    /**
+     * Walks a sorted map from the entry after the cursor, so that a page only costs its own entries
+     *
+     * @param state turns an entry into an item of the page
+     */
+    private <V, T extends Serializable> StatePage<T> getPage(NavigableMap<String, V> map, String after, int limit, BiFunction<String, V, T> state) {
+        int size = getPageSize(limit);
+        List<T> items = new ArrayList<>();
+        String last = null;
+        for (Map.Entry<String, V> entry : (after == null ? map : map.tailMap(after, false)).entrySet()) {
+            if (items.size() == size)
+                return new StatePage<>(items, last);
+            items.add(state.apply(entry.getKey(), entry.getValue()));
+            last = entry.getKey();
         }
+        return new StatePage<>(items, null);
+    }
+
+    private static int getPageSize(int limit) {
+        return Math.max(1, Math.min(limit, MAX_PAGE_SIZE));
+    }
+
+    /**
+     * Replication status of a chunk, for the statistics of the state summary
+     *
+     * @return returns -1 if the chunk is under replicated, 1 if over replicated,
+     * 0 if it has the desired replication degree or this peer doesn't store it
+     */
+    private int getReplicationStatus(String chunkId) {
+        String desiredRepDeg = storedChunks.get(chunkId);
+        if (desiredRepDeg == null)
+            return 0;
+        return Integer.signum(getReplicationDegreeOfChunk(chunkId) - Integer.parseInt(desiredRepDeg));
+    }
+
+    /**
+     * Adds or takes a chunk from the statistics, called with the statistics lock held
+     * before a change to the chunk with -1 and after it with 1
+     */
+    private void countChunk(String chunkId, int sign) {
+        if (!storedChunks.containsKey(chunkId))
+            return;
+        storedChunkCount += sign;
+        int status = getReplicationStatus(chunkId);
+        if (status < 0)
+            underReplicatedChunks += sign;
+        else if (status > 0)
+            overReplicatedChunks += sign;
     }
 
     /**
@@ -246,10 +534,18 @@ public class Peer extends UnicastRemoteObject implements PeerInterface {
      * @param fileId
      * @param chunkNo
      * @param desiredReplicationDegree
+     * @param size                     size of the chunk in bytes
      */
-    public void addChunkToRegistry(String fileId, String chunkNo, String desiredReplicationDegree) {
+    public void addChunkToRegistry(String fileId, String chunkNo, String desiredReplicationDegree, int size) {
 
-        this.storedChunks.put(fileId + chunkNo, desiredReplicationDegree);
+        synchronized (statistics) {
+            countChunk(fileId + chunkNo, -1);
+            this.storedChunks.put(fileId + chunkNo, desiredReplicationDegree);
+            countChunk(fileId + chunkNo, 1);
+        }
+        this.storedChunkSizes.put(fileId + chunkNo, Integer.toString(size));
+        indexChunk(fileId + chunkNo);
+        addToDigest(storedDigests, fileId + chunkNo);
 
     }
 
@@ -262,92 +558,282 @@ public class Peer extends UnicastRemoteObject implements PeerInterface {
 
         String fileId = message.getMessageHeader().getFileId();
         String chunkNo = message.getMessageHeader().getChunkNo();
-        String senderId = message.getMessageHeader().getSenderId();
 
-        String chunkId = fileId + chunkNo;
-        String currentReplicationDegree = chunksReplicationDegree.get(chunkId);
-
-        if (receivedStoredMessages.get(chunkId + senderId) == null) {
-
-            receivedStoredMessages.put(chunkId + senderId, senderId);
-
-            if (currentReplicationDegree == null) {
-                chunksReplicationDegree.put(chunkId, "1");
-            } else {
-                int temp = Integer.parseInt(currentReplicationDegree);
-                chunksReplicationDegree.put(chunkId, String.valueOf(temp + 1));
+        if (addHolder(fileId, chunkNo, message.getMessageHeader().getSenderId())) {
+            Backup session = backupProtocol.get(fileId);
+            if (session != null)
+                session.recordStored(chunkNo);
+            if (version.equals("1.1")) {
+                tasks.finishTask(fileId + chunkNo);
+            }
+            synchronized (metadataChanges) {
+                metadataChanged = true;
+                clock.signal(metadataChanges);
             }
+        }
 
-            if (version.equals("1.1")) {
-                backup.finishTask(fileId + chunkNo);
+    }
+
+    /**
+     * Metadata writer thread: waits for a STORED message to change the metadata, gives the other peers
+     * METADATA_SAVE_DELAY to answer the same PUTCHUNK and saves all of their changes at once
+     */
+    private void writeMetadata() {
+        clock.enter();
+        try {
+            while (true) {
+                synchronized (metadataChanges) {
+                    while (!metadataChanged)
+                        clock.await(metadataChanges, 0);
+                }
+                clock.sleep(METADATA_SAVE_DELAY);
+                synchronized (metadataChanges) {
+                    metadataChanged = false;
+                }
+                saveMetadataToDisk();
             }
-            saveMetadataToDisk();
+        } catch (InterruptedException e) {
+            //The peer was closed, close saves what is left
+        } finally {
+            clock.exit();
         }
+    }
+
+    /**
+     * Same as increaseReplicationDegree without saving the metadata, for callers that save once after many changes
+     *
+     * @param fileId   id of the file that the chunk belongs to
+     * @param chunkNo  chunk number
+     * @param senderId id of the peer that stores the chunk
+     * @return returns false if the peer was already known to store the chunk
+     */
+    public boolean addHolder(String fileId, String chunkNo, String senderId) {
 
+        String chunkId = fileId + chunkNo;
 
+        synchronized (statistics) {
+            if (receivedStoredMessages.get(getHolderKey(chunkId, senderId)) == null) {
+
+                receivedStoredMessages.put(getHolderKey(chunkId, senderId), senderId);
+                chunkHolders.computeIfAbsent(chunkId, id -> ConcurrentHashMap.newKeySet()).add(senderId);
+                addToDigest(holderDigests.computeIfAbsent(senderId, id -> new ConcurrentSkipListMap<>()), chunkId);
+
+                countChunk(chunkId, -1);
+                String currentReplicationDegree = chunksReplicationDegree.get(chunkId);
+                if (currentReplicationDegree == null) {
+                    chunksReplicationDegree.put(chunkId, "1");
+                    indexChunk(chunkId);
+                } else {
+                    int temp = Integer.parseInt(currentReplicationDegree);
+                    chunksReplicationDegree.put(chunkId, String.valueOf(temp + 1));
+                }
+                countChunk(chunkId, 1);
+                clock.signal(statistics);
+                return true;
+            }
+        }
+        return false;
     }
 
     /**
      * Decreases registry about the number of times a chunk has been replicated
+     * and forgets the peer that removed it, so that a later STORED from it counts again
      *
-     * @param fileId
+     * @param fileId   id of the file that the chunk belongs to
+     * @param chunkNo  chunk number
+     * @param senderId id of the peer that removed the chunk
      */
-    public void decreaseReplicationDegree(String fileId, String chunkNo) {
+    public void decreaseReplicationDegree(String fileId, String chunkNo, String senderId) {
+        forgetHolder(fileId, chunkNo, senderId);
+        saveMetadataToDisk();
+    }
+
+    /**
+     * Same as decreaseReplicationDegree without saving the metadata, for callers that save once after many changes
+     *
+     * @param fileId   id of the file that the chunk belongs to
+     * @param chunkNo  chunk number
+     * @param senderId id of the peer that removed the chunk
+     */
+    public void forgetHolder(String fileId, String chunkNo, String senderId) {
         String chunkId = fileId + chunkNo;
-        String currentReplicationDegree = chunksReplicationDegree.get(chunkId);
 
-        if (currentReplicationDegree != null) {
-            int temp = Integer.parseInt(currentReplicationDegree);
-            chunksReplicationDegree.put(chunkId, String.valueOf(temp - 1));
+        synchronized (statistics) {
+            if (receivedStoredMessages.remove(getHolderKey(chunkId, senderId)) != null) {
+                Set<String> holders = chunkHolders.get(chunkId);
+                if (holders != null)
+                    holders.remove(senderId);
+                removeFromDigest(holderDigests.get(senderId), chunkId);
+
+                String currentReplicationDegree = chunksReplicationDegree.get(chunkId);
+                if (currentReplicationDegree != null) {
+                    countChunk(chunkId, -1);
+                    int temp = Integer.parseInt(currentReplicationDegree);
+                    chunksReplicationDegree.put(chunkId, String.valueOf(temp - 1));
+                    countChunk(chunkId, 1);
+                }
+            }
         }
-        saveMetadataToDisk();
     }
 
+    /**
+     * Returns the peers known to store a chunk
+     *
+     * @param fileId  id of the file that the chunk belongs to
+     * @param chunkNo chunk number
+     * @return returns the ids of the holders, empty if none is known
+     */
+    public Set<String> getChunkHolders(String fileId, String chunkNo) {
+        return chunkHolders.getOrDefault(fileId + chunkNo, Collections.emptySet());
+    }
 
     /**
-     * Saves information about chunks replication degree to non-volatile memory
+     * @return returns the files with chunks stored by this peer or whose replication degree it keeps
      */
-    public void saveMetadataToDisk() {
-        Properties chunksRepDegProperties = new Properties();
-        Properties storedChunksProperties = new Properties();
-        Properties receivedStoredMessagesProperties = new Properties();
+    public Set<String> getIndexedFiles() {
+        return new HashSet<>(fileChunks.keySet());
+    }
 
-        chunksRepDegProperties.putAll(chunksReplicationDegree);
-        storedChunksProperties.putAll(storedChunks);
-        receivedStoredMessagesProperties.putAll(receivedStoredMessages);
+    /**
+     * @param fileId id of the file
+     * @return returns true if this peer stores or keeps the replication degree of chunks of the file
+     */
+    public boolean isIndexedFile(String fileId) {
+        return fileChunks.containsKey(fileId);
+    }
 
-        try {
-            chunksRepDegProperties.store(new FileOutputStream(peerId + "/chunksRepDeg.properties"), null);
-            storedChunksProperties.store(new FileOutputStream(peerId + "/storedChunks.properties"), null);
-            receivedStoredMessagesProperties.store(new FileOutputStream(peerId + "/receivedStoredMessages.properties"), null);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+    /**
+     * @return returns the chunks stored by this peer per fileId, sorted by fileId
+     */
+    public NavigableMap<String, RangeDigest> getStoredDigests() {
+        return Collections.unmodifiableNavigableMap(storedDigests);
+    }
 
-        Properties diskInfo = new Properties();
-        OutputStream output = null;
+    /**
+     * @param holderId id of another peer
+     * @return returns the chunks the peer is believed to store per fileId, sorted by fileId
+     */
+    public NavigableMap<String, RangeDigest> getHolderDigests(String holderId) {
+        NavigableMap<String, RangeDigest> digests = holderDigests.get(holderId);
+        return digests == null ? Collections.emptyNavigableMap() : Collections.unmodifiableNavigableMap(digests);
+    }
 
-        try {
-            output = new FileOutputStream(peerId + "/diskInfo.properties");
-            diskInfo.setProperty("Used Space", Integer.toString(usedSpace));
-            diskInfo.setProperty("Disk Size", Integer.toString(diskSpace));
+    /**
+     * Adds a chunk to the digest of its file, inside compute so that removeFromDigest can't drop the digest while it's added to
+     */
+    private void addToDigest(NavigableMap<String, RangeDigest> digests, String chunkId) {
+        int chunkNo = Integer.parseInt(getChunkNoFromChunkId(chunkId));
+        digests.compute(getFileIdFromChunkId(chunkId), (id, digest) -> {
+            if (digest == null)
+                digest = new RangeDigest();
+            digest.add(chunkNo);
+            return digest;
+        });
+    }
 
-            diskInfo.store(output, null);
+    /**
+     * Removes a chunk from the digest of its file, dropping the digest once it's empty
+     */
+    private void removeFromDigest(NavigableMap<String, RangeDigest> digests, String chunkId) {
+        if (digests == null)
+            return;
+        int chunkNo = Integer.parseInt(getChunkNoFromChunkId(chunkId));
+        digests.computeIfPresent(getFileIdFromChunkId(chunkId), (id, digest) -> {
+            digest.remove(chunkNo);
+            return digest.isEmpty() ? null : digest;
+        });
+    }
 
-        } catch (IOException e) {
-            e.printStackTrace();
-        } finally {
-            if (output != null) {
-                try {
-                    output.close();
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
+    /**
+     * Returns the chunks of a file that this peer stores or keeps the replication degree of
+     *
+     * @param fileId id of the file
+     * @return returns a copy of the chunk numbers, empty if none is known
+     */
+    public Set<String> getFileChunks(String fileId) {
+        Set<String> chunks = fileChunks.get(fileId);
+        return chunks == null ? Collections.emptySet() : new HashSet<>(chunks);
+    }
+
+    /**
+     * @param chunkId fileId + chunk number
+     * @return returns the size in bytes of a stored chunk, 0 if the peer doesn't store it
+     */
+    public int getStoredChunkSize(String chunkId) {
+        String size = storedChunkSizes.get(chunkId);
+        return size == null ? 0 : Integer.parseInt(size);
+    }
 
+    /**
+     * @param fileId id of the file
+     * @return returns the size in bytes of the chunks of a file stored by this peer
+     */
+    public int getStoredFileSize(String fileId) {
+        int size = 0;
+        for (String chunkNo : getFileChunks(fileId)) {
+            size += getStoredChunkSize(fileId + chunkNo);
         }
+        return size;
+    }
 
+    /**
+     * Adds a chunk to the fileChunks index, inside compute so that unindexChunk can't drop the set while it's added to
+     */
+    private void indexChunk(String chunkId) {
+        fileChunks.compute(getFileIdFromChunkId(chunkId), (id, chunks) -> {
+            if (chunks == null)
+                chunks = ConcurrentHashMap.newKeySet();
+            chunks.add(getChunkNoFromChunkId(chunkId));
+            return chunks;
+        });
+    }
 
+    /**
+     * Drops a chunk from the fileChunks index once neither map refers to it
+     */
+    private void unindexChunk(String chunkId) {
+        fileChunks.computeIfPresent(getFileIdFromChunkId(chunkId), (id, chunks) -> {
+            if (!storedChunks.containsKey(chunkId) && !chunksReplicationDegree.containsKey(chunkId))
+                chunks.remove(getChunkNoFromChunkId(chunkId));
+            return chunks.isEmpty() ? null : chunks;
+        });
+    }
+
+
+    /**
+     * Saves information about chunks replication degree to non-volatile memory
+     */
+    public void saveMetadataToDisk() {
+        long start = System.nanoTime();
+        storeProperties(chunksReplicationDegree, "chunksRepDeg.properties");
+        storeProperties(storedChunks, "storedChunks.properties");
+        storeProperties(receivedStoredMessages, "receivedStoredMessages.properties");
+        storeProperties(erasureCodedFiles, "erasureCodedFiles.properties");
+        storeProperties(storedShards, "storedShards.properties");
+        storeProperties(storedChunkSizes, "storedChunkSizes.properties");
+
+        Map<String, String> diskInfo = new HashMap<>();
+        diskInfo.put("Used Space", Integer.toString(usedSpace));
+        diskInfo.put("Disk Size", Integer.toString(diskSpace));
+        storeProperties(diskInfo, "diskInfo.properties");
+
+        metrics.recordMetadataSave(System.nanoTime() - start);
+    }
+
+    /**
+     * Writes a map to a properties file of the peer, closing the file before returning
+     *
+     * @param map  map to write
+     * @param name name of the file in the peer folder
+     */
+    private void storeProperties(Map<String, String> map, String name) {
+        Properties properties = new Properties();
+        properties.putAll(map);
+        try (OutputStream output = new FileOutputStream(peerId + "/" + name)) {
+            properties.store(output, null);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
     }
 
     /**
@@ -362,14 +848,57 @@ public class Peer extends UnicastRemoteObject implements PeerInterface {
         loadDataFromFile(chunksRepDegProperties, peerId + "/chunksRepDeg.properties", chunksReplicationDegree);
         loadDataFromFile(storedChunksProperties, peerId + "/storedChunks.properties", storedChunks);
         loadDataFromFile(receivedStoredMessagesProperties, peerId + "/receivedStoredMessages.properties", receivedStoredMessages);
+        loadDataFromFile(new File(peerId + "/storedChunkSizes.properties"), peerId + "/storedChunkSizes.properties", storedChunkSizes);
+
+        //Metadata saved before sizes were kept gets them from the chunk files once
+        for (String chunkId : storedChunks.keySet()) {
+            if (!storedChunkSizes.containsKey(chunkId)) {
+                File chunk = new File(peerId + "/" + getFileIdFromChunkId(chunkId) + "/" + getChunkNoFromChunkId(chunkId));
+                storedChunkSizes.put(chunkId, Long.toString(chunk.length()));
+            }
+        }
+
+        for (String chunkId : storedChunks.keySet()) {
+            indexChunk(chunkId);
+            addToDigest(storedDigests, chunkId);
+        }
+        for (String chunkId : chunksReplicationDegree.keySet())
+            indexChunk(chunkId);
+
+        //The statistics are counted once here and kept up to date on every change afterwards
+        synchronized (statistics) {
+            for (String chunkId : storedChunks.keySet())
+                countChunk(chunkId, 1);
+        }
+
+        //Keys are fileId+chunkNo:senderId and values the senderId, metadata saved before the separator is migrated
+        for (Map.Entry<String, String> entry : new ArrayList<>(receivedStoredMessages.entrySet())) {
+            String chunkId = entry.getKey().substring(0, entry.getKey().length() - entry.getValue().length());
+            if (chunkId.endsWith(":")) {
+                chunkId = chunkId.substring(0, chunkId.length() - 1);
+            } else {
+                receivedStoredMessages.remove(entry.getKey());
+                receivedStoredMessages.put(getHolderKey(chunkId, entry.getValue()), entry.getValue());
+            }
+            chunkHolders.computeIfAbsent(chunkId, id -> ConcurrentHashMap.newKeySet()).add(entry.getValue());
+            addToDigest(holderDigests.computeIfAbsent(entry.getValue(), id -> new ConcurrentSkipListMap<>()), chunkId);
+        }
+        loadDataFromFile(new File(peerId + "/erasureCodedFiles.properties"), peerId + "/erasureCodedFiles.properties", erasureCodedFiles);
+        loadDataFromFile(new File(peerId + "/storedShards.properties"), peerId + "/storedShards.properties", storedShards);
+
+        for (Map.Entry<String, String> entry : storedShards.entrySet()) {
+            String fileId = getFileIdFromChunkId(entry.getKey());
+            String shardNo = getChunkNoFromChunkId(entry.getKey());
+            reservedStripes.put(getStripeKey(fileId, Integer.parseInt(shardNo) / getStripeWidth(entry.getValue())), shardNo);
+        }
 
 
         File diskInfo = new File(peerId + "/diskInfo.properties");
 
         if (diskInfo.exists() && !diskInfo.isDirectory()) {
             Properties properties = new Properties();
-            try {
-                properties.load(new FileInputStream(peerId + "/diskInfo.properties"));
+            try (InputStream input = new FileInputStream(peerId + "/diskInfo.properties")) {
+                properties.load(input);
             } catch (IOException e) {
                 e.printStackTrace();
             }
@@ -390,8 +919,8 @@ public class Peer extends UnicastRemoteObject implements PeerInterface {
     public void loadDataFromFile(File file, String filePath, Map data) {
         if (file.exists() && !file.isDirectory()) {
             Properties properties = new Properties();
-            try {
-                properties.load(new FileInputStream(filePath));
+            try (InputStream input = new FileInputStream(filePath)) {
+                properties.load(input);
             } catch (IOException e) {
                 e.printStackTrace();
             }
@@ -433,6 +962,28 @@ public class Peer extends UnicastRemoteObject implements PeerInterface {
         }
     }
 
+    /**
+     * Waits for a chunk to reach a replication degree, woken by every STORED that adds a holder
+     *
+     * @param fileId            Id of the file that the chunk belongs to
+     * @param chunkNo           Chunk number
+     * @param replicationDegree replication degree to wait for
+     * @param timeout           longest time to wait in milliseconds
+     * @return returns false if the time ran out first
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public boolean awaitReplicationDegree(String fileId, String chunkNo, int replicationDegree, long timeout) throws InterruptedException {
+        long deadline = clock.millis() + timeout;
+        synchronized (statistics) {
+            for (long left = timeout; getReplicationDegreeOfChunk(fileId, chunkNo) < replicationDegree; left = deadline - clock.millis()) {
+                if (left <= 0)
+                    return false;
+                clock.await(statistics, left);
+            }
+        }
+        return true;
+    }
+
     /**
      * Returns the desired replication degree of a chunk from its key
      *
@@ -467,12 +1018,14 @@ public class Peer extends UnicastRemoteObject implements PeerInterface {
     public byte[] getChunk(String fileId, String chunkNo) {
         byte[] chunk = null;
 
+        long start = System.nanoTime();
         Path path = Paths.get(peerId + "/" + fileId + "/" + chunkNo);
         try {
             chunk = Files.readAllBytes(path);
         } catch (IOException e) {
             e.printStackTrace();
         }
+        metrics.recordChunkRead(System.nanoTime() - start);
 
         return chunk;
     }
@@ -530,33 +1083,118 @@ public class Peer extends UnicastRemoteObject implements PeerInterface {
 
 
     /**
-     * Adds message to the stack of received delete messages
+     * Removes chunk from the stored chunks hashmap
      *
-     * @param message DELETE message
+     * @param chunkID fileId +  chunk number
      */
-    public void addMessageToStackDelete(Message message) {
-        String fileId = message.getMessageHeader().getFileId();
-        this.stackDeleteMessage.put(fileId, message);
+    public void removeChunkFromStoredChunks(String chunkID) {
+        synchronized (statistics) {
+            countChunk(chunkID, -1);
+            this.storedChunks.remove(chunkID);
+        }
+        this.storedChunkSizes.remove(chunkID);
+        unindexChunk(chunkID);
+        removeFromDigest(storedDigests, chunkID);
+
+        String layout = this.storedShards.remove(chunkID);
+        if (layout != null) {
+            int stripeNo = Integer.parseInt(getChunkNoFromChunkId(chunkID)) / getStripeWidth(layout);
+            this.reservedStripes.remove(getStripeKey(getFileIdFromChunkId(chunkID), stripeNo));
+        }
+    }
 
+    /**
+     * Registers a file backed up by this peer with erasure coding
+     *
+     * @param fileId   fileId of the file
+     * @param layout   stripe layout <DataShards>+<ParityShards>
+     * @param fileName name of the file
+     */
+    public void addErasureCodedFile(String fileId, String layout, String fileName) {
+        this.erasureCodedFiles.put(fileId, layout + "-" + fileName);
     }
 
     /**
-     * Removes message from the stack
+     * Returns the stripe layout of a file backed up by this peer with erasure coding
      *
-     * @param fileId fileId of the deleted file
+     * @param fileId fileId of the file
+     * @return returns <DataShards>+<ParityShards> or null if the file is replicated
      */
-    public void removeMessageFromStackDelete(String fileId) {
-        this.stackDeleteMessage.remove(fileId);
+    public String getErasureCodedLayout(String fileId) {
+        String info = erasureCodedFiles.get(fileId);
+        return info == null ? null : info.split("-", 2)[0];
+    }
 
+    /**
+     * Returns the name of a file backed up by this peer with erasure coding
+     *
+     * @param fileId fileId of the file
+     * @return returns the file name or null if the file is replicated
+     */
+    public String getErasureCodedFileName(String fileId) {
+        String info = erasureCodedFiles.get(fileId);
+        return info == null ? null : info.split("-", 2)[1];
     }
 
     /**
-     * Removes chunk from the stored chunks hashmap
+     * Reserves a stripe for a shard, a peer only holds one shard of each stripe
      *
-     * @param chunkID fileId +  chunk number
+     * @param fileId   fileId of the shard
+     * @param stripeNo stripe number
+     * @param shardNo  shard number
+     * @return returns false if the peer already holds or is storing a shard of the stripe
      */
-    public void removeChunkFromStoredChunks(String chunkID) {
-        this.storedChunks.remove(chunkID);
+    public boolean reserveStripe(String fileId, int stripeNo, String shardNo) {
+        return reservedStripes.putIfAbsent(getStripeKey(fileId, stripeNo), shardNo) == null;
+    }
+
+    /**
+     * Releases a stripe reserved for a shard that ended up not being stored
+     *
+     * @param fileId   fileId of the shard
+     * @param stripeNo stripe number
+     */
+    public void releaseStripe(String fileId, int stripeNo) {
+        reservedStripes.remove(getStripeKey(fileId, stripeNo));
+    }
+
+    /**
+     * Registers a stored chunk as a shard of an erasure coded stripe
+     *
+     * @param fileId  fileId of the shard
+     * @param shardNo shard number
+     * @param layout  stripe layout <DataShards>+<ParityShards>
+     */
+    public void addShardToRegistry(String fileId, String shardNo, String layout) {
+        this.storedShards.put(fileId + shardNo, layout);
+    }
+
+    /**
+     * Checks if a stored chunk is a shard of an erasure coded stripe
+     *
+     * @param chunkId fileId + shard number
+     * @return returns true if the chunk is a shard
+     */
+    public boolean isShard(String chunkId) {
+        return storedShards.containsKey(chunkId);
+    }
+
+    /**
+     * Checks if a stored shard holds parity, parity shards follow the data shards in their stripe
+     *
+     * @param chunkId fileId + shard number
+     * @return returns true if the chunk is a parity shard
+     */
+    public boolean isParityShard(String chunkId) {
+        String layout = storedShards.get(chunkId);
+        if (layout == null)
+            return false;
+        int[] shards = parseLayout(layout);
+        return Integer.parseInt(getChunkNoFromChunkId(chunkId)) % (shards[0] + shards[1]) >= shards[0];
+    }
+
+    private String getStripeKey(String fileId, int stripeNo) {
+        return fileId + "#" + stripeNo;
     }
 
     /**
@@ -565,7 +1203,51 @@ public class Peer extends UnicastRemoteObject implements PeerInterface {
      * @param chunkId fileId + chunk number
      */
     public void removeFromChunksReplicationDegree(String chunkId) {
-        this.chunksReplicationDegree.remove(chunkId);
+        synchronized (statistics) {
+            countChunk(chunkId, -1);
+            this.chunksReplicationDegree.remove(chunkId);
+            countChunk(chunkId, 1);
+        }
+        unindexChunk(chunkId);
+
+        Set<String> holders = this.chunkHolders.remove(chunkId);
+        if (holders != null) {
+            for (String holder : holders) {
+                this.receivedStoredMessages.remove(getHolderKey(chunkId, holder));
+                removeFromDigest(holderDigests.get(holder), chunkId);
+            }
+        }
+    }
+
+    /**
+     * Stops the peer: leaves the channels, stops its threads and executors, unregisters its metrics and unexports it,
+     * so that peers can be started and stopped in the same JVM. The metadata stays on disk
+     */
+    public void close() {
+        backupChannel.close();
+        restoreChannel.close();
+        controlChannel.close();
+        recovery.interrupt();
+        antiEntropy.interrupt();
+        repairScheduler.interrupt();
+        trashPurger.interrupt();
+        metadataWriter.interrupt();
+        synchronized (metadataChanges) {
+            if (metadataChanged)
+                saveMetadataToDisk();
+        }
+        tasks.close();
+        restoreProtocol.stopListening();
+        senderExecutor.shutdownNow();
+        deliverExecutor.shutdownNow();
+        receiverExecutor.shutdownNow();
+        transport.close();
+        metrics.unregister();
+        try {
+            UnicastRemoteObject.unexportObject(this, true);
+        } catch (NoSuchObjectException e) {
+            //Not exported anymore
+        }
     }
 
     public ExecutorService getReceiverExecutor() {
@@ -580,6 +1262,14 @@ public class Peer extends UnicastRemoteObject implements PeerInterface {
         return deliverExecutor;
     }
 
+    /**
+     * @return returns the key of a holder of a chunk in receivedStoredMessages, the separator keeps
+     * chunk 1 of peer 11 apart from chunk 11 of peer 1
+     */
+    private static String getHolderKey(String chunkId, String senderId) {
+        return chunkId + ":" + senderId;
+    }
+
     public String getFileIdFromChunkId(String chunkId) {
         return chunkId.substring(0, 64);
     }
@@ -600,6 +1290,91 @@ public class Peer extends UnicastRemoteObject implements PeerInterface {
         return this.backup;
     }
 
+    /**
+     * Registers a backup session under its fileId
+     *
+     * @param session backup session with its fileId already set
+     */
+    public void addBackupSession(Backup session) {
+        if (backupProtocol.put(session.getFileId(), session) == null)
+            backedUpFiles.incrementAndGet();
+        //A file backed up again must not be deleted by peers catching up on an older delete
+        deleteLog.forget(session.getFileId());
+    }
+
+    /**
+     * Returns the backup session of a file
+     *
+     * @param fileId id of the file
+     * @return returns the session or null if there is none
+     */
+    public Backup getBackupSession(String fileId) {
+        return backupProtocol.get(fileId);
+    }
+
+    /**
+     * Returns the backup session of a file, or the peer's backup protocol if there is none
+     *
+     * @param fileId id of the file
+     * @return returns the backup protocol that handles messages of the file
+     */
+    public Backup getBackupProtocol(String fileId) {
+        Backup session = backupProtocol.get(fileId);
+        return session != null ? session : backup;
+    }
+
+    public Tasks getTasks() {
+        return tasks;
+    }
+
+    public VolunteerBackoff getVolunteerBackoff() {
+        return volunteerBackoff;
+    }
+
+    public TrashPurger getTrashPurger() {
+        return trashPurger;
+    }
+
+    public DeleteLog getDeleteLog() {
+        return deleteLog;
+    }
+
+    public Transport getTransport() {
+        return transport;
+    }
+
+    public Clock getClock() {
+        return clock;
+    }
+
+    /**
+     * @param protocol name of the protocol that draws from it
+     * @return returns the random source of the protocol
+     */
+    public Random getRandom(String protocol) {
+        return randoms.computeIfAbsent(protocol, name -> clock.newRandom(peerId + "-" + name));
+    }
+
+    public PeerMetrics getMetrics() {
+        return metrics;
+    }
+
+    public TokenBucket getRemovedBucket() {
+        return removedBucket;
+    }
+
+    public RepairScheduler getRepairScheduler() {
+        return repairScheduler;
+    }
+
+    public AntiEntropy getAntiEntropy() {
+        return antiEntropy;
+    }
+
+    public Recovery getRecovery() {
+        return recovery;
+    }
+
     public int getUsedSpace() {
         return usedSpace;
     }
@@ -612,6 +1387,37 @@ public class Peer extends UnicastRemoteObject implements PeerInterface {
         return restoreProtocol;
     }
 
+    /**
+     * Registers a running restore session under its fileId
+     *
+     * @param session restore session with its fileId already set
+     */
+    public void addRestoreSession(Restore session) {
+        restoreSessions.computeIfAbsent(session.getFileId(), id -> ConcurrentHashMap.newKeySet()).add(session);
+    }
+
+    /**
+     * Removes a finished restore session
+     *
+     * @param session restore session
+     */
+    public void removeRestoreSession(Restore session) {
+        restoreSessions.computeIfPresent(session.getFileId(), (id, sessions) -> {
+            sessions.remove(session);
+            return sessions.isEmpty() ? null : sessions;
+        });
+    }
+
+    /**
+     * Returns the running restore sessions of a file
+     *
+     * @param fileId id of the file
+     * @return returns the sessions, empty if there are none
+     */
+    public Set<Restore> getRestoreSessions(String fileId) {
+        return restoreSessions.getOrDefault(fileId, Collections.emptySet());
+    }
+
     public String getMc_ip() {
         return mc_ip;
     }
@@ -651,9 +1457,5 @@ public class Peer extends UnicastRemoteObject implements PeerInterface {
     public Map<String, String> getChunksReplicationDegree() {
         return chunksReplicationDegree;
     }
-
-    public Map<String, Message> getStackDeleteMessage() {
-        return stackDeleteMessage;
-    }
 }
 
@@ -9,11 +9,27 @@ public interface PeerInterface extends Remote {
 
     void backup(String file, int replicationDegree) throws RemoteException;
 
+    void backupErasureCoded(String file, int dataShards, int parityShards) throws RemoteException;
+
     void restore(String file) throws RemoteException;
 
+    byte[] restoreRange(String file, long offset, int length) throws RemoteException;
+
+    RemoteChunkIterator restoreStream(String file) throws RemoteException;
+
     void delete(String file) throws RemoteException;
 
+    void deleteFiles(String[] files) throws RemoteException;
+
     void spaceReclaim(int value) throws RemoteException;
 
-    void state() throws RemoteException;
+    StateSummary stateSummary() throws RemoteException;
+
+    StatePage<FileState> backedUpFiles(String after, int limit) throws RemoteException;
+
+    StatePage<ChunkState> backedUpChunks(String fileId, String after, int limit) throws RemoteException;
+
+    StatePage<ChunkState> storedChunks(String after, int limit) throws RemoteException;
+
+    String status() throws RemoteException;
 }
@@ -0,0 +1,97 @@
+package Peer;
+
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Background stage of the peer startup.
+ * The peer serves requests as soon as its metadata is loaded and its channels are open,
+ * while this thread announces the peer, replays the pending tasks concurrently and saves the metadata.
+ */
+public class Recovery extends Thread {
+
+    /* Threads that replay pending tasks */
+    private static final int RECOVERY_THREADS = 4;
+
+    private Peer peer;
+    private long startTime;
+    private volatile long recoveryTime = -1;
+    private volatile String stage = "Starting";
+    private volatile int totalTasks = 0;
+    private AtomicInteger replayedTasks = new AtomicInteger();
+
+    public Recovery(Peer peer) {
+        this.peer = peer;
+        this.startTime = peer.getClock().millis();
+        setName("Recovery-" + peer.getPeerId());
+        setDaemon(true);
+    }
+
+    public void run() {
+        peer.getClock().enter();
+        try {
+            recover();
+        } finally {
+            peer.getClock().exit();
+        }
+    }
+
+    private void recover() {
+        if (peer.getVersion().equals("1.1")) {
+            //Catches up on deletes before resuming backups
+            stage = "Announcing";
+            peer.getDeleteProtocol().sendAliveMessage();
+            peer.getClock().start(peer.getAntiEntropy());
+
+            stage = "Replaying pending tasks";
+            Map<String, String> tasks = peer.getTasks().getPendingTasks();
+            totalTasks = tasks.size();
+            ExecutorService replay = peer.getClock().newExecutor(RECOVERY_THREADS);
+            for (Map.Entry<String, String> task : tasks.entrySet()) {
+                replay.execute(() -> {
+                    try {
+                        peer.getTasks().finishPendingTask(task.getKey(), task.getValue());
+                    } finally {
+                        synchronized (replayedTasks) {
+                            replayedTasks.incrementAndGet();
+                            peer.getClock().signal(replayedTasks);
+                        }
+                    }
+                });
+            }
+            replay.shutdown();
+            //Replayed tasks wait on the clock, so the end of the replay is waited for on it as well
+            try {
+                synchronized (replayedTasks) {
+                    while (replayedTasks.get() < totalTasks)
+                        peer.getClock().await(replayedTasks, 0);
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+
+        stage = "Saving metadata";
+        peer.saveMetadataToDisk();
+
+        recoveryTime = peer.getClock().millis() - startTime;
+        stage = "Ready";
+    }
+
+    public boolean isReady() {
+        return recoveryTime >= 0;
+    }
+
+    /**
+     * @return returns READY with the time recovery took, or the current stage and the tasks replayed so far
+     */
+    public String getStatus() {
+        if (isReady())
+            return "READY (recovered in " + recoveryTime + " ms)";
+        String status = "RECOVERING: " + stage;
+        if (totalTasks > 0)
+            status += " " + replayedTasks.get() + "/" + totalTasks;
+        return status + " (" + (peer.getClock().millis() - startTime) + " ms)";
+    }
+}
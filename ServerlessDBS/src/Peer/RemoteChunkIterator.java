@@ -0,0 +1,15 @@
+package Peer;
+
+
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+
+
+public interface RemoteChunkIterator extends Remote {
+
+    boolean hasNext() throws RemoteException;
+
+    byte[] next() throws RemoteException;
+
+    void close() throws RemoteException;
+}
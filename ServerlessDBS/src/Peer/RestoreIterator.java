@@ -0,0 +1,63 @@
+package Peer;
+
+import Subprotocols.Restore;
+
+import java.rmi.NoSuchObjectException;
+import java.rmi.RemoteException;
+import java.rmi.server.UnicastRemoteObject;
+import java.rmi.server.Unreferenced;
+
+/**
+ * Remote iterator over the chunks of a file being restored.
+ * Each call to next returns the following chunk as soon as it arrives,
+ * while the restore session keeps fetching the chunks ahead of it.
+ * A client that crashes or stops iterating without closing it drops its reference,
+ * and the iterator closes itself once RMI notices.
+ */
+public class RestoreIterator extends UnicastRemoteObject implements RemoteChunkIterator, Unreferenced {
+
+    private static final long serialVersionUID = 1L;
+
+    private Restore session;
+
+    /**
+     * Starts a streaming restore of a file
+     *
+     * @param file file to be restored
+     * @param peer peer that restores the file
+     * @throws RemoteException
+     */
+    RestoreIterator(String file, Peer peer) throws RemoteException {
+        super(0);
+        session = new Restore(file, peer);
+        session.openStream();
+    }
+
+    public boolean hasNext() {
+        return session.hasNextChunk();
+    }
+
+    public byte[] next() {
+        byte[] chunk = session.nextChunk();
+        //The session stops listening as soon as the last chunk is consumed, the iterator stays exported for hasNext and close
+        if (!session.hasNextChunk())
+            session.closeStream();
+        return chunk;
+    }
+
+    public void close() {
+        session.closeStream();
+        try {
+            UnicastRemoteObject.unexportObject(this, true);
+        } catch (NoSuchObjectException e) {
+            //Already closed
+        }
+    }
+
+    /**
+     * Called by RMI when no client holds the iterator anymore
+     */
+    public void unreferenced() {
+        close();
+    }
+}
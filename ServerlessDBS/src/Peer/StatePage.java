@@ -0,0 +1,38 @@
+package Peer;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * Page of the state of a peer, the cursor of the next page is the key of the last item
+ *
+ * @param <T> FileState or ChunkState
+ */
+public class StatePage<T extends Serializable> implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private List<T> items;
+    private String next;
+
+    /**
+     * @param items items of the page, in key order
+     * @param next  cursor of the next page, null if this is the last one
+     */
+    public StatePage(List<T> items, String next) {
+        this.items = items;
+        this.next = next;
+    }
+
+    public List<T> getItems() {
+        return items;
+    }
+
+    public String getNext() {
+        return next;
+    }
+
+    public boolean hasNext() {
+        return next != null;
+    }
+}
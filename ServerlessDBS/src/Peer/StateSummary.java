@@ -0,0 +1,67 @@
+package Peer;
+
+import java.io.Serializable;
+
+/**
+ * Summary of the service state of a peer.
+ * Every value is kept up to date by the peer as its metadata changes, so getting it doesn't walk any map.
+ */
+public class StateSummary implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private int storageCapacity;
+    private int usedSpace;
+    private int backedUpFiles;
+    private int storedChunks;
+    private int underReplicatedChunks;
+    private int overReplicatedChunks;
+
+    /**
+     * @param storageCapacity       most bytes the peer uses to store chunks
+     * @param usedSpace             bytes used by the stored chunks
+     * @param backedUpFiles         number of files whose backup the peer initiated
+     * @param storedChunks          number of chunks the peer stores
+     * @param underReplicatedChunks stored chunks below their desired replication degree
+     * @param overReplicatedChunks  stored chunks above their desired replication degree
+     */
+    public StateSummary(int storageCapacity, int usedSpace, int backedUpFiles, int storedChunks, int underReplicatedChunks, int overReplicatedChunks) {
+        this.storageCapacity = storageCapacity;
+        this.usedSpace = usedSpace;
+        this.backedUpFiles = backedUpFiles;
+        this.storedChunks = storedChunks;
+        this.underReplicatedChunks = underReplicatedChunks;
+        this.overReplicatedChunks = overReplicatedChunks;
+    }
+
+    public int getStorageCapacity() {
+        return storageCapacity;
+    }
+
+    public int getUsedSpace() {
+        return usedSpace;
+    }
+
+    public int getBackedUpFiles() {
+        return backedUpFiles;
+    }
+
+    public int getStoredChunks() {
+        return storedChunks;
+    }
+
+    public int getUnderReplicatedChunks() {
+        return underReplicatedChunks;
+    }
+
+    public int getOverReplicatedChunks() {
+        return overReplicatedChunks;
+    }
+
+    @Override
+    public String toString() {
+        return "Storage capacity = " + storageCapacity + " | Used space: " + usedSpace + "\n"
+                + "Backed up files: " + backedUpFiles + "\n"
+                + "Stored chunks: " + storedChunks + " (" + underReplicatedChunks + " under replicated, " + overReplicatedChunks + " over replicated)";
+    }
+}
@@ -0,0 +1,227 @@
+package Subprotocols;
+
+import Message.Mailman;
+import Message.Message;
+import Peer.Peer;
+import Utilities.RangeDigest;
+
+import java.util.*;
+
+import static Utilities.Constants.*;
+import static Utilities.RangeDigest.FANOUT;
+import static Utilities.RangeDigest.LEAF_SIZE;
+import static Utilities.RangeDigest.ROOT_SIZE;
+
+/**
+ * Anti-entropy between peers (version 1.1), so that replication degrees recover from lost STORED and REMOVED messages.
+ * Every peer periodically sends on the multicast control channel (MC) the root digest of the chunks it stores per file,
+ * a RangeDigest that the peer keeps up to date as chunks are stored and removed.
+ * A peer compares each digest with the digest of the chunks it believes the sender stores and only asks for the
+ * children of the nodes that differ, until it reaches the leaves and corrects the holders of the chunks.
+ * The digests of what every holder is believed to store are kept up to date as well,
+ * so that a DIGEST only costs the files it lists and the ones the sender is believed to store in its range.
+ */
+public class AntiEntropy extends Thread {
+
+    /* Average time between digests, can be set with -Dantientropy.interval=<Milliseconds> */
+    private static final long INTERVAL = Long.getLong("antientropy.interval", 60000);
+
+    /* Largest body, a datagram received by the channels holds up to 70000 bytes */
+    private static final int MAX_BODY_SIZE = 60000;
+
+    /* Nodes asked for in a DIGESTREQ, so that the children of all of them fit in one answer */
+    private static final int MAX_REQUESTED_NODES = 32;
+
+    /* Bounds of the fileId ranges of the periodic digests, every fileId sorts between them */
+    private static final String FIRST_FILE = "0";
+    private static final String LAST_FILE = "~";
+
+    private Peer peer;
+
+    public AntiEntropy(Peer peer) {
+        this.peer = peer;
+        setName("AntiEntropy-" + peer.getPeerId());
+        setDaemon(true);
+    }
+
+    public void run() {
+        peer.getClock().enter();
+        try {
+            while (!isInterrupted()) {
+                try {
+                    //Peers started together don't send their digests together
+                    peer.getClock().sleep((long) (INTERVAL / 2 + peer.getRandom("AntiEntropy").nextDouble() * INTERVAL));
+                } catch (InterruptedException e) {
+                    return;
+                }
+                sendDigest();
+            }
+        } finally {
+            peer.getClock().exit();
+        }
+    }
+
+    /**
+     * Sends the root digest of every file this peer stores, in as few DIGEST messages as the datagram size allows.
+     * Every message tells the range of fileIds it covers, so that receivers know that this peer stores nothing of the
+     * files of the range it doesn't list
+     */
+    public void sendDigest() {
+        String from = FIRST_FILE;
+        String last = FIRST_FILE;
+        StringBuilder body = new StringBuilder();
+        for (Map.Entry<String, RangeDigest> file : peer.getStoredDigests().entrySet()) {
+            String line = file.getKey() + " 0 " + ROOT_SIZE + " " + Long.toHexString(file.getValue().getRoot()) + "\n";
+            if (body.length() + line.length() > MAX_BODY_SIZE && body.length() > 0) {
+                sendDigestMessage(body.toString(), from + "-" + last);
+                from = last;
+                body.setLength(0);
+            }
+            body.append(line);
+            last = file.getKey();
+        }
+        sendDigestMessage(body.toString(), from + "-" + LAST_FILE);
+    }
+
+    /**
+     * Compares the digests of another peer with the chunks it is believed to store.
+     * Leaves that differ correct the holders of their chunks, and so do nodes of ranges where the sender stores nothing,
+     * the other nodes that differ are asked for in a DIGESTREQ.
+     * Only the files whose chunks this peer stores or keeps the replication degree of are compared.
+     *
+     * @param message DIGEST message, one <FileId> <From> <To> <Digest> per line
+     */
+    public void applyDigest(Message message) {
+        String sender = message.getMessageHeader().getSenderId();
+        Set<String> listed = new HashSet<>();
+        List<String> requests = new ArrayList<>();
+        boolean changed = false;
+
+        for (String line : new String(message.getBody()).split("\n")) {
+            String[] node = line.trim().split(" ");
+            if (node.length < 4)
+                continue;
+            String fileId = node[0];
+            listed.add(fileId);
+            if (!peer.isIndexedFile(fileId))
+                continue;
+
+            int from = Integer.parseInt(node[1]);
+            int to = Integer.parseInt(node[2]);
+            long digest = Long.parseUnsignedLong(node[3], 16);
+            RangeDigest view = peer.getHolderDigests(sender).get(fileId);
+            if ((view == null ? 0 : view.digest(from, to)) == digest)
+                continue;
+
+            //An empty digest means the sender stores nothing in the range, so there is nothing to drill into
+            if (to - from == LEAF_SIZE || digest == 0)
+                changed |= reconcile(fileId, sender, view, from, to, to - from == LEAF_SIZE ? digest : 0);
+            else
+                requests.add(fileId + " " + from + " " + to);
+        }
+
+        String range = message.getMessageHeader().getSequence();
+        if (!range.equals(ANY_PEER)) {
+            String[] bounds = range.split("-");
+            //Only the files the sender is believed to store in the range are walked, not every file this peer knows
+            for (Map.Entry<String, RangeDigest> file : peer.getHolderDigests(sender).subMap(bounds[0], false, bounds[1], true).entrySet()) {
+                if (!listed.contains(file.getKey()))
+                    changed |= reconcile(file.getKey(), sender, file.getValue(), 0, ROOT_SIZE, 0);
+            }
+        }
+
+        if (changed)
+            peer.saveMetadataToDisk();
+        for (int i = 0; i < requests.size(); i += MAX_REQUESTED_NODES) {
+            sendDigestRequest(sender, requests.subList(i, Math.min(requests.size(), i + MAX_REQUESTED_NODES)));
+        }
+    }
+
+    /**
+     * Answers a DIGESTREQ with the digests of the children of every node asked for
+     *
+     * @param message DIGESTREQ message, one <FileId> <From> <To> per line
+     */
+    public void answerDigestRequest(Message message) {
+        List<String> lines = new ArrayList<>();
+        for (String line : new String(message.getBody()).split("\n")) {
+            String[] node = line.trim().split(" ");
+            if (node.length < 3)
+                continue;
+            int from = Integer.parseInt(node[1]);
+            int to = Integer.parseInt(node[2]);
+            int size = (to - from) / FANOUT;
+            if (size < LEAF_SIZE || (to - from) % FANOUT != 0)
+                continue;
+
+            RangeDigest chunks = peer.getStoredDigests().get(node[0]);
+            for (int child = from; child < to; child += size) {
+                lines.add(node[0] + " " + child + " " + (child + size) + " " + Long.toHexString(chunks == null ? 0 : chunks.digest(child, child + size)));
+            }
+        }
+
+        StringBuilder body = new StringBuilder();
+        for (String line : lines) {
+            if (body.length() + line.length() + 1 > MAX_BODY_SIZE && body.length() > 0) {
+                sendDigestMessage(body.toString(), ANY_PEER);
+                body.setLength(0);
+            }
+            body.append(line).append('\n');
+        }
+        if (body.length() > 0)
+            sendDigestMessage(body.toString(), ANY_PEER);
+    }
+
+    /**
+     * Makes the holders of the chunks of a range match what the sender stores
+     *
+     * @param view   chunks the sender is believed to store
+     * @param bitmap chunks of the range the sender stores, relative to from, 0 if it stores none
+     * @return returns true if a holder changed
+     */
+    private boolean reconcile(String fileId, String sender, RangeDigest view, int from, int to, long bitmap) {
+        boolean changed = false;
+        for (int chunkNo : view == null ? Collections.<Integer>emptyList() : view.getChunks(from, to)) {
+            if (to - from != LEAF_SIZE || (bitmap & (1L << (chunkNo - from))) == 0) {
+                peer.forgetHolder(fileId, Integer.toString(chunkNo), sender);
+                peer.getRepairScheduler().schedule(fileId, Integer.toString(chunkNo));
+                changed = true;
+            }
+        }
+        for (long bits = bitmap; bits != 0; bits &= bits - 1) {
+            int chunkNo = from + Long.numberOfTrailingZeros(bits);
+            if (view == null || !view.contains(chunkNo))
+                changed |= peer.addHolder(fileId, Integer.toString(chunkNo), sender);
+        }
+        return changed;
+    }
+
+    private void sendDigestMessage(String body, String range) {
+        Message request = new Message(DIGEST, peer.getVersion(), peer.getPeerId());
+        request.getMessageHeader().setSequence(range);
+        request.setBody(body.getBytes());
+        Mailman mailman = new Mailman(request, peer);
+        mailman.startMailmanThread();
+    }
+
+    private void sendDigestRequest(String targetId, List<String> nodes) {
+        Message request = new Message(DIGESTREQ, peer.getVersion(), peer.getPeerId());
+        request.getMessageHeader().setTargetId(targetId);
+        request.setBody(String.join("\n", nodes).getBytes());
+        Mailman mailman = new Mailman(request, peer);
+        mailman.startMailmanThread();
+    }
+
+    /**
+     * Sends DIGEST and DIGESTREQ messages for the multicast control channel (MC) with the following formats:
+     * DIGEST <Version> <SenderId> <From>-<To> <CRLF><CRLF> <FileId> <From> <To> <Digest> <LF> ...
+     * DIGESTREQ <Version> <SenderId> <TargetId> <CRLF><CRLF> <FileId> <From> <To> <LF> ...
+     * A DIGEST that answers a DIGESTREQ has * instead of a range of fileIds
+     *
+     * @param message message to be sent
+     */
+    public void deliverDigestMessage(Message message) {
+        Mailman mailman = new Mailman(message, peer.getMc_ip(), peer.getMc_port(), message.getMessageHeader().getMessageType(), peer);
+        mailman.startMailmanThread();
+    }
+}
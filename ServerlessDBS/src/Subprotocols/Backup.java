@@ -4,14 +4,19 @@ package Subprotocols;
 import Message.Mailman;
 import Message.Message;
 import Peer.Peer;
-import Utilities.Tasks;
+import Utilities.ReedSolomon;
 
 import java.io.*;
 import java.text.SimpleDateFormat;
+import java.util.BitSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import static Utilities.Constants.PUTCHUNK;
-import static Utilities.Constants.STORED;
+import static Utilities.Constants.*;
 import static Utilities.Utilities.createHash;
+import static Utilities.Utilities.getNumberOfStripes;
+import static Utilities.Utilities.getStripeWidth;
 
 public class Backup {
 
@@ -19,8 +24,21 @@ public class Backup {
     private int replicationDegree;
     private String fileId;
     private Peer peer;
-    private int numberOfChunks = 1;
-    private Tasks tasks;
+    private int numberOfChunks = 0;
+
+    /* Number of PUTCHUNK messages of this session that were sent again, counted as they are sent */
+    private AtomicInteger putchunkRetries = new AtomicInteger();
+
+    /**
+     * Time each chunk of this session was first sent, while its PUTCHUNK is being retried
+     * String is the chunk number
+     * Long holds the time in milliseconds
+     */
+    private Map<String, Long> putchunkSentAt = new ConcurrentHashMap<>();
+
+    /* Erasure coded backup variables, dataShards = 0 means plain replication */
+    private int dataShards = 0;
+    private int parityShards = 0;
 
     /**
      * Initiates the backup of a file
@@ -35,6 +53,38 @@ public class Backup {
         this.peer = peer;
     }
 
+    /**
+     * Initiates the erasure coded backup of a file
+     * Each stripe of dataShards chunks gets parityShards parity shards,
+     * and every shard is stored once by a distinct peer
+     * @param file file to backup
+     * @param dataShards number of data shards per stripe
+     * @param parityShards number of parity shards per stripe
+     * @param peer peer that calls the backup protocol
+     */
+    public Backup(String file, int dataShards, int parityShards, Peer peer) {
+        this.fileName = file;
+        this.replicationDegree = 1;
+        this.dataShards = dataShards;
+        this.parityShards = parityShards;
+        this.fileId = null;
+        this.peer = peer;
+    }
+
+    /**
+     * Creates a backup session for chunks of a file that is already backed up,
+     * used to send chunks again when their replication degree drops.
+     * It isn't registered in the peer, so it's dropped once the chunks are sent
+     * @param peer peer that calls the backup protocol
+     * @param fileId id of the file
+     * @param replicationDegree desired replication degree
+     */
+    public Backup(Peer peer, String fileId, int replicationDegree) {
+        this.fileId = fileId;
+        this.replicationDegree = replicationDegree;
+        this.peer = peer;
+    }
+
     /**
      * Creates backup protocol
      * @param peer peer that calls the backup protocol
@@ -66,11 +116,38 @@ public class Backup {
 
     }
 
+    /**
+     * Sends a shard of a stripe to the multicast backup channel (MDB) with the following format:
+     * PUTSHARD <Version> <SenderId> <FileId> <ShardNo> <DataShards>+<ParityShards> <CRLF><CRLF><Body>
+     *
+     * @param shard shard to be sent
+     * @param shardNo shard number, stripe number * (dataShards + parityShards) + position in the stripe
+     */
+    public void sendShard(byte[] shard, int shardNo) {
+
+        Message request = new Message(PUTSHARD, peer.getVersion(), peer.getPeerId(), fileId, Integer.toString(shardNo), dataShards + "+" + parityShards);
+        request.setBody(shard);
+
+        Mailman m = new Mailman(request, peer);
+        m.startMailmanThread();
+    }
+
     /**
      * If the peer doesn't have the chunk and it has enough space,
      * it will store the chunk and send a STORED message for the sender
      */
     public void storeChunk(Message message) {
+        storeChunk(message, message.getMessageHeader().getReplicationDeg());
+    }
+
+    /**
+     * Stores the chunk and registers it with the given desired replication degree
+     *
+     * @param message PUTCHUNK or PUTSHARD message
+     * @param desiredRepDeg desired replication degree to keep in the registry
+     * @return returns true if the chunk was stored
+     */
+    private boolean storeChunk(Message message, String desiredRepDeg) {
         long availableSpace = peer.getStorageSpace() - peer.getUsedSpace();
         if (availableSpace > message.getBody().length) {
             Message stored = new Message(STORED, peer.getVersion(), peer.getPeerId(), message.getMessageHeader().getFileId(), message.getMessageHeader().getChunkNo());
@@ -80,6 +157,7 @@ public class Backup {
                 deliverStoredMessage(stored);
             }
             OutputStream output = null;
+            long start = System.nanoTime();
             try {
                 //Creates sub folders structure -> peerId/FileId/ChunkNo
                 File outFile = new File(peer.getPeerId() + "/" + message.getMessageHeader().getFileId() + "/" + message.getMessageHeader().getChunkNo());
@@ -92,41 +170,84 @@ public class Backup {
             try {
                 assert output != null;
                 output.write(message.getBody(), 0, message.getBody().length);
+                peer.getMetrics().recordChunkWrite(System.nanoTime() - start);
                 peer.setUsedSpace(peer.getUsedSpace() + message.getBody().length);
+                peer.getVolunteerBackoff().recordStore();
             } catch (IOException e) {
                 e.printStackTrace();
             } finally {
                 try {
-                    peer.addChunkToRegistry(message.getMessageHeader().getFileId(), message.getMessageHeader().getChunkNo(), message.getMessageHeader().getReplicationDeg());
-                    peer.increaseReplicationDegree(message);
+                    peer.addChunkToRegistry(message.getMessageHeader().getFileId(), message.getMessageHeader().getChunkNo(), desiredRepDeg, message.getBody().length);
+                    peer.increaseReplicationDegree(stored);
                     assert output != null;
                     output.close();
                 } catch (IOException e) {
                     e.printStackTrace();
                 }
             }
+            return true;
         }
+        return false;
     }
 
     /**
-     * Waits a random time before actually store the chunk
+     * Waits a delay based on the peer's free space and load before actually store the chunk
      * If the replication degree of the chunk is already achieved it doesn't store it
      */
     public void storeChunkEnhanced(Message message) {
-        if (!peer.hasChunk(message.getMessageHeader().getFileId(), message.getMessageHeader().getChunkNo())) {
-            try {
-                Thread.sleep((long) (Math.random() * 1500));
-                int desiredRepDeg = Integer.parseInt(message.getMessageHeader().getReplicationDeg());
-                int currentRepDeg = peer.getReplicationDegreeOfChunk(message.getMessageHeader().getFileId(), message.getMessageHeader().getChunkNo());
-                if (currentRepDeg < desiredRepDeg) {
-                    storeChunk(message);
-                }
-            } catch (InterruptedException e) {
-                e.printStackTrace();
+        String fileId = message.getMessageHeader().getFileId();
+        String chunkNo = message.getMessageHeader().getChunkNo();
+        if (!peer.hasChunk(fileId, chunkNo)) {
+            int desiredRepDeg = Integer.parseInt(message.getMessageHeader().getReplicationDeg());
+            long delay = peer.getVolunteerBackoff().getDelay(fileId + chunkNo, message.getBody().length);
+            if (delay >= 0 && waitForVolunteers(fileId, chunkNo, desiredRepDeg, delay)) {
+                storeChunk(message);
             }
         }
     }
 
+    /**
+     * Waits before volunteering to store a chunk, giving up as soon as
+     * the STORED messages of other peers meet the desired replication degree
+     *
+     * @param fileId fileId of the chunk
+     * @param chunkNo chunk number
+     * @param desiredRepDeg desired replication degree
+     * @param delay time to wait in milliseconds
+     * @return returns true if the chunk still needs to be stored after the delay
+     */
+    private boolean waitForVolunteers(String fileId, String chunkNo, int desiredRepDeg, long delay) {
+        try {
+            return !peer.awaitReplicationDegree(fileId, chunkNo, desiredRepDeg, delay);
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        return false;
+    }
+
+
+    /**
+     * Stores a shard only if no other peer has stored it yet and this peer
+     * doesn't hold any other shard of the same stripe, so that a stripe is spread over distinct peers
+     */
+    public void storeShard(Message message) {
+        String fileId = message.getMessageHeader().getFileId();
+        String shardNo = message.getMessageHeader().getChunkNo();
+        String layout = message.getMessageHeader().getReplicationDeg();
+        int stripeNo = Integer.parseInt(shardNo) / getStripeWidth(layout);
+
+        if (peer.hasChunk(fileId, shardNo) || !peer.reserveStripe(fileId, stripeNo, shardNo))
+            return;
+
+        long delay = peer.getVolunteerBackoff().getDelay(fileId + shardNo, message.getBody().length);
+        if (delay >= 0 && waitForVolunteers(fileId, shardNo, 1, delay)) {
+            peer.addShardToRegistry(fileId, shardNo, layout);
+            if (storeChunk(message, "1"))
+                return;
+            peer.removeChunkFromStoredChunks(fileId + shardNo);
+        }
+        peer.releaseStripe(fileId, stripeNo);
+    }
 
     /**
      * Sends PUTCHUNK request for the multicast backup channel (MDB) with the following format:
@@ -140,38 +261,68 @@ public class Backup {
             createTask(message.getMessageHeader().getFileId() + message.getMessageHeader().getChunkNo());
         }
 
-        Mailman mailman = new Mailman(message, peer.getMdb_ip(), peer.getMdb_port(), PUTCHUNK, peer);
+        Mailman mailman = new Mailman(message, peer.getMdb_ip(), peer.getMdb_port(), message.getMessageHeader().getMessageType(), peer);
+        putchunkSentAt.put(message.getMessageHeader().getChunkNo(), peer.getClock().millis());
         mailman.startMailmanThread();
 
+        int desiredRepDeg = getDesiredDegree(message);
         int repDeg = 0;
         int numberOfTries = 0;
-        while (repDeg < Integer.parseInt(message.getMessageHeader().getReplicationDeg()) && numberOfTries < 5) {
+        while (repDeg < desiredRepDeg && numberOfTries < 5) {
             try {
-                Thread.sleep((long) (Math.random() * 1000));
+                peer.getClock().sleep((long) (peer.getRandom("Backup").nextDouble() * 1000));
             } catch (InterruptedException e) {
                 e.printStackTrace();
             } finally {
                 repDeg = peer.getReplicationDegreeOfChunk(message.getMessageHeader().getFileId(), message.getMessageHeader().getChunkNo());
-                if (repDeg < Integer.parseInt(message.getMessageHeader().getReplicationDeg()))
+                if (repDeg < desiredRepDeg) {
                     mailman.startMailmanThread();
+                    putchunkRetries.incrementAndGet();
+                    peer.getMetrics().recordRetry();
+                }
                 numberOfTries++;
                 System.out.println("Tentativa: " + numberOfTries);
                 System.out.println("RepDeg: " + repDeg);
             }
         }
-        if (numberOfTries == 5 && repDeg < Integer.parseInt(message.getMessageHeader().getReplicationDeg())) {
+        if (numberOfTries == 5 && repDeg < desiredRepDeg) {
             System.out.println("Replication degree not achived");
-            /*
-             * Finishes task even though the replication was not achieved
-             * because if the peer crashed we want it to repeat the task that
-             * backsup the whole file, and not the separated chunks
-             * And even if it doesn't fail, the specifications asks us to only
-             * try 5 times
-             */
-            if (peer.getVersion().equals("1.1")) {
-                finishTask(message.getMessageHeader().getFileId() + message.getMessageHeader().getChunkNo());
-            }
         }
+        putchunkSentAt.remove(message.getMessageHeader().getChunkNo());
+        /*
+         * Finishes task even though the replication was not achieved
+         * because the specifications asks us to only try 5 times,
+         * and marks the chunk as sent in the progress of the file backup
+         * so that a peer that crashed only sends the chunks that are missing
+         */
+        if (peer.getVersion().equals("1.1")) {
+            finishTask(message.getMessageHeader().getFileId() + message.getMessageHeader().getChunkNo());
+            peer.getTasks().chunkDone(message.getMessageHeader().getFileId(), Integer.parseInt(message.getMessageHeader().getChunkNo()));
+        }
+    }
+
+    /**
+     * Records the time from the first PUTCHUNK of a chunk to a STORED that answered it,
+     * STORED messages that arrive after the session stopped sending the chunk aren't timed
+     *
+     * @param chunkNo chunk number
+     */
+    public void recordStored(String chunkNo) {
+        Long sentAt = putchunkSentAt.get(chunkNo);
+        if (sentAt != null)
+            peer.getMetrics().recordStoredLatency(peer.getClock().millis() - sentAt);
+    }
+
+    /**
+     * Shards are stored by a single peer, chunks by as many peers as the replication degree
+     *
+     * @param message PUTCHUNK or PUTSHARD message
+     * @return returns the replication degree that has to be reached
+     */
+    private int getDesiredDegree(Message message) {
+        if (message.getMessageHeader().getMessageType().equals(PUTSHARD))
+            return 1;
+        return Integer.parseInt(message.getMessageHeader().getReplicationDeg());
     }
 
     /**
@@ -182,7 +333,7 @@ public class Backup {
      */
     public void deliverStoredMessage(Message message) {
         try {
-            Thread.sleep((long) (Math.random() * 400));
+            peer.getClock().sleep((long) (peer.getRandom("Backup").nextDouble() * 400));
         } catch (InterruptedException e) {
             e.printStackTrace();
         } finally {
@@ -204,13 +355,32 @@ public class Backup {
 
     }
 
+    /**
+     * @return returns the id of the file, from its name and last modification date
+     */
+    public String computeFileId() {
+        File file = new File("./" + "TestFiles/" + fileName);
+        SimpleDateFormat sdf = new SimpleDateFormat("MM/dd/yyyy HH:mm:ss");
+        return createHash(fileName + sdf.format(file.lastModified()));
+    }
+
     /**
      * Reads a file, and splits it in chunks
      * Then calls the send chunk function for each chunk
-     * Also adds the file to the pending tasks and removes once finished
+     * Also adds the file to the pending tasks, that finishes once every chunk was sent
      */
     public void readChunks() {
+        readChunks(new BitSet());
+    }
+
+    /**
+     * Same as readChunks, skipping the chunks a backup interrupted by a crash already sent
+     *
+     * @param sent chunk numbers already sent
+     */
+    public void readChunks(BitSet sent) {
         int chunkNo = 0;
+        int total = -1;
 
         try {
             long maxSizeChunk = 64 * 1000;
@@ -218,10 +388,8 @@ public class Backup {
             String path = "./" + "TestFiles/" + fileName; // windows
             File file = new File(path);
 
-
-            SimpleDateFormat sdf = new SimpleDateFormat("MM/dd/yyyy HH:mm:ss");
-
-            this.fileId = createHash(fileName + sdf.format(file.lastModified()));
+            this.fileId = computeFileId();
+            peer.addBackupSession(this);
 
             if (peer.getVersion().equals("1.1"))
                 createTask(fileId, Integer.toString(replicationDegree) + "-" + fileName);
@@ -239,10 +407,14 @@ public class Backup {
 
             for (int chunkId = 1; chunkId < numSplits; chunkId++) {
 
-                byte[] buf = new byte[(int) maxSizeChunk];
-                int val = fileRaf.read(buf);
-                if (val != -1) {
-                    sendChunk(buf, chunkNo);
+                if (sent.get(chunkNo)) {
+                    fileRaf.seek(fileRaf.getFilePointer() + maxSizeChunk);
+                } else {
+                    byte[] buf = new byte[(int) maxSizeChunk];
+                    int val = fileRaf.read(buf);
+                    if (val != -1) {
+                        sendChunk(buf, chunkNo);
+                    }
                 }
                 chunkNo++;
                 this.numberOfChunks++;
@@ -252,7 +424,7 @@ public class Backup {
 
                 byte[] buf = new byte[(int) (long) lastChunkSize];
                 int val = fileRaf.read(buf);
-                if (val != -1) {
+                if (val != -1 && !sent.get(chunkNo)) {
                     System.out.println("LASTCHUNK Size: " + lastChunkSize);
                     System.out.println("BUF length: " + buf.length);
                     sendChunk(buf, chunkNo);
@@ -260,6 +432,7 @@ public class Backup {
                 this.numberOfChunks++;
             }
             fileRaf.close();
+            total = numSplits;
 
         } catch (IOException e) {
             System.out.println("IOException:");
@@ -267,8 +440,117 @@ public class Backup {
         }
 
         if (peer.getVersion().equals("1.1"))
+            endTask(total);
+
+    }
+
+    /**
+     * A file task finishes once all of its chunks were sent, or right away if the file couldn't be read
+     *
+     * @param total number of chunks of the file, -1 if the file couldn't be read
+     */
+    private void endTask(int total) {
+        if (total < 0)
             finishTask(fileId);
+        else
+            peer.getTasks().setNumberOfChunks(fileId, total);
+    }
+
+    /**
+     * Reads a file, splits it in stripes of dataShards chunks and encodes parityShards parity shards for each one
+     * Then calls the send shard function for each shard
+     * Also adds the file to the pending tasks, that finishes once every shard was sent
+     */
+    public void readStripes() {
+        readStripes(new BitSet());
+    }
+
+    /**
+     * Same as readStripes, skipping the shards a backup interrupted by a crash already sent
+     * and the stripes whose shards were all sent
+     *
+     * @param sent shard numbers already sent
+     */
+    public void readStripes(BitSet sent) {
+        File file = new File("./" + "TestFiles/" + fileName);
+        int total = -1;
+
+        this.fileId = computeFileId();
+        peer.addBackupSession(this);
+
+        if (peer.getVersion().equals("1.1"))
+            createTask(fileId, dataShards + "+" + parityShards + "-" + fileName);
+
+        peer.addErasureCodedFile(fileId, dataShards + "+" + parityShards, fileName);
+
+        ReedSolomon code = new ReedSolomon(dataShards, parityShards);
+        int stripeWidth = code.getTotalShards();
+
+        try {
+            RandomAccessFile fileRaf = new RandomAccessFile(file, "r");
+            int numberOfStripes = getNumberOfStripes(fileRaf.length(), dataShards);
+
+            for (int stripeNo = 0; stripeNo < numberOfStripes; stripeNo++) {
+                this.numberOfChunks += stripeWidth;
+                int first = stripeNo * stripeWidth;
+                if (sent.get(first, first + stripeWidth).cardinality() == stripeWidth)
+                    continue;
+                byte[][] shards = readStripe(fileRaf, code, stripeNo);
+                for (int i = 0; i < stripeWidth; i++) {
+                    if (!sent.get(first + i))
+                        sendShard(shards[i], first + i);
+                }
+            }
+            fileRaf.close();
+            total = numberOfStripes * stripeWidth;
+
+        } catch (IOException e) {
+            System.out.println("IOException:");
+            e.printStackTrace();
+        }
+
+        if (peer.getVersion().equals("1.1"))
+            endTask(total);
+    }
+
+    /**
+     * Rebuilds a shard from the original file and sends it again,
+     * used by the initiator when the only holder of a shard removes it
+     *
+     * @param shardNo shard number
+     */
+    public void rebuildShard(int shardNo) {
+        ReedSolomon code = new ReedSolomon(dataShards, parityShards);
+        File file = new File("./" + "TestFiles/" + fileName);
 
+        try {
+            RandomAccessFile fileRaf = new RandomAccessFile(file, "r");
+            byte[][] shards = readStripe(fileRaf, code, shardNo / code.getTotalShards());
+            fileRaf.close();
+            sendShard(shards[shardNo % code.getTotalShards()], shardNo);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Reads the data shards of a stripe, padding the last one with zeros, and encodes its parity
+     *
+     * @return returns dataShards + parityShards shards of CHUNK_SIZE bytes
+     */
+    private byte[][] readStripe(RandomAccessFile fileRaf, ReedSolomon code, int stripeNo) throws IOException {
+        byte[][] shards = new byte[code.getTotalShards()][CHUNK_SIZE];
+        long offset = (long) stripeNo * dataShards * CHUNK_SIZE;
+        for (int i = 0; i < dataShards; i++) {
+            long remaining = fileRaf.length() - offset;
+            if (remaining > 0) {
+                fileRaf.seek(offset);
+                fileRaf.readFully(shards[i], 0, (int) Math.min(CHUNK_SIZE, remaining));
+            }
+            offset += CHUNK_SIZE;
+        }
+        code.encodeParity(shards, CHUNK_SIZE);
+        return shards;
     }
 
     public String getFileName() {
@@ -299,14 +581,33 @@ public class Backup {
         return numberOfChunks;
     }
 
+    public boolean isErasureCoded() {
+        return dataShards > 0;
+    }
+
+    public int getDataShards() {
+        return dataShards;
+    }
+
+    public int getParityShards() {
+        return parityShards;
+    }
+
+    /**
+     * @return returns the number of PUTCHUNK messages that had to be sent again
+     */
+    public int getNumberOfRetries() {
+        return putchunkRetries.get();
+    }
+
     public void createTask(String chunkId) {
-        tasks.addTask(chunkId);
+        peer.getTasks().addTask(chunkId);
     }
 
     public void createTask(String fileId, String repDeg) {
         System.out.println(fileId);
         System.out.println(repDeg);
-        tasks.addTask(fileId, repDeg);
+        peer.getTasks().addTask(fileId, repDeg);
     }
 
     /**
@@ -314,21 +615,7 @@ public class Backup {
      * @param chunkId fileId + chunkNo
      */
     public void finishTask(String chunkId) {
-        tasks.finishTask(chunkId);
-    }
-
-    /**
-     * Finishes all pending tasks
-     */
-    public void finishPendingTasks() {
-
-        tasks = new Tasks(peer);
-
-        //loads pending tasks from disk
-        tasks.loadTasks();
-
-        //finishes pending tasks
-        tasks.finishPendingTasks();
+        peer.getTasks().finishTask(chunkId);
     }
 
     public void setFileName(String s) {
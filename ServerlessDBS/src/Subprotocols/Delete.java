@@ -5,19 +5,30 @@ import Message.Mailman;
 import Message.Message;
 import Peer.Peer;
 
+import Utilities.DeleteLog;
+
 import java.io.File;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Objects;
+import java.util.Set;
 
-import static Utilities.Constants.ALIVE;
-import static Utilities.Constants.DELETE;
+import static Utilities.Constants.*;
 import static Utilities.Utilities.createHash;
 
 public class Delete {
 
+    /* Largest DELETEBATCH body, a datagram received by the channels holds up to 70000 bytes */
+    private static final int MAX_BATCH_SIZE = 60000;
+
     private String fileName;
     private String fileId;
+    private String[] fileNames;
 
     private Peer peer;
 
@@ -27,6 +38,17 @@ public class Delete {
 
     }
 
+    /**
+     * Creates a delete of many files at once
+     *
+     * @param files files to be deleted
+     * @param peer  peer that deletes the files
+     */
+    public Delete(String[] files, Peer peer) {
+        this.fileNames = files;
+        this.peer = peer;
+    }
+
     public Delete(Peer peer) {
         this.peer = peer;
     }
@@ -38,10 +60,69 @@ public class Delete {
      */
     public void start() {
         setFileId();
-        Message request = new Message(DELETE, peer.getVersion(), peer.getPeerId(), this.fileId);
+        deleteFile(this.fileId);
+    }
+
+    /**
+     * Deletes a file by its fileId, such as the previous version of a file that changed
+     * while its backup was interrupted, and forgets its chunks
+     *
+     * @param fileId id of the file
+     */
+    public void deleteFile(String fileId) {
+        Message request = new Message(DELETE, peer.getVersion(), peer.getPeerId(), fileId);
+
+        //The delete is logged until every known holder acknowledges it
+        if (peer.getVersion().equals("1.1")) {
+            long sequence = peer.getDeleteLog().append(fileId, getHolders(fileId));
+            request.getMessageHeader().setSequence(Long.toString(sequence));
+        }
         Mailman messageHandler = new Mailman(request, peer);
         messageHandler.startMailmanThread();
-        updateRepDeg(this.fileId);
+        updateRepDeg(fileId);
+    }
+
+    /**
+     * This function deletes many files at once, every delete goes to the delete log and
+     * the files are announced in as few DELETEBATCH messages as possible.
+     * Peers running version 1.0 don't know DELETEBATCH, so they send one DELETE per file.
+     * The metadata is saved once for the whole batch.
+     */
+    public void startBatch() {
+        Map<String, Set<String>> deletes = new LinkedHashMap<>();
+        for (String file : fileNames) {
+            String id = getFileId(file);
+            deletes.put(id, getHolders(id));
+        }
+
+        if (peer.getVersion().equals("1.1")) {
+            List<String> lines = peer.getDeleteLog().appendAll(deletes);
+            if (!lines.isEmpty())
+                sendDeleteBatch(lines, getSequence(lines.get(0)), getSequence(lines.get(lines.size() - 1)));
+        } else {
+            for (String id : deletes.keySet()) {
+                Mailman messageHandler = new Mailman(new Message(DELETE, peer.getVersion(), peer.getPeerId(), id), peer);
+                messageHandler.startMailmanThread();
+            }
+        }
+
+        for (String id : deletes.keySet()) {
+            forgetFile(id);
+        }
+        peer.saveMetadataToDisk();
+    }
+
+    /**
+     * @param file id of the file
+     * @return returns the other peers known to hold chunks of the file
+     */
+    private Set<String> getHolders(String file) {
+        Set<String> holders = new HashSet<>();
+        for (String chunkNo : peer.getFileChunks(file)) {
+            holders.addAll(peer.getChunkHolders(file, chunkNo));
+        }
+        holders.remove(peer.getPeerId());
+        return holders;
     }
 
 
@@ -52,16 +133,22 @@ public class Delete {
      */
     private void updateRepDeg(String file) {
 
-        for (Map.Entry<String, String> entry : peer.getChunksReplicationDegree().entrySet()) {
-            String key = entry.getKey();
-            String value = peer.getFileIdFromChunkId(entry.getKey());
-            if (Objects.equals(value, file)) {
-                peer.removeChunkFromStoredChunks(key);
-                peer.removeFromChunksReplicationDegree(key);
+        forgetFile(file);
+        peer.saveMetadataToDisk();
+    }
 
-            }
+    /**
+     * This function removes the chunks of a file from the metadata, without saving it to disk.
+     *
+     * @param file
+     */
+    private void forgetFile(String file) {
+
+        for (String chunkNo : peer.getFileChunks(file)) {
+            String key = file + chunkNo;
+            peer.removeChunkFromStoredChunks(key);
+            peer.removeFromChunksReplicationDegree(key);
         }
-        peer.saveMetadataToDisk();
     }
 
 
@@ -73,33 +160,102 @@ public class Delete {
      */
     public void deleteChunks(String fileId) {
 
+        removeChunks(fileId);
+        peer.saveMetadataToDisk();
+
+    }
+
+    /**
+     * This function moves the folder with the given fileId to the trash and removes its chunks from the metadata,
+     * without saving it to disk. The used space is updated from the stored chunk sizes,
+     * the chunks themselves are purged from the disk in the background.
+     *
+     * @param fileId
+     */
+    private void removeChunks(String fileId) {
+
         String path = "./" + peer.getPeerId() + "/" + fileId;
-        File file = new File(path);
-        deleteFolder(file);
-        if (peer.getDeleteProtocol() != null) {
-            peer.getDeleteProtocol().updateRepDeg(fileId);
-        }
+        if (peer.getTrashPurger().moveToTrash(new File(path)))
+            peer.setUsedSpace(peer.getUsedSpace() - peer.getStoredFileSize(fileId));
+        forgetFile(fileId);
+    }
+
+    /**
+     * Applies a DELETE received in the enhanced protocol (version 1.1),
+     * advances the delete log watermark of the sender and acknowledges the delete if the peer held the file
+     *
+     * @param message DELETE message
+     */
+    public void applyDelete(Message message) {
+        String fileId = message.getMessageHeader().getFileId();
+        boolean held = holdsFile(fileId);
 
+        deleteChunks(fileId);
+
+        String sequence = message.getMessageHeader().getSequence();
+        if (sequence != null)
+            peer.getDeleteLog().apply(message.getMessageHeader().getSenderId(), Long.parseLong(sequence));
+        if (held)
+            sendDeletedMessage(Collections.singletonList(fileId));
     }
 
     /**
-     * This function delete all the chunks of the folder and update the size of the peer.
+     * Applies the deletes of a DELETEBATCH, skipping the ones already applied.
+     * A delete is acknowledged if the peer held the file or is still listed as a holder by the sender.
+     * The metadata is saved and the deletes are acknowledged once for the whole batch.
      *
-     * @param folder
-     */
-    private void deleteFolder(File folder) {
-        File[] files = folder.listFiles();
-        if (files != null) {
-            for (File f : files) {
-                if (f.isDirectory()) {
-                    deleteFolder(f);
-                } else {
-                    peer.setUsedSpace(peer.getUsedSpace() - (int) f.length());
-                    f.delete();
-                }
+     * @param message DELETEBATCH message, one <Sequence> <FileId> <Holder>,<Holder>... per line
+     */
+    public void applyDeleteBatch(Message message) {
+        String origin = message.getMessageHeader().getSenderId();
+        String[] range = message.getMessageHeader().getSequence().split("-");
+
+        List<String[]> entries = new ArrayList<>();
+        List<Long> sequences = new ArrayList<>();
+        for (String line : new String(message.getBody()).split("\n")) {
+            String[] entry = line.trim().split(" ");
+            if (entry.length < 2)
+                continue;
+            entries.add(entry);
+            sequences.add(Long.parseLong(entry[0]));
+        }
+        Set<Long> applied = peer.getDeleteLog().applyAll(origin, sequences, Long.parseLong(range[0]), Long.parseLong(range[1]));
+
+        List<String> acknowledged = new ArrayList<>();
+        boolean changed = false;
+        for (String[] entry : entries) {
+            String fileId = entry[1];
+            boolean listed = entry.length > 2 && Arrays.asList(entry[2].split(",")).contains(peer.getPeerId());
+            boolean held = holdsFile(fileId);
+
+            if (applied.contains(Long.parseLong(entry[0])) || held) {
+                removeChunks(fileId);
+                changed = true;
             }
+            if (held || listed)
+                acknowledged.add(fileId);
+        }
+        if (changed)
+            peer.saveMetadataToDisk();
+        sendDeletedMessage(acknowledged);
+    }
+
+    /**
+     * A holder deleted files, the delete log entries are pruned once every holder did
+     *
+     * @param message DELETED message
+     */
+    public void acknowledgeDelete(Message message) {
+        List<String> fileIds = new ArrayList<>();
+        for (String line : new String(message.getBody()).split("\n")) {
+            if (!line.trim().isEmpty())
+                fileIds.add(line.trim());
         }
-        folder.delete();
+        peer.getDeleteLog().acknowledge(fileIds, message.getMessageHeader().getSenderId());
+    }
+
+    private boolean holdsFile(String fileId) {
+        return new File("./" + peer.getPeerId() + "/" + fileId).exists();
     }
 
     /**
@@ -116,16 +272,111 @@ public class Delete {
     }
 
 
+    /**
+     * Acknowledges deleted files in as few DELETED messages as the datagram size allows
+     *
+     * @param fileIds deleted files
+     */
+    private void sendDeletedMessage(List<String> fileIds) {
+        for (String body : splitIntoBatches(fileIds)) {
+            Message request = new Message(DELETED, peer.getVersion(), peer.getPeerId());
+            request.setBody(body.getBytes());
+            Mailman messageHandler = new Mailman(request, peer);
+            messageHandler.startMailmanThread();
+        }
+    }
+
+    /**
+     * Sends a DELETED message for the multicast control channel (MC) with the following format:
+     * DELETED <Version> <SenderId> <CRLF><CRLF> <FileId> <LF> ...
+     */
+    public void deliverDeletedMessage(Message message) {
+        Mailman mailman = new Mailman(message, peer.getMc_ip(), peer.getMc_port(), DELETED, peer);
+        mailman.startMailmanThread();
+    }
+
+    /**
+     * Sends the entries of the delete log in as few DELETEBATCH messages as the datagram size allows.
+     * Every message tells the range of sequences it covers, so that receivers also skip the pruned ones.
+     *
+     * @param lines delete log entries sorted by sequence, one <Sequence> <FileId> <Holder>,<Holder>... per line
+     * @param from  first sequence covered by the entries
+     * @param to    last sequence covered by the entries
+     */
+    public void sendDeleteBatch(List<String> lines, long from, long to) {
+        long start = from;
+        long last = from - 1;
+        StringBuilder body = new StringBuilder();
+        for (String line : lines) {
+            if (body.length() + line.length() + 1 > MAX_BATCH_SIZE && body.length() > 0) {
+                sendDeleteBatchMessage(body.toString(), start, last);
+                start = Math.max(start, last + 1);
+                body.setLength(0);
+            }
+            body.append(line).append('\n');
+            last = Math.max(last, getSequence(line));
+        }
+        if (body.length() > 0 || start <= to)
+            sendDeleteBatchMessage(body.toString(), start, to);
+    }
+
+    private void sendDeleteBatchMessage(String body, long from, long to) {
+        Message request = new Message(DELETEBATCH, peer.getVersion(), peer.getPeerId());
+        request.getMessageHeader().setSequence(from + "-" + to);
+        request.setBody(body.getBytes());
+        Mailman messageHandler = new Mailman(request, peer);
+        messageHandler.startMailmanThread();
+    }
+
+    private long getSequence(String line) {
+        return Long.parseLong(line.substring(0, line.indexOf(' ')));
+    }
+
+    /**
+     * Joins lines into message bodies of at most MAX_BATCH_SIZE bytes
+     */
+    private List<String> splitIntoBatches(List<String> lines) {
+        List<String> bodies = new ArrayList<>();
+        StringBuilder body = new StringBuilder();
+        for (String line : lines) {
+            if (body.length() + line.length() + 1 > MAX_BATCH_SIZE && body.length() > 0) {
+                bodies.add(body.toString());
+                body.setLength(0);
+            }
+            body.append(line).append('\n');
+        }
+        if (body.length() > 0)
+            bodies.add(body.toString());
+        return bodies;
+    }
+
+    /**
+     * Sends a DELETEBATCH message for the multicast control channel (MC) with the following format:
+     * DELETEBATCH <Version> <SenderId> <From>-<To> <CRLF><CRLF> <Sequence> <FileId> <Holder>,<Holder>... <LF> ...
+     * It sends 3 DELETEBATCH requests to ensure that all peers receive it, applying one twice does nothing
+     */
+    public void deliverDeleteBatchMessage(Message message) {
+        for (int i = 0; i < 3; i++) {
+            Mailman mailman = new Mailman(message, peer.getMc_ip(), peer.getMc_port(), DELETEBATCH, peer);
+            mailman.startMailmanThread();
+        }
+    }
+
     /**
      * When a peer starts to run, it sends
      * on the multicast control channel (MC) a message to announce that it's alive with the following format:
-     * ALIVE <Version> <SenderId> <CRLF><CRLF>
+     * ALIVE <Version> <SenderId> <CRLF><CRLF> <PeerId>:<Sequence> <LF> ...
+     * The body tells up to which sequence the peer applied the deletes of each peer.
+     * The deletes of this peer that weren't acknowledged yet are sent again right after.
      */
     public void sendAliveMessage() {
 
         Message request = new Message(ALIVE, peer.getVersion(), peer.getPeerId());
+        request.setBody(peer.getDeleteLog().getWatermarks().getBytes());
         Mailman messageHandler = new Mailman(request, peer);
         messageHandler.startMailmanThread();
+
+        sendDeleteBatch(peer.getDeleteLog().getPending(), 1, peer.getDeleteLog().getLastSequence());
     }
 
 
@@ -144,15 +395,19 @@ public class Delete {
 
 
     /**
-     * When a peer receive a ALIVE request, it checks all the delete messages that it already sent
-     * and resend all of it.
+     * When a peer receives an ALIVE request, it sends in a DELETEBATCH the deletes of its own log
+     * that the rejoining peer is missing, so each delete is resent by the peer that logged it only.
+     *
+     * @param message ALIVE message
      */
-    public void resendDeleteMessage() {
+    public void sendCatchUp(Message message) {
 
-        for (Map.Entry<String, Message> entry : peer.getStackDeleteMessage().entrySet()) {
-            Message message = entry.getValue();
-            deliverDeleteMessage(message);
-        }
+        String body = message.getBody() == null ? "" : new String(message.getBody());
+        Map<String, Long> watermarks = DeleteLog.parseWatermarks(body);
+        long watermark = watermarks.getOrDefault(peer.getPeerId(), 0L);
+
+        List<String> lines = peer.getDeleteLog().getCatchUp(watermark, message.getMessageHeader().getSenderId());
+        sendDeleteBatch(lines, watermark + 1, peer.getDeleteLog().getLastSequence());
     }
 
     /**
@@ -160,10 +415,15 @@ public class Delete {
      */
     private void setFileId() {
 
-        String path = "./TestFiles/" + this.fileName;
+        this.fileId = getFileId(this.fileName);
+    }
+
+    private String getFileId(String name) {
+
+        String path = "./TestFiles/" + name;
         File file = new File(path);
         SimpleDateFormat sdf = new SimpleDateFormat("MM/dd/yyyy HH:mm:ss");
-        this.fileId = createHash(fileName + sdf.format(file.lastModified()));
+        return createHash(name + sdf.format(file.lastModified()));
     }
 
 }
@@ -0,0 +1,90 @@
+package Subprotocols;
+
+import Peer.Peer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Chooses the stored chunks to delete when reclaiming space.
+ * Chunks are kept in a priority queue, safest to delete first:
+ * chunks replicated above their desired degree, then chunks that still have other copies,
+ * then parity shards, then data shards and last the only copies of replicated chunks.
+ * Inside each tier, chunks with more surplus copies and then bigger chunks come first,
+ * so the least chunks possible are deleted.
+ */
+public class ReclaimPlanner {
+
+    private static final int SURPLUS = 0;
+    private static final int REPLICATED = 1;
+    private static final int PARITY_SHARD = 2;
+    private static final int DATA_SHARD = 3;
+    private static final int LAST_COPY = 4;
+
+    private PriorityQueue<Candidate> candidates;
+
+    /**
+     * Builds the queue from the chunks stored by a peer, the heap is built in linear time
+     *
+     * @param peer peer reclaiming space
+     */
+    public ReclaimPlanner(Peer peer) {
+        List<Candidate> stored = new ArrayList<>();
+        for (Map.Entry<String, String> entry : peer.getStoredChunks().entrySet()) {
+            stored.add(new Candidate(peer, entry.getKey(), entry.getValue()));
+        }
+        candidates = new PriorityQueue<>(stored);
+    }
+
+    /**
+     * Takes chunks from the queue until they add up to the space to be reclaimed
+     *
+     * @param spaceToBeReduced space in bytes to be reclaimed
+     * @return returns the chunkIds to be deleted, in order
+     */
+    public List<String> plan(long spaceToBeReduced) {
+        List<String> victims = new ArrayList<>();
+        Candidate candidate;
+        while (spaceToBeReduced > 0 && (candidate = candidates.poll()) != null) {
+            victims.add(candidate.chunkId);
+            spaceToBeReduced -= candidate.size;
+        }
+        return victims;
+    }
+
+    private static class Candidate implements Comparable<Candidate> {
+
+        private String chunkId;
+        private int tier;
+        private int surplus;
+        private int size;
+
+        Candidate(Peer peer, String chunkId, String desiredRepDeg) {
+            this.chunkId = chunkId;
+            this.size = peer.getStoredChunkSize(chunkId);
+
+            int repDeg = peer.getReplicationDegreeOfChunk(chunkId);
+            this.surplus = repDeg - Integer.parseInt(desiredRepDeg);
+
+            if (surplus > 0)
+                tier = SURPLUS;
+            else if (repDeg > 1)
+                tier = REPLICATED;
+            else if (peer.isShard(chunkId))
+                tier = peer.isParityShard(chunkId) ? PARITY_SHARD : DATA_SHARD;
+            else
+                tier = LAST_COPY;
+        }
+
+        @Override
+        public int compareTo(Candidate other) {
+            if (tier != other.tier)
+                return Integer.compare(tier, other.tier);
+            if (surplus != other.surplus)
+                return Integer.compare(other.surplus, surplus);
+            return Integer.compare(other.size, size);
+        }
+    }
+}
@@ -0,0 +1,291 @@
+package Subprotocols;
+
+import Message.Mailman;
+import Message.Message;
+import Peer.Peer;
+import Utilities.TokenBucket;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+
+import static Utilities.Constants.CHUNK_SIZE;
+import static Utilities.Constants.PUTCHUNK;
+import static Utilities.Utilities.parseLayout;
+
+/**
+ * Sends again the chunks whose replication degree dropped below the desired one (version 1.1).
+ * Under replicated chunks wait in a queue saved to the disk, the ones furthest from their desired degree first,
+ * and are sent at the rate given by -Drepair.rate=<Bytes per second>.
+ * Only one peer repairs a chunk at a time: the holder with the smallest id repairs it right away,
+ * every other holder waits one fallback timeout more than the previous one,
+ * and seeing a PUTCHUNK of the chunk from another peer postpones the repair.
+ */
+public class RepairScheduler extends Thread {
+
+    /* Bytes sent per second by repairs, can be set with -Drepair.rate=<Bytes> */
+    private static final int REPAIR_RATE = Integer.getInteger("repair.rate", 1024 * 1024);
+
+    /* How long each holder waits after the previous one, can be set with -Drepair.fallback=<Milliseconds> */
+    private static final long FALLBACK_TIMEOUT = Long.getLong("repair.fallback", 3000);
+
+    /* Wait before checking whether a repair reached the desired degree, doubled on every attempt */
+    private static final long VERIFY_DELAY = 1000;
+
+    private static final int MAX_ATTEMPTS = 5;
+
+    private Peer peer;
+    private TokenBucket bandwidth;
+    private boolean dirty = false;
+
+    /**
+     * String is a par of fileId+chunkNo
+     * Repair holds the current repair of that chunk, older ones left in the heaps are skipped
+     */
+    private Map<String, Repair> repairs = new HashMap<>();
+
+    /* Repairs waiting for their turn, soonest first */
+    private PriorityQueue<Repair> waiting = new PriorityQueue<>(Comparator.comparingLong((Repair r) -> r.due));
+
+    /* Repairs whose turn came, furthest from the desired degree first */
+    private PriorityQueue<Repair> ready = new PriorityQueue<>(Comparator.comparingInt((Repair r) -> -r.deficit).thenComparingLong(r -> r.due));
+
+    public RepairScheduler(Peer peer) {
+        this.peer = peer;
+        this.bandwidth = new TokenBucket(REPAIR_RATE, REPAIR_RATE, peer.getClock());
+        setName("RepairScheduler-" + peer.getPeerId());
+        setDaemon(true);
+    }
+
+    /**
+     * Queues a chunk if this peer should send it again, waiting for its turn among the holders of the chunk
+     *
+     * @param fileId  id of the file that the chunk belongs to
+     * @param chunkNo chunk number
+     */
+    public synchronized void schedule(String fileId, String chunkNo) {
+        int deficit = getDeficit(fileId, chunkNo);
+        if (deficit <= 0)
+            return;
+        String chunkId = fileId + chunkNo;
+        Repair current = repairs.get(chunkId);
+        if (current != null && current.attempts == 0 && current.deficit == deficit)
+            return;
+        long due = current != null ? current.due : peer.getClock().millis() + getRank(fileId, chunkNo) * FALLBACK_TIMEOUT;
+        queue(new Repair(chunkId, deficit, due, 0));
+    }
+
+    /**
+     * Another peer sent a PUTCHUNK of the chunk, so this peer waits one more fallback timeout
+     *
+     * @param message PUTCHUNK or PUTSHARD message
+     */
+    public synchronized void postpone(Message message) {
+        Repair current = repairs.get(message.getMessageHeader().getFileId() + message.getMessageHeader().getChunkNo());
+        if (current != null)
+            queue(new Repair(current.chunkId, current.deficit, Math.max(current.due, peer.getClock().millis() + FALLBACK_TIMEOUT), current.attempts));
+    }
+
+    private void queue(Repair repair) {
+        repairs.put(repair.chunkId, repair);
+        waiting.add(repair);
+        dirty = true;
+        peer.getClock().signal(this);
+    }
+
+    private void drop(Repair repair) {
+        if (repairs.remove(repair.chunkId, repair))
+            dirty = true;
+    }
+
+    public void run() {
+        peer.getClock().enter();
+        try {
+            while (!isInterrupted()) {
+                Repair repair;
+                try {
+                    repair = next();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                try {
+                    fire(repair);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        } finally {
+            peer.getClock().exit();
+        }
+    }
+
+    /**
+     * Waits for the most urgent repair whose turn came, saving the queue whenever it changed
+     */
+    private synchronized Repair next() throws InterruptedException {
+        while (true) {
+            long now = peer.getClock().millis();
+            while (!waiting.isEmpty() && waiting.peek().due <= now) {
+                ready.add(waiting.poll());
+            }
+            Repair repair;
+            while ((repair = ready.poll()) != null) {
+                if (repairs.get(repair.chunkId) == repair)
+                    return repair;
+            }
+            if (dirty)
+                saveQueue();
+            peer.getClock().await(this, waiting.isEmpty() ? 0 : Math.max(1, waiting.peek().due - now));
+        }
+    }
+
+    /**
+     * Sends the chunk again if it's still under replicated and schedules a check of the result
+     */
+    private void fire(Repair repair) throws InterruptedException {
+        String fileId = peer.getFileIdFromChunkId(repair.chunkId);
+        String chunkNo = peer.getChunkNoFromChunkId(repair.chunkId);
+        int deficit = getDeficit(fileId, chunkNo);
+        if (deficit <= 0 || repair.attempts >= MAX_ATTEMPTS) {
+            if (deficit > 0)
+                System.out.println("Repair of " + repair.chunkId + " didn't reach the desired replication degree");
+            synchronized (this) {
+                drop(repair);
+            }
+            return;
+        }
+
+        //Shards are rebuilt by the initiator, whose backup session already retries the PUTSHARD
+        if (peer.getErasureCodedLayout(fileId) != null) {
+            bandwidth.acquire(CHUNK_SIZE);
+            rebuildShard(fileId, chunkNo);
+            synchronized (this) {
+                drop(repair);
+            }
+            return;
+        }
+
+        byte[] data;
+        try {
+            data = Files.readAllBytes(Paths.get(peer.getPeerId(), fileId, chunkNo));
+        } catch (IOException e) {
+            synchronized (this) {
+                drop(repair);
+            }
+            return;
+        }
+        bandwidth.acquire(data.length);
+        sendPutchunk(fileId, chunkNo, data);
+
+        synchronized (this) {
+            if (repairs.get(repair.chunkId) == repair)
+                queue(new Repair(repair.chunkId, deficit, peer.getClock().millis() + (VERIFY_DELAY << repair.attempts), repair.attempts + 1));
+        }
+    }
+
+    /**
+     * Sends a PUTCHUNK straight to the multicast backup channel (MDB), the scheduler retries it itself
+     * instead of going through a backup session
+     */
+    private void sendPutchunk(String fileId, String chunkNo, byte[] data) {
+        int desiredRepDeg = peer.getDesiredReplicationDegree(fileId + chunkNo);
+        Message request = new Message(PUTCHUNK, peer.getVersion(), peer.getPeerId(), fileId, chunkNo, Integer.toString(desiredRepDeg));
+        request.setBody(data);
+        Mailman mailman = new Mailman(request, peer.getMdb_ip(), peer.getMdb_port(), PUTCHUNK, peer);
+        mailman.startMailmanThread();
+    }
+
+    /**
+     * Encodes the stripe of a removed shard again and sends the shard
+     */
+    private void rebuildShard(String fileId, String shardNo) {
+        int[] layout = parseLayout(peer.getErasureCodedLayout(fileId));
+
+        Backup backup = new Backup(peer.getErasureCodedFileName(fileId), layout[0], layout[1], peer);
+        backup.setFileId(fileId);
+        backup.rebuildShard(Integer.parseInt(shardNo));
+    }
+
+    /**
+     * Shards only have one holder, so only the initiator, that knows the layout, rebuilds them.
+     * Replicated chunks are sent again by the peers that still store them
+     *
+     * @return returns how many copies the chunk is missing, 0 if this peer can't repair it
+     */
+    private int getDeficit(String fileId, String chunkNo) {
+        int repDeg = peer.getReplicationDegreeOfChunk(fileId, chunkNo);
+        if (peer.getErasureCodedLayout(fileId) != null)
+            return 1 - repDeg;
+        if (!peer.hasChunk(fileId, chunkNo))
+            return 0;
+        return peer.getDesiredReplicationDegree(fileId + chunkNo) - repDeg;
+    }
+
+    /**
+     * @return returns the position of this peer among the holders of the chunk, sorted by id
+     */
+    private int getRank(String fileId, String chunkNo) {
+        if (peer.getErasureCodedLayout(fileId) != null)
+            return 0;
+        int rank = 0;
+        for (String holder : peer.getChunkHolders(fileId, chunkNo)) {
+            if (holder.compareTo(peer.getPeerId()) < 0)
+                rank++;
+        }
+        return rank;
+    }
+
+    /**
+     * This function saves the queue to the disk memory.
+     */
+    private void saveQueue() {
+        Properties queue = new Properties();
+        for (Repair repair : repairs.values()) {
+            queue.setProperty(repair.chunkId, Integer.toString(repair.deficit));
+        }
+        try (FileOutputStream output = new FileOutputStream(peer.getPeerId() + "/repairQueue.properties")) {
+            queue.store(output, null);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        dirty = false;
+    }
+
+    /**
+     * This function loads the queue from the disk memory, every chunk waits for its turn again.
+     */
+    public synchronized void load() {
+        Properties queue = new Properties();
+        File file = new File(peer.getPeerId() + "/repairQueue.properties");
+        if (file.exists() && !file.isDirectory()) {
+            try (FileInputStream input = new FileInputStream(file)) {
+                queue.load(input);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        for (String chunkId : queue.stringPropertyNames()) {
+            schedule(peer.getFileIdFromChunkId(chunkId), peer.getChunkNoFromChunkId(chunkId));
+        }
+        dirty = true;
+    }
+
+    private static class Repair {
+
+        private String chunkId;
+        private int deficit;
+        private long due;
+        private int attempts;
+
+        Repair(String chunkId, int deficit, long due, int attempts) {
+            this.chunkId = chunkId;
+            this.deficit = deficit;
+            this.due = due;
+            this.attempts = attempts;
+        }
+    }
+}
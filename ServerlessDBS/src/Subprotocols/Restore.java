@@ -3,18 +3,23 @@ package Subprotocols;
 import Message.Mailman;
 import Message.Message;
 import Peer.Peer;
+import Transport.StreamServer;
+import Utilities.ReedSolomon;
 
 import java.io.*;
-import java.net.InetAddress;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.net.InetSocketAddress;
 import java.text.SimpleDateFormat;
+import java.util.Arrays;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static Utilities.Constants.*;
 import static Utilities.Utilities.createHash;
-import static java.lang.Thread.sleep;
+import static Utilities.Utilities.getNumberOfStripes;
+import static Utilities.Utilities.parseLayout;
 
 
 public class Restore {
@@ -27,27 +32,90 @@ public class Restore {
     private String fileName;
     private Peer peer;
     private int numberOfChunks = 0;
-    private int restoredChunks = 0;
+    private AtomicInteger restoredChunks = new AtomicInteger(0);
     private String fileId;
+    private long fileLength = 0;
+
+    /* Byte range to restore, rangeLength = -1 means the whole file */
+    private long rangeOffset = 0;
+    private int rangeLength = -1;
+
+    /* First and last chunk numbers requested by the session, the window moves while streaming */
+    private volatile int firstChunk = 0;
+    private volatile int lastChunk = -1;
+
+    /* Streaming restore variables, data chunks are counted without the parity shards */
+    private static final int STREAM_WINDOW = 8;
+    private volatile long nextDataChunk = 0;
+    private long numberOfDataChunks = 0;
+
+    /* Requests of a chunk, 3 seconds apart, after which a streaming restore gives up on it */
+    private static final int STREAM_REQUESTS = 10;
+
+    /* Set once a streaming restore is closed, a call waiting for a chunk then ends */
+    private volatile boolean closed = false;
+
+    /* Multi-source restore variables (version 1.1) */
+    /**
+     * String is the chunk number
+     * String holds the holder that was asked for the chunk
+     */
+    private Map<String, String> requestedHolders = new ConcurrentHashMap<>();
+    /**
+     * String is the chunk number
+     * Set holds the holders that were already asked for the chunk
+     */
+    private Map<String, Set<String>> triedHolders = new ConcurrentHashMap<>();
+    /**
+     * String is the holder id
+     * Integer holds the number of chunks requested from it that haven't arrived yet
+     */
+    private Map<String, Integer> holderLoad = new ConcurrentHashMap<>();
+
+    /* Erasure coded restore variables, dataShards = 0 means the file was replicated */
+    private int dataShards = 0;
+    private int parityShards = 0;
 
     /* Enhanced protocol variables(version: 1.1) */
-    private Socket enhancedSocket;
-    private ServerSocket listener;
-    private OutputStream out = null;
-    private DataOutputStream dos = null;
-    private boolean tcpConnected = false;
-    private boolean finishedRestore;
+    private StreamServer restoreServer;
 
+    /**
+     * Creates a restore session for a file
+     *
+     * @param file file to be restored
+     * @param peer peer that restores the file
+     */
     public Restore(String file, Peer peer) {
 
         fileName = file;
         this.peer = peer;
-        this.finishedRestore = false;
     }
 
+    /**
+     * Creates a restore session for a byte range of a file,
+     * only the chunks that hold the range are requested
+     *
+     * @param file   file to be restored
+     * @param offset first byte of the range
+     * @param length number of bytes of the range
+     * @param peer   peer that restores the file
+     */
+    public Restore(String file, long offset, int length, Peer peer) {
+
+        fileName = file;
+        this.peer = peer;
+        this.rangeOffset = offset;
+        this.rangeLength = length;
+    }
+
+    /**
+     * Creates the restore protocol that answers GETCHUNK requests
+     * and dispatches received chunks to the restore sessions
+     *
+     * @param peer peer that calls the protocol
+     */
     public Restore(Peer peer) {
         this.peer = peer;
-        this.finishedRestore = false;
     }
 
     /**
@@ -56,39 +124,249 @@ public class Restore {
      */
     public void start() {
 
+        long start = peer.getClock().millis();
+        System.out.println("Gathering file info");
+        setFileInfo();
+
+        String layout = peer.getErasureCodedLayout(fileId);
+        if (layout != null) {
+            setStripeInfo(layout);
+        }
+        lastChunk = numberOfChunks - 1;
+
+        fetchChunks();
+        System.out.println("Constructing File");
+        if (dataShards > 0)
+            constructErasureCodedFile();
+        else
+            constructFile();
+        System.out.println("Finished Restore");
+        peer.removeRestoreSession(this);
+        peer.getMetrics().recordRestoreTime(peer.getClock().millis() - start);
+    }
+
+    /**
+     * This function restores a byte range of the file by requesting only the chunks that hold it,
+     * or the stripes that hold it if the file is erasure coded.
+     *
+     * @return returns the bytes of the range, shorter than requested if the range goes past the end of the file
+     */
+    public byte[] readRange() {
+
+        long start = peer.getClock().millis();
+        System.out.println("Gathering file info");
+        setFileInfo();
+
+        String layout = peer.getErasureCodedLayout(fileId);
+        if (layout != null) {
+            setStripeInfo(layout);
+        }
+
+        if (rangeOffset < 0 || rangeLength <= 0 || rangeOffset >= fileLength)
+            return new byte[0];
+        rangeLength = (int) Math.min(rangeLength, fileLength - rangeOffset);
+
+        setWindow(rangeOffset / CHUNK_SIZE, (rangeOffset + rangeLength - 1) / CHUNK_SIZE);
+        System.out.println("Restoring bytes " + rangeOffset + " to " + (rangeOffset + rangeLength) + " from chunks " + firstChunk + " to " + lastChunk);
+
+        fetchChunks();
+        byte[] range = constructRange();
+        peer.removeRestoreSession(this);
+        peer.getMetrics().recordRestoreTime(peer.getClock().millis() - start);
+        return range;
+    }
+
+    /**
+     * This function prepares a streaming restore, only the first chunks are requested
+     * and the following ones as the client consumes the file.
+     */
+    public void openStream() {
+
         System.out.println("Gathering file info");
         setFileInfo();
 
+        String layout = peer.getErasureCodedLayout(fileId);
+        if (layout != null) {
+            setStripeInfo(layout);
+            numberOfDataChunks = Math.max(1, (fileLength + CHUNK_SIZE - 1) / CHUNK_SIZE);
+        } else {
+            numberOfDataChunks = numberOfChunks;
+        }
+
+        setWindow(0, Math.min(STREAM_WINDOW, numberOfDataChunks) - 1);
+
+        peer.addRestoreSession(this);
         if (peer.getVersion().equals("1.1")) {
-            Runnable enhancedRestore = new RestoreEnhanced(this);
-            peer.getDeliverExecutor().submit(enhancedRestore);
+            peer.getRestoreProtocol().startListening();
+        }
+        requestChunks(firstChunk, lastChunk);
+    }
+
+    /**
+     * @return returns true if the stream has chunks that weren't consumed yet
+     */
+    public boolean hasNextChunk() {
+        return nextDataChunk < numberOfDataChunks;
+    }
+
+    /**
+     * Waits for the next chunk of the file, requesting again the missing chunks of the window
+     * every 3 seconds, and moves the window forward once the chunk is consumed.
+     * Consumed chunks are dropped, so the session never holds more than the window.
+     * The stream is closed if the chunk doesn't arrive after STREAM_REQUESTS requests.
+     *
+     * @return returns the next bytes of the file
+     * @throws NoSuchElementException if the stream has ended or was closed while waiting
+     * @throws IllegalStateException  if no holder sent the chunk
+     */
+    public byte[] nextChunk() {
+        if (!hasNextChunk())
+            throw new NoSuchElementException("Restore stream of " + fileName + " has ended");
+
+        ReedSolomon code = dataShards > 0 ? new ReedSolomon(dataShards, parityShards) : null;
+        int stripeWidth = dataShards + parityShards;
+        int stripeNo = code != null ? (int) (nextDataChunk / dataShards) : 0;
+        String chunkNo = code != null
+                ? Integer.toString(stripeNo * stripeWidth + (int) (nextDataChunk % dataShards))
+                : Long.toString(nextDataChunk);
+
+        synchronized (chunks) {
+            int requests = 1;
+            long deadline = peer.getClock().millis() + 3000;
+            while (!closed && chunks.get(chunkNo) == null && !(code != null && isStripeComplete(stripeNo) && rebuildStripe(code, stripeNo))) {
+                long left = deadline - peer.getClock().millis();
+                if (left <= 0) {
+                    if (requests++ == STREAM_REQUESTS) {
+                        closeStream();
+                        throw new IllegalStateException("No holder sent chunk " + chunkNo + " of " + fileName);
+                    }
+                    requestChunks(firstChunk, lastChunk);
+                    deadline = peer.getClock().millis() + 3000;
+                    continue;
+                }
+                try {
+                    peer.getClock().await(chunks, left);
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                    return new byte[0];
+                }
+            }
+            if (closed)
+                throw new NoSuchElementException("Restore stream of " + fileName + " was closed");
+        }
+
+        byte[] chunk = chunks.remove(chunkNo);
+        if (code != null) {
+            long remaining = fileLength - nextDataChunk * CHUNK_SIZE;
+            if (remaining < chunk.length)
+                chunk = Arrays.copyOf(chunk, (int) remaining);
+            if (nextDataChunk % dataShards == dataShards - 1 || nextDataChunk == numberOfDataChunks - 1) {
+                for (int i = 0; i < stripeWidth; i++)
+                    chunks.remove(Integer.toString(stripeNo * stripeWidth + i));
+            }
+        }
+        nextDataChunk++;
+
+        //Only the chunks that entered the window are requested
+        int previousLastChunk = lastChunk;
+        if (hasNextChunk()) {
+            setWindow(nextDataChunk, Math.min(nextDataChunk + STREAM_WINDOW, numberOfDataChunks) - 1);
+            if (lastChunk > previousLastChunk)
+                requestChunks(previousLastChunk + 1, lastChunk);
+        }
+        return chunk;
+    }
+
+    /**
+     * Ends a streaming restore, the chunks that arrive afterwards are ignored
+     */
+    public void closeStream() {
+        peer.removeRestoreSession(this);
+        synchronized (chunks) {
+            closed = true;
+            chunks.clear();
+            nextDataChunk = numberOfDataChunks;
+            peer.getClock().signal(chunks);
+        }
+    }
+
+    /**
+     * Sets the chunks requested by the session to the ones that hold the given data chunks,
+     * for an erasure coded file that is every shard of the stripes that hold them
+     *
+     * @param firstDataChunk first data chunk
+     * @param lastDataChunk  last data chunk
+     */
+    private void setWindow(long firstDataChunk, long lastDataChunk) {
+        if (dataShards == 0) {
+            firstChunk = (int) firstDataChunk;
+            lastChunk = (int) lastDataChunk;
+        } else {
+            int stripeWidth = dataShards + parityShards;
+            firstChunk = (int) (firstDataChunk / dataShards) * stripeWidth;
+            lastChunk = (int) (lastDataChunk / dataShards) * stripeWidth + stripeWidth - 1;
+        }
+    }
+
+    /**
+     * This function requests the chunks from firstChunk to lastChunk until the session has all it needs.
+     */
+    private void fetchChunks() {
+
+        //Chunks are routed to this session by fileId from now on
+        peer.addRestoreSession(this);
+
+        if (peer.getVersion().equals("1.1")) {
+            peer.getRestoreProtocol().startListening();
         }
 
         System.out.print("Requesting chunks");
         requestChunks();
         do {
             try {
-                sleep(3000);
-                if (restoredChunks < numberOfChunks)
+                peer.getClock().sleep(3000);
+                if (!hasAllChunks())
                     requestChunks();
             } catch (InterruptedException e) {
                 e.printStackTrace();
             }
             System.out.println("Restored Chunks: " + restoredChunks);
-            System.out.println("Number of Chunks: " + numberOfChunks);
-        } while (restoredChunks < numberOfChunks);
-        System.out.println("Constructing File");
-        constructFile();
-        System.out.println("Finished Restore");
-        if (peer.getVersion().equals("1.1")) {
-            try {
-                listener.close();
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
+            System.out.println("Number of Chunks: " + (lastChunk - firstChunk + 1));
+        } while (!hasAllChunks());
+    }
+
+    /**
+     * Starts the TCP server that receives chunks in the enhanced protocol (version 1.1),
+     * it is shared by every restore session of the peer and only started once
+     */
+    public synchronized void startListening() {
+        if (restoreServer != null)
+            return;
+        try {
+            restoreServer = peer.getTransport().listen("RestoreServer-" + peer.getPeerId(),
+                    frame -> peer.getReceiverExecutor().submit(() -> saveChunk(new Message(frame))));
+            System.out.println("Restore server listening on port: " + restoreServer.getPort());
+        } catch (IOException e) {
+            e.printStackTrace();
         }
     }
 
+    /**
+     * Stops the TCP server that receives chunks, if it was started
+     */
+    public synchronized void stopListening() {
+        if (restoreServer != null)
+            restoreServer.close();
+        restoreServer = null;
+    }
+
+    /**
+     * @return returns the port of the TCP server that receives chunks, or -1 if it isn't running
+     */
+    public synchronized int getServerPort() {
+        return restoreServer == null ? -1 : restoreServer.getPort();
+    }
+
 
     /**
      * This function set the information of the file.
@@ -103,7 +381,7 @@ public class Restore {
         RandomAccessFile fileRaf;
         try {
             fileRaf = new RandomAccessFile(file, "r");
-            long fileLength = fileRaf.length();
+            this.fileLength = fileRaf.length();
             this.numberOfChunks = (int) Math.floor(fileLength / maxSizeChunk) + 1;
         } catch (IOException e) {
             e.printStackTrace();
@@ -112,15 +390,76 @@ public class Restore {
     }
 
     /**
-     * This function requests from the peers all the chunks needed to construct the file.
+     * This function sets the stripe geometry of an erasure coded file,
+     * every shard of every stripe is requested and any dataShards of each stripe are enough.
+     *
+     * @param layout stripe layout <DataShards>+<ParityShards>
+     */
+    private void setStripeInfo(String layout) {
+        int[] shards = parseLayout(layout);
+        this.dataShards = shards[0];
+        this.parityShards = shards[1];
+        this.numberOfChunks = getNumberOfStripes(fileLength, dataShards) * (dataShards + parityShards);
+        System.out.println("Number of shards: " + this.numberOfChunks);
+    }
+
+    /**
+     * A replicated file needs every chunk, an erasure coded file needs dataShards shards of each stripe
+     *
+     * @return returns true if the file can be constructed
+     */
+    private boolean hasAllChunks() {
+        if (dataShards == 0)
+            return restoredChunks.get() >= lastChunk - firstChunk + 1;
+
+        int stripeWidth = dataShards + parityShards;
+        for (int stripeNo = firstChunk / stripeWidth; stripeNo * stripeWidth <= lastChunk; stripeNo++) {
+            if (!isStripeComplete(stripeNo))
+                return false;
+        }
+        return true;
+    }
+
+    private boolean isStripeComplete(int stripeNo) {
+        int stripeWidth = dataShards + parityShards;
+        int received = 0;
+        for (int i = 0; i < stripeWidth; i++) {
+            if (chunks.get(Integer.toString(stripeNo * stripeWidth + i)) != null)
+                received++;
+        }
+        return received >= dataShards;
+    }
+
+    /**
+     * This function requests from the peers all the chunks needed to construct the file
+     * that haven't been received yet.
      */
     private void requestChunks() {
+        requestChunks(firstChunk, lastChunk);
+    }
+
+    /**
+     * This function requests the chunks between two chunk numbers that haven't been received yet.
+     */
+    private void requestChunks(int from, int to) {
 
-        int chunkNo = 0;
+        int chunkNo = from;
 
-        while (chunkNo < numberOfChunks) {
+        while (chunkNo <= to) {
+            if (chunks.get(Integer.toString(chunkNo)) != null
+                    || (dataShards > 0 && isStripeComplete(chunkNo / (dataShards + parityShards)))) {
+                chunkNo++;
+                continue;
+            }
             Message request = new Message(GETCHUNK, peer.getVersion(), peer.getPeerId(), this.fileId, Integer.toString(chunkNo));
 
+            if (peer.getVersion().equals("1.1")) {
+                request.getMessageHeader().setTargetId(chooseHolder(Integer.toString(chunkNo)));
+                int port = peer.getRestoreProtocol().getServerPort();
+                if (port > 0)
+                    request.getMessageHeader().setPort(Integer.toString(port));
+            }
+
             Mailman messageHandler = new Mailman(request, peer);
             messageHandler.startMailmanThread();
             System.out.println("Requesting chunk number: " + chunkNo);
@@ -129,6 +468,46 @@ public class Restore {
     }
 
 
+    /**
+     * Picks the least loaded known holder of a chunk that wasn't asked for it yet,
+     * so that the chunks of a file are fetched from all holders in parallel
+     *
+     * @param chunkNo chunk number
+     * @return returns the holder id, or null to let any holder answer once every known holder was tried
+     */
+    private String chooseHolder(String chunkNo) {
+        releaseHolder(chunkNo);
+
+        Set<String> tried = triedHolders.computeIfAbsent(chunkNo, n -> ConcurrentHashMap.newKeySet());
+        String chosen = null;
+        int chosenLoad = Integer.MAX_VALUE;
+        for (String holder : peer.getChunkHolders(fileId, chunkNo)) {
+            int load = holderLoad.getOrDefault(holder, 0);
+            if (!tried.contains(holder) && (load < chosenLoad || (load == chosenLoad && holder.compareTo(chosen) < 0))) {
+                chosen = holder;
+                chosenLoad = load;
+            }
+        }
+
+        if (chosen != null) {
+            tried.add(chosen);
+            requestedHolders.put(chunkNo, chosen);
+            holderLoad.merge(chosen, 1, Integer::sum);
+        }
+        return chosen;
+    }
+
+    /**
+     * The holder asked for a chunk stops counting it as pending
+     *
+     * @param chunkNo chunk number
+     */
+    private void releaseHolder(String chunkNo) {
+        String holder = requestedHolders.remove(chunkNo);
+        if (holder != null)
+            holderLoad.merge(holder, -1, Integer::sum);
+    }
+
     /**
      * This function build the file.
      */
@@ -164,13 +543,114 @@ public class Restore {
     }
 
 
+    /**
+     * This function rebuilds the missing shards of every stripe and builds the file from the data shards.
+     */
+    private void constructErasureCodedFile() {
+
+        ReedSolomon code = new ReedSolomon(dataShards, parityShards);
+        int stripeWidth = code.getTotalShards();
+        long remaining = fileLength;
+
+        File dir = new File("./" + peer.getPeerId() + "/Restored Files");
+        dir.mkdir();
+        File file = new File("./" + peer.getPeerId() + "/Restored Files/" + fileName);
+
+        try (FileOutputStream fop = new FileOutputStream(file)) {
+            for (int stripeNo = 0; stripeNo * stripeWidth < numberOfChunks; stripeNo++) {
+                byte[][] shards = new byte[stripeWidth][];
+                boolean[] present = new boolean[stripeWidth];
+                for (int i = 0; i < stripeWidth; i++) {
+                    shards[i] = chunks.get(Integer.toString(stripeNo * stripeWidth + i));
+                    present[i] = shards[i] != null;
+                }
+                if (!code.decodeMissing(shards, present, CHUNK_SIZE)) {
+                    System.out.println("Not enough shards to rebuild stripe: " + stripeNo);
+                    return;
+                }
+                for (int i = 0; i < dataShards && remaining > 0; i++) {
+                    int length = (int) Math.min(CHUNK_SIZE, remaining);
+                    fop.write(shards[i], 0, length);
+                    remaining -= length;
+                }
+            }
+            fop.flush();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * This function rebuilds the missing shards of the stripes of the range and copies the bytes of the range.
+     */
+    private byte[] constructRange() {
+
+        ReedSolomon code = dataShards > 0 ? new ReedSolomon(dataShards, parityShards) : null;
+        int stripeWidth = dataShards + parityShards;
+        byte[] range = new byte[rangeLength];
+        int copied = 0;
+
+        while (copied < rangeLength) {
+            long position = rangeOffset + copied;
+            long dataChunk = position / CHUNK_SIZE;
+            int chunkNo = (int) dataChunk;
+
+            if (code != null) {
+                int stripeNo = (int) (dataChunk / dataShards);
+                chunkNo = stripeNo * stripeWidth + (int) (dataChunk % dataShards);
+                if (chunks.get(Integer.toString(chunkNo)) == null && !rebuildStripe(code, stripeNo)) {
+                    System.out.println("Not enough shards to rebuild stripe: " + stripeNo);
+                    return new byte[0];
+                }
+            }
+
+            byte[] chunk = chunks.get(Integer.toString(chunkNo));
+            int offsetInChunk = (int) (position % CHUNK_SIZE);
+            int length = Math.min(rangeLength - copied, chunk.length - offsetInChunk);
+            System.arraycopy(chunk, offsetInChunk, range, copied, length);
+            copied += length;
+        }
+        return range;
+    }
+
+    /**
+     * Rebuilds the missing data shards of a stripe and keeps them with the received chunks
+     *
+     * @return returns false if there are not enough shards
+     */
+    private boolean rebuildStripe(ReedSolomon code, int stripeNo) {
+        int stripeWidth = code.getTotalShards();
+        byte[][] shards = new byte[stripeWidth][];
+        boolean[] present = new boolean[stripeWidth];
+        for (int i = 0; i < stripeWidth; i++) {
+            shards[i] = chunks.get(Integer.toString(stripeNo * stripeWidth + i));
+            present[i] = shards[i] != null;
+        }
+        if (!code.decodeMissing(shards, present, CHUNK_SIZE))
+            return false;
+        for (int i = 0; i < dataShards; i++) {
+            chunks.putIfAbsent(Integer.toString(stripeNo * stripeWidth + i), shards[i]);
+        }
+        return true;
+    }
+
     /**
      * If the peer has the chunk and it hasn't been sent by another peer, it will send it.
+     * A GETCHUNK addressed to a specific holder is answered right away by that holder only.
      */
     public void sendChunk(Message message) {
+        String targetId = message.getMessageHeader().getTargetId();
+        if (targetId != null) {
+            if (targetId.equals(peer.getPeerId()) && peer.hasChunk(message.getMessageHeader().getFileId(), message.getMessageHeader().getChunkNo())) {
+                Message chunk = new Message(CHUNK, peer.getVersion(), peer.getPeerId(), message.getMessageHeader().getFileId(), message.getMessageHeader().getChunkNo());
+                chunk.setBody(peer.getChunk(message.getMessageHeader().getFileId(), message.getMessageHeader().getChunkNo()));
+                deliverChunkMessage(chunk, message);
+            }
+            return;
+        }
         if (peer.hasChunk(message.getMessageHeader().getFileId(), message.getMessageHeader().getChunkNo())) {
             try {
-                Thread.sleep((long) (Math.random() * 400));
+                peer.getClock().sleep((long) (peer.getRandom("Restore").nextDouble() * 400));
             } catch (InterruptedException e) {
                 e.printStackTrace();
             } finally {
@@ -185,13 +665,17 @@ public class Restore {
     }
 
     /**
-     * Saves received chunk, if it has asked for it
+     * Saves received chunk in every restore session of its file,
+     * otherwise registers that the chunk has already been sent by another peer
      */
     public void saveChunk(Message message) {
-        if (peer.getRestoreProtocol() != null) {
-            peer.getRestoreProtocol().storeChunk(message.getMessageHeader().getChunkNo(), message.getBody());
-        } else {
+        Set<Restore> sessions = peer.getRestoreSessions(message.getMessageHeader().getFileId());
+        if (sessions.isEmpty()) {
             peer.addSentChunkInfo(message.getMessageHeader().getFileId(), message.getMessageHeader().getChunkNo());
+        } else {
+            for (Restore session : sessions) {
+                session.storeChunk(message.getMessageHeader().getChunkNo(), message.getBody());
+            }
         }
     }
 
@@ -200,10 +684,16 @@ public class Restore {
      * This function stores all the chunks received that are needed to restore the file.
      */
     private void storeChunk(String chunkNo, byte[] chunk) {
-        if (chunks.get(chunkNo) == null) {
-            chunks.put(chunkNo, chunk);
-            restoredChunks++;
+        int number = Integer.parseInt(chunkNo);
+        if (number < firstChunk || number > lastChunk)
+            return;
+        if (chunks.putIfAbsent(chunkNo, chunk) == null) {
+            restoredChunks.incrementAndGet();
+            releaseHolder(chunkNo);
             System.out.println("Received chunk: " + chunkNo + "Chunk Size: " + chunk.length);
+            synchronized (chunks) {
+                peer.getClock().signal(chunks);
+            }
         }
     }
 
@@ -221,112 +711,25 @@ public class Restore {
      * CHUNK <Version> <SenderId> <FileId> <ChunkNo> <CRLF><CRLF> <Body>
      */
     public void deliverChunkMessage(Message newMessage, Message request) {
-        if (request.getMessageHeader().getVersion().equals("1.1") && peer.getVersion().equals("1.1")) {
-
-            if (!tcpConnected) {
-                connectToServerSocket(request.getPacketIP(), peer.getMdr_port());
-                tcpConnected = true;
-            }
-
-            try {
-                while (enhancedSocket.getInputStream().available() != 0) {
-                    System.out.println("Waiting for socket to be empty");
-                }
-                dos.writeInt(newMessage.getMessageBytes(CHUNK).length);
-                dos.write(newMessage.getMessageBytes(CHUNK));
+        String port = request.getMessageHeader().getPort();
+        if (request.getMessageHeader().getVersion().equals("1.1") && peer.getVersion().equals("1.1") && port != null) {
+            InetSocketAddress destination = new InetSocketAddress(request.getPacketIP(), Integer.parseInt(port));
+            //If no connection to the initiator can be used the chunk goes to the MDR
+            if (peer.getTransport().sendFrame(destination, newMessage.getMessageBytes(CHUNK))) {
                 System.out.println("SENT CHUNK " + request.getMessageHeader().getChunkNo());
-            } catch (IOException e) {
-                connectToServerSocket(request.getPacketIP(), peer.getMdr_port());
+                return;
             }
-        } else {
-            Mailman mailman = new Mailman(newMessage, peer.getMdr_ip(), peer.getMdr_port(), CHUNK, peer);
-            mailman.startMailmanThread();
-            System.out.println("Sent CHUNK: " + request.getMessageHeader().getChunkNo());
         }
-
+        Mailman mailman = new Mailman(newMessage, peer.getMdr_ip(), peer.getMdr_port(), CHUNK, peer);
+        mailman.startMailmanThread();
+        System.out.println("Sent CHUNK: " + request.getMessageHeader().getChunkNo());
     }
 
-    /**
-     * This function starts the TCP connection between initiator peer and the peer that will send the chunk.
-     */
-    public void connectToServerSocket(InetAddress ip, int port) {
-        System.out.println("TCP ip: " + ip);
-        System.out.println("TCP port: " + port);
-        try {
-            enhancedSocket = new Socket(ip, port);
-            out = enhancedSocket.getOutputStream();
-            dos = new DataOutputStream(out);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+    public String getFileId() {
+        return fileId;
     }
 
-    public class RestoreEnhanced implements Runnable {
-
-        private Restore restore;
-
-        public RestoreEnhanced(Restore restore) {
-            this.restore = restore;
-        }
-
-        public void run() {
-            System.out.println("Connecting to socket");
-            try {
-                listener = new ServerSocket(peer.getMdr_port());
-                System.out.println("Connected to socket");
-                while (true) {
-                    Runnable requestHandler = new RequestHandler(listener.accept(), restore);
-                    peer.getDeliverExecutor().submit(requestHandler);
-                    System.out.println("RECEIVED CHUNK");
-                }
-            } catch (IOException e) {
-                try {
-                    listener.close();
-                    tcpConnected = false;
-                } catch (IOException e1) {
-                    e1.printStackTrace();
-                }
-            }
-
-        }
-    }
-
-    public class RequestHandler implements Runnable {
-
-        private Socket socket;
-        private Restore restore;
-
-        public RequestHandler(Socket socket, Restore restore) {
-            this.socket = socket;
-            this.restore = restore;
-        }
-
-        public void run() {
-            System.out.println("REQUEST HANDLER STARTED");
-            while (!restore.finishedRestore) {
-                try {
-                    InputStream in = socket.getInputStream();
-                    DataInputStream dis = new DataInputStream(in);
-
-                    int len = dis.readInt();
-                    byte[] data = new byte[len];
-                    if (len > 0) {
-                        dis.readFully(data);
-                    }
-
-                    Message requestMessage = new Message(data);
-                    saveChunk(requestMessage);
-
-                } catch (IOException e) {
-                    restore.finishedRestore = true;
-                }
-            }
-            try {
-                socket.close();
-                System.out.println("CLOSED SOCKET");
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-        }
+    public String getFileName() {
+        return fileName;
     }
 }
@@ -3,20 +3,24 @@ package Subprotocols;
 import Message.Mailman;
 import Message.Message;
 import Peer.Peer;
-import com.sun.corba.se.impl.util.PackagePrefixChecker;
 
 import java.io.IOException;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.Map;
+import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 
 import static Utilities.Constants.REMOVED;
+import static Utilities.Constants.REMOVEDBATCH;
+import static Utilities.Utilities.parseLayout;
 
 public class SpaceReclaim {
 
+    /* Chunks covered by a REMOVEDBATCH bitmap, a datagram received by the channels holds up to 70000 bytes */
+    private static final int MAX_BATCH_CHUNKS = 60000 * 8;
+
     private Peer peer;
     private int spaceToBeReduced = 0;
     private Map<String, Boolean> receivedPutchunks = new ConcurrentHashMap<>();
@@ -73,107 +77,82 @@ public class SpaceReclaim {
     /**
      * Starts deleting chunks, first the ones with high replication degree
      * then does with some replication
-     * and the unique files
+     * and the unique files.
+     * The chunks are chosen in one pass by the ReclaimPlanner, the metadata is saved once
+     * and only then the removed chunks are announced
      */
     public void start() {
         if (updatePeerStorage()) {
-            if (findExtraChunks()) {
-                System.out.println("Deleted Extra chunks");
-            } else
-                while (!removeChunksWithLowerRepDeg()) {
-                    System.out.println("Removing chunks with lower replication degree");
-                }
-            System.out.println("Deleted chunks with lower replication degree");
-            if (spaceToBeReduced >= 0)
-                removeChunksWithOneRepDeg();
-            System.out.println("Finished Reclaim Space");
-        }
-    }
-
-
-    /**
-     * Deletes chunks with replications degree bigger than the desired
-     *
-     * @return returns true, reclaimed space protocol is finished
-     */
-    private boolean findExtraChunks() {
-
-        for (Map.Entry<String, String> entry : peer.getStoredChunks().entrySet()) {
-            String key = entry.getKey();
-            String value = entry.getValue();
-
-            int tempRepDeg = peer.getReplicationDegreeOfChunk(key);
-            while (tempRepDeg > Integer.parseInt(value)) {
-                removeChunk(key);
-                tempRepDeg--;
+            Map<String, BitSet> removed = new LinkedHashMap<>();
+            for (String chunkId : new ReclaimPlanner(peer).plan(spaceToBeReduced)) {
+                if (removeChunk(chunkId))
+                    removed.computeIfAbsent(peer.getFileIdFromChunkId(chunkId), id -> new BitSet()).set(Integer.parseInt(peer.getChunkNoFromChunkId(chunkId)));
             }
-            System.out.println("SPACE TO BE RECLAIMED" + this.spaceToBeReduced);
-
-            if (spaceToBeReduced <= 0 || spaceToBeReduced > peer.getStorageSpace())
-                return true;
-        }
-        return false;
-    }
-
-    /**
-     * Deletes chunks with lower replication degree than desired but bigger than 1
-     *
-     * @return returns true, reclaimed space protocol is finished
-     */
-    private boolean removeChunksWithLowerRepDeg() {
-        for (Map.Entry<String, String> entry : peer.getStoredChunks().entrySet()) {
-            String key = entry.getKey();
-
-            int tempRepDeg = peer.getReplicationDegreeOfChunk(key);
-            if (tempRepDeg > 1) {
-                removeChunk(key);
-            }
-            if (spaceToBeReduced <= 0 || spaceToBeReduced > peer.getStorageSpace())
-                return true;
-        }
-        return false;
-    }
-
-    /**
-     * Deletes chunks with replication degree = 1
-     */
-    private void removeChunksWithOneRepDeg() {
-        for (Map.Entry<String, String> entry : peer.getStoredChunks().entrySet()) {
-            String key = entry.getKey();
-            removeChunk(key);
-            if (spaceToBeReduced <= 0 || spaceToBeReduced > peer.getStorageSpace())
-                return;
+            peer.saveMetadataToDisk();
+            announceRemoved(removed);
+            System.out.println("Finished Reclaim Space");
         }
     }
 
     /**
-     * Deletes chunk from disk
+     * Deletes chunk from disk, the caller saves the metadata and announces the removal
      *
      * @param chunkId fileId+chunkNo
+     * @return returns false if the chunk couldn't be deleted
      */
-    public void removeChunk(String chunkId) {
+    public boolean removeChunk(String chunkId) {
 
         System.out.println("CHUNK ID: " + chunkId);
 
         Path path = FileSystems.getDefault().getPath("./" + peer.getPeerId() + "/" + peer.getFileIdFromChunkId(chunkId) + "/", peer.getChunkNoFromChunkId(chunkId));
-        int chunkSize = 0;
+        int chunkSize = peer.getStoredChunkSize(chunkId);
         try {
-            chunkSize = (int) Files.size(path);
+            if (chunkSize == 0)
+                chunkSize = (int) Files.size(path);
             Files.deleteIfExists(path);
         } catch (IOException e) {
             System.out.println("Error deleting chunk: " + chunkId + "|| Error getting chunk size:" + chunkSize);
-            return;
+            return false;
         }
 
-        sendRemovedMessage(chunkId);
-
-        peer.decreaseReplicationDegree(peer.getFileIdFromChunkId(chunkId), peer.getChunkNoFromChunkId(chunkId));
+        peer.forgetHolder(peer.getFileIdFromChunkId(chunkId), peer.getChunkNoFromChunkId(chunkId), peer.getPeerId());
         peer.removeChunkFromStoredChunks(chunkId);
         peer.setUsedSpace(peer.getUsedSpace() - chunkSize);
         peer.setStorageSpace(peer.getStorageSpace() - chunkSize);
         this.spaceToBeReduced -= chunkSize;
-        peer.saveMetadataToDisk();
+        return true;
+
+    }
 
+    /**
+     * Announces the removed chunks, paced by the removed bucket of the peer.
+     * Peers running version 1.1 announce the chunks of a file in as few REMOVEDBATCH messages as possible,
+     * peers running version 1.0 send one REMOVED per chunk
+     *
+     * @param removed removed chunk numbers per fileId
+     */
+    private void announceRemoved(Map<String, BitSet> removed) {
+        try {
+            for (Map.Entry<String, BitSet> entry : removed.entrySet()) {
+                BitSet chunks = entry.getValue();
+                if (peer.getVersion().equals("1.1")) {
+                    int first = chunks.nextSetBit(0);
+                    while (first >= 0) {
+                        BitSet batch = chunks.get(first, first + MAX_BATCH_CHUNKS);
+                        peer.getRemovedBucket().acquire(batch.cardinality());
+                        sendRemovedBatchMessage(entry.getKey(), first, batch);
+                        first = chunks.nextSetBit(first + MAX_BATCH_CHUNKS);
+                    }
+                } else {
+                    for (int chunkNo = chunks.nextSetBit(0); chunkNo >= 0; chunkNo = chunks.nextSetBit(chunkNo + 1)) {
+                        peer.getRemovedBucket().acquire(1);
+                        sendRemovedMessage(entry.getKey() + chunkNo);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
     }
 
     /**
@@ -189,32 +168,111 @@ public class SpaceReclaim {
     }
 
     /**
-     * Delivers removed message
+     * Prepares a REMOVEDBATCH message with the following format:
+     * REMOVEDBATCH <Version> <SenderId> <FileId> <FirstChunkNo> <CRLF><CRLF> <Bitmap>
+     * Bit i of the bitmap is set if chunk FirstChunkNo + i was removed
+     *
+     * @param fileId  id of the file
+     * @param first   chunk number of the first bit
+     * @param chunks  removed chunks, relative to first
+     */
+    private void sendRemovedBatchMessage(String fileId, int first, BitSet chunks) {
+
+        Message message = new Message(REMOVEDBATCH, peer.getVersion(), peer.getPeerId(), fileId, Integer.toString(first));
+        message.setBody(chunks.toByteArray());
+        Mailman mailman = new Mailman(message, peer);
+        mailman.startMailmanThread();
+
+    }
+
+    /**
+     * Delivers REMOVED and REMOVEDBATCH messages
      * @param message message to be sent
      */
     public void deliverRemovedMessage(Message message) {
 
-        Mailman mailman = new Mailman(message, peer.getMc_ip(), peer.getMc_port(), REMOVED, peer);
+        Mailman mailman = new Mailman(message, peer.getMc_ip(), peer.getMc_port(), message.getMessageHeader().getMessageType(), peer);
         mailman.startMailmanThread();
 
     }
 
     /**
-     * Updates chunk replication degree after removing it
+     * Updates chunk replication degree after removing it.
+     * Peers running version 1.1 leave sending it again to the repair scheduler
      * @param message message REMOVED
      */
     public void updateChunkRepDegree(Message message) {
 
-        peer.decreaseReplicationDegree(message.getMessageHeader().getFileId(), message.getMessageHeader().getChunkNo());
-        int currentRepDeg = peer.getReplicationDegreeOfChunk(message.getMessageHeader().getFileId(), message.getMessageHeader().getChunkNo());
-        int desiredRepDeg = peer.getDesiredReplicationDegree(message.getMessageHeader().getFileId() + message.getMessageHeader().getChunkNo());
+        String fileId = message.getMessageHeader().getFileId();
+        String chunkNo = message.getMessageHeader().getChunkNo();
+        peer.decreaseReplicationDegree(fileId, chunkNo, message.getMessageHeader().getSenderId());
 
-        if (peer.hasChunk(message.getMessageHeader().getFileId(), message.getMessageHeader().getChunkNo())) {
-            if (currentRepDeg < desiredRepDeg) {
-                startBackupProtocol(message, desiredRepDeg);
-            }
+        if (peer.getVersion().equals("1.1")) {
+            peer.getRepairScheduler().schedule(fileId, chunkNo);
+            return;
         }
 
+        if (!isUnderReplicated(fileId, chunkNo))
+            return;
+
+        //Shards only have one holder, so the initiator rebuilds them from the original file
+        if (peer.getErasureCodedLayout(fileId) != null)
+            rebuildShard(fileId, chunkNo);
+        else
+            startBackupProtocol(message, peer.getDesiredReplicationDegree(fileId + chunkNo));
+
+    }
+
+    /**
+     * Updates the replication degree of every chunk of a REMOVEDBATCH, saving the metadata once,
+     * and hands the chunks to the repair scheduler
+     *
+     * @param message message REMOVEDBATCH
+     */
+    public void updateChunksRepDegree(Message message) {
+
+        String fileId = message.getMessageHeader().getFileId();
+        int first = Integer.parseInt(message.getMessageHeader().getChunkNo());
+        BitSet chunks = BitSet.valueOf(message.getBody());
+
+        List<String> removed = new ArrayList<>();
+        for (int i = chunks.nextSetBit(0); i >= 0; i = chunks.nextSetBit(i + 1)) {
+            String chunkNo = Integer.toString(first + i);
+            peer.forgetHolder(fileId, chunkNo, message.getMessageHeader().getSenderId());
+            removed.add(chunkNo);
+        }
+        peer.saveMetadataToDisk();
+
+        for (String chunkNo : removed) {
+            peer.getRepairScheduler().schedule(fileId, chunkNo);
+        }
+
+    }
+
+    /**
+     * Shards only have one holder, so only the initiator, that knows the layout, rebuilds them.
+     * Replicated chunks are sent again by the peers that still store them
+     *
+     * @return returns true if this peer should send the chunk again
+     */
+    private boolean isUnderReplicated(String fileId, String chunkNo) {
+        int currentRepDeg = peer.getReplicationDegreeOfChunk(fileId, chunkNo);
+        if (peer.getErasureCodedLayout(fileId) != null)
+            return currentRepDeg < 1;
+        return peer.hasChunk(fileId, chunkNo) && currentRepDeg < peer.getDesiredReplicationDegree(fileId + chunkNo);
+    }
+
+    /**
+     * Encodes the stripe of a removed shard again and sends the shard
+     * @param fileId  id of the file
+     * @param shardNo number of the removed shard
+     */
+    private void rebuildShard(String fileId, String shardNo) {
+        int[] layout = parseLayout(peer.getErasureCodedLayout(fileId));
+
+        Backup backup = new Backup(peer.getErasureCodedFileName(fileId), layout[0], layout[1], peer);
+        backup.setFileId(fileId);
+        backup.rebuildShard(Integer.parseInt(shardNo));
     }
 
     /**
@@ -223,25 +281,32 @@ public class SpaceReclaim {
      * @param desiredRepDeg desired replication degree
      */
     public void startBackupProtocol(Message message, int desiredRepDeg) {
+        String chunkId = message.getMessageHeader().getFileId() + message.getMessageHeader().getChunkNo();
         try {
-            receivedPutchunks.put(message.getMessageHeader().getFileId() + message.getMessageHeader().getChunkNo(), false);
-            Thread.sleep((long) (Math.random() * 400));
+            receivedPutchunks.put(chunkId, false);
+            peer.getClock().sleep((long) (peer.getRandom("SpaceReclaim").nextDouble() * 400));
         } catch (InterruptedException e) {
             e.printStackTrace();
         } finally {
-            if (!receivedPutchunks.get(message.getMessageHeader().getFileId() + message.getMessageHeader().getChunkNo())) {
-                peer.getBackup().setReplicationDegree(desiredRepDeg);
-                peer.getBackup().setFileId(message.getMessageHeader().getFileId());
-                Path path = Paths.get(peer.getPeerId() + "/" + message.getMessageHeader().getFileId() + "/" + message.getMessageHeader().getChunkNo());
-                byte[] data = new byte[0];
-                try {
-                    data = Files.readAllBytes(path);
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-                peer.getBackup().sendChunk(data, Integer.parseInt(message.getMessageHeader().getChunkNo()));
-            }
+            if (!receivedPutchunks.get(chunkId))
+                resendChunk(message.getMessageHeader().getFileId(), message.getMessageHeader().getChunkNo(), desiredRepDeg);
+        }
+    }
+
+    /**
+     * Sends a stored chunk in a PUTCHUNK
+     */
+    private void resendChunk(String fileId, String chunkNo, int desiredRepDeg) {
+        //Not registered as a session, the PUTCHUNK is handled by the peer's backup protocol
+        Backup backup = new Backup(peer, fileId, desiredRepDeg);
+        Path path = Paths.get(peer.getPeerId() + "/" + fileId + "/" + chunkNo);
+        byte[] data = new byte[0];
+        try {
+            data = Files.readAllBytes(path);
+        } catch (IOException e) {
+            e.printStackTrace();
         }
+        backup.sendChunk(data, Integer.parseInt(chunkNo));
     }
 
     /**
@@ -1,18 +1,33 @@
 package TestingClientApplication;
 
 
+import Peer.ChunkState;
+import Peer.FileState;
 import Peer.PeerInterface;
+import Peer.RemoteChunkIterator;
+import Peer.StatePage;
 
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.rmi.RemoteException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
+import java.util.Arrays;
 
 class TCA {
 
+    /* Items asked for in each page of the state */
+    private static final int STATE_PAGE_SIZE = 100;
+
     private String file;
     private int replicationDegree;
     private PeerInterface testingPeer;
     private int spaceReclaimValue;
+    private int dataShards;
+    private int parityShards;
+    private long rangeOffset;
+    private int rangeLength;
+    private String[] files;
 
     private TCA(String[] args) {
 
@@ -25,9 +40,25 @@ class TCA {
             case "RESTORE":
                 file = args[2];
                 break;
+            case "BACKUPEC":
+                file = args[2];
+                dataShards = Integer.parseInt(args[3]);
+                parityShards = Integer.parseInt(args[4]);
+                break;
+            case "RESTORESTREAM":
+                file = args[2];
+                break;
+            case "RESTORERANGE":
+                file = args[2];
+                rangeOffset = Long.parseLong(args[3]);
+                rangeLength = Integer.parseInt(args[4]);
+                break;
             case "DELETE":
                 file = args[2];
                 break;
+            case "DELETEFILES":
+                files = Arrays.copyOfRange(args, 2, args.length);
+                break;
             case "SPACERECLAIM":
                 spaceReclaimValue = Integer.parseInt(args[2]);
                 break;
@@ -51,15 +82,30 @@ class TCA {
             case "BACKUP":
                 testApplication.testBackup();
                 break;
+            case "BACKUPEC":
+                testApplication.testBackupErasureCoded();
+                break;
             case "RESTORE":
                 testApplication.testRestore();
                 break;
+            case "RESTORERANGE":
+                testApplication.testRestoreRange();
+                break;
+            case "RESTORESTREAM":
+                testApplication.testRestoreStream();
+                break;
             case "STATE":
                 testApplication.state();
                 break;
+            case "STATUS":
+                testApplication.status();
+                break;
             case "DELETE":
                 testApplication.testDelete();
                 break;
+            case "DELETEFILES":
+                testApplication.testDeleteFiles();
+                break;
             case "SPACERECLAIM":
                 testApplication.spaceReclaim();
                 break;
@@ -74,21 +120,92 @@ class TCA {
         testingPeer.backup(file, replicationDegree);
     }
 
+    private void testBackupErasureCoded() throws RemoteException {
+        testingPeer.backupErasureCoded(file, dataShards, parityShards);
+    }
+
     private void testRestore() throws RemoteException {
         testingPeer.restore(file);
     }
 
+    private void testRestoreRange() throws RemoteException {
+        byte[] range = testingPeer.restoreRange(file, rangeOffset, rangeLength);
+        String output = file + "." + rangeOffset + "-" + (rangeOffset + range.length);
+        try (FileOutputStream fop = new FileOutputStream(output)) {
+            fop.write(range);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        System.out.println("Restored " + range.length + " bytes to " + output);
+    }
+
+
+    private void testRestoreStream() throws RemoteException {
+        RemoteChunkIterator iterator = testingPeer.restoreStream(file);
+        long start = System.currentTimeMillis();
+        long received = 0;
+        String output = file + ".stream";
+        try (FileOutputStream fop = new FileOutputStream(output)) {
+            while (iterator.hasNext()) {
+                byte[] chunk = iterator.next();
+                if (received == 0)
+                    System.out.println("First chunk after " + (System.currentTimeMillis() - start) + " ms");
+                fop.write(chunk);
+                received += chunk.length;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            iterator.close();
+        }
+        System.out.println("Streamed " + received + " bytes to " + output + " in " + (System.currentTimeMillis() - start) + " ms");
+    }
 
     private void testDelete() throws RemoteException {
         testingPeer.delete(file);
     }
 
+    private void testDeleteFiles() throws RemoteException {
+        testingPeer.deleteFiles(files);
+    }
+
     private void spaceReclaim() throws RemoteException {
         testingPeer.spaceReclaim(spaceReclaimValue);
     }
 
+    /**
+     * Prints the state summary, then every backed up file with its chunks and every stored chunk, one page at a time
+     */
     private void state() throws RemoteException {
-        testingPeer.state();
+        System.out.println(testingPeer.stateSummary());
+
+        String fileCursor = null;
+        do {
+            StatePage<FileState> files = testingPeer.backedUpFiles(fileCursor, STATE_PAGE_SIZE);
+            for (FileState file : files.getItems()) {
+                System.out.println(file);
+                String chunkCursor = null;
+                do {
+                    StatePage<ChunkState> chunks = testingPeer.backedUpChunks(file.getFileId(), chunkCursor, STATE_PAGE_SIZE);
+                    for (ChunkState chunk : chunks.getItems())
+                        System.out.println(chunk);
+                    chunkCursor = chunks.getNext();
+                } while (chunkCursor != null);
+            }
+            fileCursor = files.getNext();
+        } while (fileCursor != null);
+
+        String storedCursor = null;
+        do {
+            StatePage<ChunkState> chunks = testingPeer.storedChunks(storedCursor, STATE_PAGE_SIZE);
+            for (ChunkState chunk : chunks.getItems())
+                System.out.println("Stored " + chunk);
+            storedCursor = chunks.getNext();
+        } while (storedCursor != null);
+    }
+
+    private void status() throws RemoteException {
+        System.out.println(testingPeer.status());
     }
 
 }
@@ -0,0 +1,264 @@
+package Transport;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pool of persistent TCP connections to other peers, keyed by remote address.
+ * A connection is used by one writer at a time, so frames never interleave,
+ * and frames are pipelined since the receiver never answers on the connection.
+ * Connections are non-blocking and a frame that isn't written within WRITE_TIMEOUT fails,
+ * so a stalled receiver holds a sending thread for a bounded time only.
+ * Idle connections of every destination are closed in the background, and so are destinations left without any.
+ */
+class ConnectionPool {
+
+    /* Connections that may be writing to the same destination at the same time */
+    private static final int MAX_CONNECTIONS_PER_DESTINATION = 4;
+
+    /* How long a writer waits for a free connection to a destination */
+    private static final long ACQUIRE_TIMEOUT = 2000;
+
+    /* How long a writer waits for the receiver to take a frame */
+    private static final long WRITE_TIMEOUT = 2000;
+
+    /* Idle connections older than this are closed */
+    private static final long IDLE_TIMEOUT = 30000;
+
+    /* Interval between the checks for idle connections */
+    private static final long EVICT_INTERVAL = 5000;
+
+    private static final int CONNECT_TIMEOUT = 2000;
+
+    /**
+     * InetSocketAddress is the remote address
+     * Destination holds its idle connections and concurrency limit
+     */
+    private Map<InetSocketAddress, Destination> destinations = new ConcurrentHashMap<>();
+
+    private Future<?> eviction = Evictor.EXECUTOR.scheduleWithFixedDelay(this::evictIdle, EVICT_INTERVAL, EVICT_INTERVAL, TimeUnit.MILLISECONDS);
+
+    /**
+     * Writes a whole <Length><Message> frame to a destination, reusing an idle connection when possible.
+     * A stale connection is replaced by a fresh one once before giving up, a connect or write that times out isn't retried.
+     *
+     * @param address remote address
+     * @param frame   message bytes
+     * @return returns false if the frame couldn't be written
+     */
+    public boolean send(InetSocketAddress address, byte[] frame) {
+        Destination destination = use(address);
+        try {
+            if (!destination.permits.tryAcquire(ACQUIRE_TIMEOUT, TimeUnit.MILLISECONDS))
+                return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            destination.release();
+            return false;
+        }
+
+        try {
+            for (int attempt = 0; attempt < 2; attempt++) {
+                Connection connection = null;
+                try {
+                    connection = attempt == 0 ? borrow(address, destination) : new Connection(address);
+                    connection.write(frame);
+                    connection.lastUsed = System.currentTimeMillis();
+                    destination.idle.push(connection);
+                    return true;
+                } catch (SocketTimeoutException e) {
+                    if (connection != null)
+                        connection.close();
+                    return false;
+                } catch (IOException e) {
+                    if (connection != null)
+                        connection.close();
+                }
+            }
+            return false;
+        } finally {
+            destination.permits.release();
+            destination.release();
+        }
+    }
+
+    /**
+     * Stops the eviction and closes every idle connection
+     */
+    public void close() {
+        eviction.cancel(false);
+        for (Destination destination : destinations.values()) {
+            Connection connection;
+            while ((connection = destination.idle.poll()) != null) {
+                connection.close();
+            }
+        }
+    }
+
+    /**
+     * @return returns the destination of an address, counting the caller as one of its users until it releases it
+     */
+    private Destination use(InetSocketAddress address) {
+        while (true) {
+            Destination destination = destinations.computeIfAbsent(address, a -> new Destination());
+            synchronized (destination) {
+                //A destination removed by the eviction is replaced by a new one
+                if (!destination.removed) {
+                    destination.users++;
+                    return destination;
+                }
+            }
+        }
+    }
+
+    /**
+     * Takes the most recently used healthy connection, closing the stale ones on the way,
+     * or opens a new one
+     */
+    private Connection borrow(InetSocketAddress address, Destination destination) throws IOException {
+        Connection connection;
+        while ((connection = destination.idle.poll()) != null) {
+            if (connection.isHealthy())
+                return connection;
+            connection.close();
+        }
+        return new Connection(address);
+    }
+
+    /**
+     * Closes the connections idle for longer than IDLE_TIMEOUT and drops the destinations nobody uses
+     */
+    private void evictIdle() {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<InetSocketAddress, Destination> entry : destinations.entrySet()) {
+            Destination destination = entry.getValue();
+            Iterator<Connection> iterator = destination.idle.descendingIterator();
+            while (iterator.hasNext()) {
+                Connection connection = iterator.next();
+                if (now - connection.lastUsed < IDLE_TIMEOUT)
+                    break;
+                if (destination.idle.removeLastOccurrence(connection))
+                    connection.close();
+            }
+            synchronized (destination) {
+                if (destination.users == 0 && destination.idle.isEmpty()) {
+                    destination.removed = true;
+                    destinations.remove(entry.getKey(), destination);
+                }
+            }
+        }
+    }
+
+    private static class Destination {
+        private Semaphore permits = new Semaphore(MAX_CONNECTIONS_PER_DESTINATION);
+        private ConcurrentLinkedDeque<Connection> idle = new ConcurrentLinkedDeque<>();
+
+        /* Writers using the destination and whether it left the pool, guarded by the destination */
+        private int users = 0;
+        private boolean removed = false;
+
+        synchronized void release() {
+            users--;
+        }
+    }
+
+    private static class Connection {
+
+        private SocketChannel channel;
+        private ByteBuffer length = ByteBuffer.allocate(4);
+        private ByteBuffer probe = ByteBuffer.allocate(1);
+
+        /* Waits for room to write once the send buffer is full, opened the first time it is */
+        private Selector selector;
+        private long lastUsed = System.currentTimeMillis();
+
+        Connection(InetSocketAddress address) throws IOException {
+            channel = SocketChannel.open();
+            try {
+                channel.socket().connect(address, CONNECT_TIMEOUT);
+                channel.socket().setTcpNoDelay(true);
+                channel.socket().setKeepAlive(true);
+                channel.configureBlocking(false);
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        /**
+         * Writes the length and the frame, waiting for the receiver while the send buffer is full
+         *
+         * @throws SocketTimeoutException if the frame isn't written within WRITE_TIMEOUT, the connection is then out of sync
+         */
+        void write(byte[] frame) throws IOException {
+            length.clear();
+            length.putInt(frame.length).flip();
+            ByteBuffer[] buffers = {length, ByteBuffer.wrap(frame)};
+            long deadline = System.currentTimeMillis() + WRITE_TIMEOUT;
+            while (buffers[0].hasRemaining() || buffers[1].hasRemaining()) {
+                if (channel.write(buffers) > 0)
+                    continue;
+                long left = deadline - System.currentTimeMillis();
+                if (left <= 0)
+                    throw new SocketTimeoutException("Write timed out");
+                if (selector == null) {
+                    selector = Selector.open();
+                    channel.register(selector, SelectionKey.OP_WRITE);
+                }
+                selector.select(left);
+                selector.selectedKeys().clear();
+            }
+        }
+
+        /**
+         * The receiver never writes, so a read of anything but nothing means the connection was closed
+         * or is out of sync
+         */
+        boolean isHealthy() {
+            if (!channel.isOpen() || !channel.isConnected())
+                return false;
+            try {
+                probe.clear();
+                return channel.read(probe) == 0;
+            } catch (IOException e) {
+                return false;
+            }
+        }
+
+        void close() {
+            try {
+                if (selector != null)
+                    selector.close();
+                channel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Thread that evicts the idle connections of every pool of the JVM
+     */
+    private static class Evictor {
+
+        private static final ScheduledExecutorService EXECUTOR = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ConnectionPool");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+}
@@ -0,0 +1,12 @@
+package Transport;
+
+/**
+ * Membership of a peer in a multicast channel
+ */
+public interface GroupSocket {
+
+    /**
+     * Leaves the channel
+     */
+    void close();
+}
@@ -0,0 +1,53 @@
+package Transport;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetSocketAddress;
+import java.util.Random;
+import java.util.function.Consumer;
+
+/**
+ * Transport that drops received datagrams of the multicast channels with a fixed probability, for testing.
+ * Everything else goes straight to the transport it wraps, so that a load test can add loss to the real network
+ * the way MemoryNetwork does to the simulated one.
+ */
+public class LossyTransport implements Transport {
+
+    private Transport transport;
+    private double loss;
+    private Random random;
+
+    /**
+     * @param transport transport that moves the messages
+     * @param loss      probability of dropping a received datagram
+     * @param random    source of the losses
+     */
+    public LossyTransport(Transport transport, double loss, Random random) {
+        this.transport = transport;
+        this.loss = loss;
+        this.random = random;
+    }
+
+    public GroupSocket join(String address, int port, Consumer<DatagramPacket> handler) throws IOException {
+        return transport.join(address, port, packet -> {
+            if (loss <= 0 || random.nextDouble() >= loss)
+                handler.accept(packet);
+        });
+    }
+
+    public void send(String address, int port, byte[] data) throws IOException {
+        transport.send(address, port, data);
+    }
+
+    public StreamServer listen(String name, Consumer<byte[]> handler) throws IOException {
+        return transport.listen(name, handler);
+    }
+
+    public boolean sendFrame(InetSocketAddress destination, byte[] frame) {
+        return transport.sendFrame(destination, frame);
+    }
+
+    public void close() {
+        transport.close();
+    }
+}
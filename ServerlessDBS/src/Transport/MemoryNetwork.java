@@ -0,0 +1,129 @@
+package Transport;
+
+import Utilities.Clock;
+import Utilities.SystemClock;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Network simulated inside the JVM, shared by the MemoryTransport of every peer, so that many peers can run together.
+ * A datagram reaches every member of its channel, the sender included as with multicast loopback, after the latency.
+ * Each member loses it independently with the loss probability. Each peer sends through a link of the given bandwidth,
+ * so what it sends waits for what it sent before. Frames are never lost, as with TCP.
+ * Deliveries are scheduled on the clock of the network, so with a VirtualClock the network runs in virtual time.
+ */
+public class MemoryNetwork {
+
+    private final long latency;
+    private final double loss;
+    private final long bandwidth;
+    private final Clock clock;
+
+    /**
+     * String is a multicast channel, <Address>:<Port>
+     * List holds the sockets that joined the channel
+     */
+    private Map<String, List<MemoryTransport.Member>> groups = new ConcurrentHashMap<>();
+
+    /**
+     * Integer is the port of a server
+     * Consumer is the handler of the frames sent to that port
+     */
+    private Map<Integer, Consumer<byte[]>> servers = new ConcurrentHashMap<>();
+
+    /* Ports identify the transports and the servers, as the source of datagrams and the destination of frames */
+    private AtomicInteger nextPort = new AtomicInteger(1);
+
+    /**
+     * @param latency   time in milliseconds a datagram or frame takes to arrive once sent
+     * @param loss      probability of a member losing a datagram
+     * @param bandwidth bytes per second a peer sends, 0 for no limit
+     */
+    public MemoryNetwork(long latency, double loss, long bandwidth) {
+        this(latency, loss, bandwidth, new SystemClock());
+    }
+
+    /**
+     * @param clock clock that delivers the datagrams and frames, shared with the peers of the network
+     */
+    public MemoryNetwork(long latency, double loss, long bandwidth, Clock clock) {
+        this.latency = TimeUnit.MILLISECONDS.toNanos(latency);
+        this.loss = loss;
+        this.bandwidth = bandwidth;
+        this.clock = clock;
+    }
+
+    /**
+     * @return returns the transport of a new peer of the network
+     */
+    public Transport newTransport() {
+        return new MemoryTransport(this, nextPort.getAndIncrement());
+    }
+
+    long getLatency() {
+        return latency;
+    }
+
+    double getLoss() {
+        return loss;
+    }
+
+    long getBandwidth() {
+        return bandwidth;
+    }
+
+    Clock getClock() {
+        return clock;
+    }
+
+    /**
+     * Runs a delivery at the time in nanoseconds of the clock it arrives
+     */
+    void deliver(Runnable delivery, long arrival) {
+        clock.schedule(delivery, TimeUnit.NANOSECONDS.toMillis(arrival - TimeUnit.MILLISECONDS.toNanos(clock.millis())));
+    }
+
+    int newPort() {
+        return nextPort.getAndIncrement();
+    }
+
+    void join(String address, int port, MemoryTransport.Member member) {
+        groups.computeIfAbsent(address + ":" + port, group -> new CopyOnWriteArrayList<>()).add(member);
+    }
+
+    void leave(String address, int port, MemoryTransport.Member member) {
+        groups.getOrDefault(address + ":" + port, Collections.emptyList()).remove(member);
+    }
+
+    List<MemoryTransport.Member> getMembers(String address, int port) {
+        return groups.getOrDefault(address + ":" + port, Collections.emptyList());
+    }
+
+    void addServer(int port, Consumer<byte[]> handler) {
+        servers.put(port, handler);
+    }
+
+    void removeServer(int port) {
+        servers.remove(port);
+    }
+
+    /**
+     * Hands a frame to the server listening on a port once it arrives
+     *
+     * @return returns false if no server listens on the port
+     */
+    boolean deliverFrame(int port, byte[] frame, long arrival) {
+        Consumer<byte[]> handler = servers.get(port);
+        if (handler == null)
+            return false;
+        deliver(() -> handler.accept(frame), arrival);
+        return true;
+    }
+}
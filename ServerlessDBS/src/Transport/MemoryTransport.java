@@ -0,0 +1,112 @@
+package Transport;
+
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Transport of a peer of a MemoryNetwork.
+ * Datagrams come from the loopback address with the port of the transport that sent them.
+ */
+public class MemoryTransport implements Transport {
+
+    private MemoryNetwork network;
+    private int port;
+
+    /* Time in nanoseconds of the clock at which the link of this peer finishes sending what it was given */
+    private long linkFree = 0;
+
+    MemoryTransport(MemoryNetwork network, int port) {
+        this.network = network;
+        this.port = port;
+    }
+
+    public GroupSocket join(String address, int port, Consumer<DatagramPacket> handler) {
+        Member member = new Member(address, port, handler);
+        network.join(address, port, member);
+        return member;
+    }
+
+    public void send(String address, int port, byte[] data) {
+        long arrival = transmit(data.length) + network.getLatency();
+        List<Member> receivers = new ArrayList<>(network.getMembers(address, port));
+        network.deliver(() -> {
+            for (Member member : receivers)
+                member.deliver(new DatagramPacket(data, data.length, InetAddress.getLoopbackAddress(), this.port));
+        }, arrival);
+    }
+
+    public StreamServer listen(String name, Consumer<byte[]> handler) {
+        int serverPort = network.newPort();
+        network.addServer(serverPort, handler);
+        return new StreamServer() {
+            public int getPort() {
+                return serverPort;
+            }
+
+            public void close() {
+                network.removeServer(serverPort);
+            }
+        };
+    }
+
+    public boolean sendFrame(InetSocketAddress destination, byte[] frame) {
+        return network.deliverFrame(destination.getPort(), frame, transmit(frame.length) + network.getLatency());
+    }
+
+    public void close() {
+    }
+
+    /**
+     * Queues bytes on the link of this peer
+     *
+     * @return returns the time in nanoseconds of the clock at which the last byte leaves
+     */
+    private synchronized long transmit(int bytes) {
+        long now = TimeUnit.MILLISECONDS.toNanos(network.getClock().millis());
+        long bandwidth = network.getBandwidth();
+        if (bandwidth <= 0)
+            return now;
+        linkFree = Math.max(now, linkFree) + bytes * 1000000000L / bandwidth;
+        return linkFree;
+    }
+
+    /**
+     * Socket of a peer in a channel, datagrams are handled in the delivery that brings them,
+     * so a datagram costs its receivers no turn of the clock of their own
+     */
+    class Member implements GroupSocket {
+
+        private String address;
+        private int port;
+        private Consumer<DatagramPacket> handler;
+
+        /* Losses of the datagrams that reach this socket, drawn as they arrive so that they follow the order of the clock */
+        private Random loss;
+
+        Member(String address, int port, Consumer<DatagramPacket> handler) {
+            this.address = address;
+            this.port = port;
+            this.handler = handler;
+            this.loss = network.getClock().newRandom("MemoryTransport-" + MemoryTransport.this.port + "-" + address + ":" + port);
+        }
+
+        /**
+         * Hands a datagram to the handler, unless it's lost
+         */
+        void deliver(DatagramPacket packet) {
+            if (network.getLoss() > 0 && loss.nextDouble() < network.getLoss())
+                return;
+            handler.accept(packet);
+        }
+
+        public void close() {
+            network.leave(address, port, this);
+        }
+    }
+}
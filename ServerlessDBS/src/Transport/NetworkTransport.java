@@ -0,0 +1,72 @@
+package Transport;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MulticastSocket;
+import java.util.function.Consumer;
+
+/**
+ * Transport over the real network: UDP multicast for the channels and pooled TCP connections for frames
+ */
+public class NetworkTransport implements Transport {
+
+    /* Largest datagram received, a PUTCHUNK header plus a full chunk fits with room to spare */
+    private static final int MAX_DATAGRAM_SIZE = 70000;
+
+    private DatagramSocket sendSocket;
+    private ConnectionPool connectionPool = new ConnectionPool();
+
+    public NetworkTransport() throws IOException {
+        //A single socket sends every datagram of the peer, sending on it is thread safe
+        sendSocket = new DatagramSocket();
+    }
+
+    /**
+     * Each channel has a thread that receives its datagrams and calls the handler
+     */
+    public GroupSocket join(String address, int port, Consumer<DatagramPacket> handler) throws IOException {
+        MulticastSocket socket = new MulticastSocket(port);
+        socket.joinGroup(InetAddress.getByName(address));
+        Thread receiver = new Thread(() -> {
+            try {
+                while (true) {
+                    DatagramPacket packet = new DatagramPacket(new byte[MAX_DATAGRAM_SIZE], MAX_DATAGRAM_SIZE);
+                    socket.receive(packet);
+                    handler.accept(packet);
+                }
+            } catch (IOException e) {
+                System.out.println("Error handling peer:" + e);
+            }
+        }, "Channel-" + address + ":" + port);
+        receiver.setDaemon(true);
+        receiver.start();
+        return new GroupSocket() {
+            public void close() {
+                socket.close();
+            }
+        };
+    }
+
+    public void send(String address, int port, byte[] data) throws IOException {
+        InetAddress group = InetAddress.getByName(address.replace("/", ""));
+        sendSocket.send(new DatagramPacket(data, data.length, group, port));
+    }
+
+    public StreamServer listen(String name, Consumer<byte[]> handler) throws IOException {
+        RestoreServer server = new RestoreServer(name, handler);
+        server.start();
+        return server;
+    }
+
+    public boolean sendFrame(InetSocketAddress destination, byte[] frame) {
+        return connectionPool.send(destination, frame);
+    }
+
+    public void close() {
+        sendSocket.close();
+        connectionPool.close();
+    }
+}
@@ -0,0 +1,169 @@
+package Transport;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.function.Consumer;
+
+/**
+ * TCP server that receives CHUNK messages in the enhanced restore protocol (version 1.1).
+ * A single thread multiplexes every supplier connection with a Selector,
+ * each message is framed as <Length><Message> and handed to the handler once complete.
+ */
+public class RestoreServer extends Thread implements StreamServer {
+
+    /* Largest frame accepted, a CHUNK header plus a full chunk fits with room to spare */
+    private static final int MAX_FRAME_SIZE = 1024 * 1024;
+
+    private Consumer<byte[]> handler;
+    private Selector selector;
+    private ServerSocketChannel serverChannel;
+
+    /**
+     * Opens the server on an ephemeral port, which is announced in every GETCHUNK request
+     *
+     * @param name    name of the server thread
+     * @param handler called with every complete frame
+     * @throws IOException
+     */
+    public RestoreServer(String name, Consumer<byte[]> handler) throws IOException {
+        this.handler = handler;
+        this.selector = Selector.open();
+        this.serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(0));
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        setName(name);
+        setDaemon(true);
+    }
+
+    /**
+     * @return returns the port the server listens on
+     */
+    public int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    public void run() {
+        try {
+            while (selector.isOpen()) {
+                selector.select();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid())
+                        continue;
+                    if (key.isAcceptable()) {
+                        accept();
+                    } else if (key.isReadable()) {
+                        read(key);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("Restore server stopped: " + e);
+        } catch (ClosedSelectorException | CancelledKeyException e) {
+            //Closed by close() while selecting
+        }
+    }
+
+    /**
+     * Closes the server and every open connection
+     */
+    public void close() {
+        try {
+            for (SelectionKey key : selector.keys()) {
+                key.channel().close();
+            }
+            selector.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = serverChannel.accept();
+        if (channel == null)
+            return;
+        channel.configureBlocking(false);
+        channel.register(selector, SelectionKey.OP_READ, new Connection());
+    }
+
+    /**
+     * Reads whatever is available on a connection and dispatches every complete frame
+     */
+    private void read(SelectionKey key) {
+        SocketChannel channel = (SocketChannel) key.channel();
+        Connection connection = (Connection) key.attachment();
+        try {
+            int read;
+            while ((read = connection.read(channel)) > 0) {
+                byte[] frame;
+                while ((frame = connection.nextFrame()) != null) {
+                    handler.accept(frame);
+                }
+            }
+            if (read < 0) {
+                closeConnection(key);
+            }
+        } catch (IOException e) {
+            closeConnection(key);
+        }
+    }
+
+    private void closeConnection(SelectionKey key) {
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Reassembles length prefixed frames of a connection
+     */
+    private static class Connection {
+
+        private ByteBuffer length = ByteBuffer.allocate(4);
+        private ByteBuffer body = null;
+
+        /**
+         * Reads into the length or the body buffer, whichever is being filled
+         *
+         * @return returns the number of bytes read, -1 at end of stream
+         */
+        int read(SocketChannel channel) throws IOException {
+            return channel.read(body == null ? length : body);
+        }
+
+        /**
+         * @return returns the next complete frame, or null if more bytes are needed
+         */
+        byte[] nextFrame() throws IOException {
+            if (body == null) {
+                if (length.hasRemaining())
+                    return null;
+                length.flip();
+                int size = length.getInt();
+                length.clear();
+                if (size <= 0 || size > MAX_FRAME_SIZE)
+                    throw new IOException("Invalid frame size: " + size);
+                body = ByteBuffer.allocate(size);
+            }
+            if (body.hasRemaining())
+                return null;
+            byte[] frame = body.array();
+            body = null;
+            return frame;
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package Transport;
+
+/**
+ * Server that receives frames sent straight to a peer
+ */
+public interface StreamServer {
+
+    /**
+     * @return returns the port the server listens on
+     */
+    int getPort();
+
+    /**
+     * Stops the server
+     */
+    void close();
+}
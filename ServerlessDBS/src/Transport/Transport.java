@@ -0,0 +1,59 @@
+package Transport;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetSocketAddress;
+import java.util.function.Consumer;
+
+/**
+ * Moves the messages of a peer: datagrams to and from the multicast channels,
+ * and length prefixed frames sent straight to another peer by the enhanced restore protocol (version 1.1).
+ * NetworkTransport uses UDP multicast and TCP, MemoryTransport simulates a network inside the JVM.
+ */
+public interface Transport {
+
+    /**
+     * Joins a multicast channel
+     *
+     * @param address multicast address
+     * @param port    multicast port
+     * @param handler called with every datagram of the channel, with the address and port of its sender
+     * @return returns the membership in the channel, that is closed to leave it
+     * @throws IOException
+     */
+    GroupSocket join(String address, int port, Consumer<DatagramPacket> handler) throws IOException;
+
+    /**
+     * Sends a datagram to a multicast channel
+     *
+     * @param address multicast address
+     * @param port    multicast port
+     * @param data    datagram
+     * @throws IOException
+     */
+    void send(String address, int port, byte[] data) throws IOException;
+
+    /**
+     * Starts a server that receives frames from other peers
+     *
+     * @param name    name of the server thread
+     * @param handler called with every complete frame
+     * @return returns the server, whose port is announced to the senders
+     * @throws IOException
+     */
+    StreamServer listen(String name, Consumer<byte[]> handler) throws IOException;
+
+    /**
+     * Sends a frame to the server of another peer
+     *
+     * @param destination address of the datagram that announced the server, with the port of the server
+     * @param frame       message bytes
+     * @return returns false if the frame couldn't be sent
+     */
+    boolean sendFrame(InetSocketAddress destination, byte[] frame);
+
+    /**
+     * Releases what the transport holds to send, the channels and servers are closed by their owners
+     */
+    void close();
+}
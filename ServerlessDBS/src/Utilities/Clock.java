@@ -0,0 +1,88 @@
+package Utilities;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Source of time and randomness of the protocols, so that the same peers run either in real time
+ * or in the virtual time of a simulation.
+ * Every delay, timeout, wait and random draw of the protocols goes through the clock of the peer,
+ * and so do the threads and executors that run them.
+ */
+public interface Clock {
+
+    /**
+     * @return returns the current time in milliseconds
+     */
+    long millis();
+
+    /**
+     * Sleeps the calling thread, as Thread.sleep
+     *
+     * @param millis time to sleep in milliseconds
+     * @throws InterruptedException if the thread is interrupted while sleeping
+     */
+    void sleep(long millis) throws InterruptedException;
+
+    /**
+     * Waits on a monitor held by the calling thread, as Object.wait, so it returns when notified,
+     * when the time runs out or spuriously and the caller checks its condition again
+     *
+     * @param monitor object whose monitor the thread holds
+     * @param millis  longest time to wait in milliseconds, 0 waits until notified
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    void await(Object monitor, long millis) throws InterruptedException;
+
+    /**
+     * Wakes the threads waiting on a monitor held by the calling thread, as Object.notifyAll
+     *
+     * @param monitor object whose monitor the thread holds
+     */
+    void signal(Object monitor);
+
+    /**
+     * Runs a short task once a delay has passed
+     *
+     * @param task  task to run
+     * @param delay delay in milliseconds
+     * @return returns the pending task, that can be cancelled
+     */
+    Future<?> schedule(Runnable task, long delay);
+
+    /**
+     * Fixed thread pool, as Executors.newFixedThreadPool, for the work of the peers
+     *
+     * @param threads number of threads
+     * @return returns the executor
+     */
+    ExecutorService newExecutor(int threads);
+
+    /**
+     * Starts a thread of the peers, whose run method calls enter first and exit last
+     *
+     * @param thread thread to start
+     */
+    void start(Thread thread);
+
+    /**
+     * Called by a thread before it does any work of the peers, either one started by the clock
+     * or one that wasn't, such as the main thread of a simulation
+     */
+    void enter();
+
+    /**
+     * Called by a thread once it's done with the work of the peers
+     */
+    void exit();
+
+    /**
+     * Random source of a component, seeded from the seed of the clock and the name,
+     * so that each component draws the same numbers on every run with the same seed
+     *
+     * @param name name of the component, such as the peerId
+     * @return returns a new random source
+     */
+    Random newRandom(String name);
+}
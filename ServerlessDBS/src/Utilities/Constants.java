@@ -15,6 +15,17 @@ public class Constants {
     public static final String CHUNK = "CHUNK";
     public static final String REMOVED = "REMOVED";
     public static final String ALIVE = "ALIVE";
+    public static final String PUTSHARD = "PUTSHARD";
+    public static final String DELETEBATCH = "DELETEBATCH";
+    public static final String DELETED = "DELETED";
+    public static final String REMOVEDBATCH = "REMOVEDBATCH";
+    public static final String DIGEST = "DIGEST";
+    public static final String DIGESTREQ = "DIGESTREQ";
+
+    /* Placeholder for the TargetId of a GETCHUNK that any holder may answer */
+    public static final String ANY_PEER = "*";
+
+    public static final int CHUNK_SIZE = 64 * 1000;
 
 
 }
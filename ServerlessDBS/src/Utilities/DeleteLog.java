@@ -0,0 +1,297 @@
+package Utilities;
+
+import Peer.Peer;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Sequence numbered log of the files deleted by this peer (version 1.1),
+ * together with how far this peer has applied the logs of the other peers.
+ * An entry is kept until every peer known to hold chunks of the file acknowledged the delete.
+ */
+public class DeleteLog {
+
+    /* Key of the last sequence number given by this peer, kept after its entries are pruned */
+    private static final String LAST_SEQUENCE = "LastSequence";
+
+    private Peer peer;
+    private long lastSequence = 0;
+
+    /**
+     * Long is the sequence number
+     * String holds the deleted fileId
+     */
+    private SortedMap<Long, String> entries = new TreeMap<>();
+
+    /**
+     * Long is the sequence number
+     * Set holds the holders that haven't acknowledged the delete yet
+     */
+    private Map<Long, Set<String>> pendingHolders = new HashMap<>();
+
+    /**
+     * String is the id of the peer that deleted the files
+     * Long holds the sequence up to which every delete was applied
+     */
+    private Map<String, Long> watermarks = new ConcurrentHashMap<>();
+
+    /**
+     * String is the id of the peer that deleted the files
+     * TreeMap holds the applied ranges of sequences above the watermark, from first to last,
+     * waiting for the gap before them to be filled
+     */
+    private Map<String, TreeMap<Long, Long>> appliedAhead = new HashMap<>();
+
+    public DeleteLog(Peer peer) {
+        this.peer = peer;
+    }
+
+    /**
+     * Adds a delete of this peer to the log
+     *
+     * @param fileId  deleted file
+     * @param holders peers known to hold chunks of the file
+     * @return returns the sequence number of the delete
+     */
+    public synchronized long append(String fileId, Set<String> holders) {
+        long sequence = addEntry(fileId, holders);
+        saveLog();
+        return sequence;
+    }
+
+    /**
+     * Adds many deletes of this peer to the log, saving it once
+     *
+     * @param deletes deleted files and the peers known to hold chunks of each
+     * @return returns one line per delete: <Sequence> <FileId> <Holder>,<Holder>...
+     */
+    public synchronized List<String> appendAll(Map<String, Set<String>> deletes) {
+        List<String> lines = new ArrayList<>();
+        for (Map.Entry<String, Set<String>> delete : deletes.entrySet()) {
+            long sequence = addEntry(delete.getKey(), delete.getValue());
+            lines.add(sequence + " " + delete.getKey() + " " + String.join(",", delete.getValue()));
+        }
+        saveLog();
+        return lines;
+    }
+
+    /**
+     * A delete without known holders takes a sequence number but has nothing to wait for
+     */
+    private long addEntry(String fileId, Set<String> holders) {
+        long sequence = ++lastSequence;
+        if (!holders.isEmpty()) {
+            entries.put(sequence, fileId);
+            pendingHolders.put(sequence, new HashSet<>(holders));
+        }
+        return sequence;
+    }
+
+    /**
+     * Registers that a holder deleted files and prunes the entries every holder acknowledged
+     *
+     * @param fileIds  deleted files
+     * @param holderId peer that deleted them
+     */
+    public synchronized void acknowledge(Collection<String> fileIds, String holderId) {
+        Set<String> deleted = new HashSet<>(fileIds);
+        boolean changed = false;
+        Iterator<Map.Entry<Long, String>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Long, String> entry = iterator.next();
+            if (!deleted.contains(entry.getValue()))
+                continue;
+            Set<String> pending = pendingHolders.get(entry.getKey());
+            if (pending.remove(holderId)) {
+                changed = true;
+                if (pending.isEmpty()) {
+                    pendingHolders.remove(entry.getKey());
+                    iterator.remove();
+                }
+            }
+        }
+        if (changed)
+            saveLog();
+    }
+
+    /**
+     * Drops the entries of a file that is being backed up again, so that catching up peers don't delete the new chunks
+     *
+     * @param fileId file being backed up
+     */
+    public synchronized void forget(String fileId) {
+        if (entries.values().removeIf(fileId::equals)) {
+            pendingHolders.keySet().retainAll(entries.keySet());
+            saveLog();
+        }
+    }
+
+    /**
+     * Entries a peer is missing: the ones after its watermark and the ones it still has to acknowledge
+     *
+     * @param watermark sequence up to which the peer applied this peer's deletes
+     * @param peerId    id of the peer catching up
+     * @return returns one line per entry: <Sequence> <FileId> <Holder>,<Holder>...
+     */
+    public synchronized List<String> getCatchUp(long watermark, String peerId) {
+        List<String> lines = new ArrayList<>();
+        for (Map.Entry<Long, String> entry : entries.entrySet()) {
+            Set<String> pending = pendingHolders.get(entry.getKey());
+            if (entry.getKey() > watermark || pending.contains(peerId))
+                lines.add(entry.getKey() + " " + entry.getValue() + " " + String.join(",", pending));
+        }
+        return lines;
+    }
+
+    /**
+     * @return returns the last sequence number given by this peer
+     */
+    public synchronized long getLastSequence() {
+        return lastSequence;
+    }
+
+    /**
+     * @return returns every entry that wasn't pruned yet, in the same format as getCatchUp
+     */
+    public List<String> getPending() {
+        return getCatchUp(0, null);
+    }
+
+    /**
+     * Registers that a delete of another peer was applied
+     *
+     * @param origin   id of the peer that deleted the file
+     * @param sequence sequence number of the delete
+     * @return returns false if the delete had already been applied
+     */
+    public boolean apply(String origin, long sequence) {
+        return !applyAll(origin, Collections.singletonList(sequence), sequence, sequence).isEmpty();
+    }
+
+    /**
+     * Registers that the deletes of another peer in a range of sequences were applied, saving the watermarks once.
+     * Sequences of the range without a delete were pruned by the origin and count as applied.
+     *
+     * @param origin    id of the peer that deleted the files
+     * @param sequences sequence numbers of the deletes
+     * @param from      first sequence covered by the deletes
+     * @param to        last sequence covered by the deletes
+     * @return returns the sequences that hadn't been applied before
+     */
+    public synchronized Set<Long> applyAll(String origin, Collection<Long> sequences, long from, long to) {
+        long watermark = watermarks.getOrDefault(origin, 0L);
+        TreeMap<Long, Long> ahead = appliedAhead.computeIfAbsent(origin, o -> new TreeMap<>());
+        Set<Long> applied = new HashSet<>();
+        for (long sequence : sequences) {
+            Map.Entry<Long, Long> range = ahead.floorEntry(sequence);
+            if (sequence > watermark && (range == null || range.getValue() < sequence)) {
+                applied.add(sequence);
+                ahead.merge(sequence, sequence, Math::max);
+            }
+        }
+        if (from <= to)
+            ahead.merge(from, to, Math::max);
+
+        //The watermark only moves over consecutive sequences, so a lost delete is still asked for
+        while (!ahead.isEmpty() && ahead.firstKey() <= watermark + 1)
+            watermark = Math.max(watermark, ahead.pollFirstEntry().getValue());
+        if (watermark != watermarks.getOrDefault(origin, 0L)) {
+            watermarks.put(origin, watermark);
+            saveWatermarks();
+        }
+        return applied;
+    }
+
+    /**
+     * @return returns the watermarks of this peer, one <PeerId>:<Sequence> per line
+     */
+    public String getWatermarks() {
+        StringBuilder body = new StringBuilder();
+        for (Map.Entry<String, Long> entry : watermarks.entrySet()) {
+            body.append(entry.getKey()).append(':').append(entry.getValue()).append('\n');
+        }
+        return body.toString();
+    }
+
+    /**
+     * @param body watermarks in the format of getWatermarks
+     * @return returns the sequence per peer id
+     */
+    public static Map<String, Long> parseWatermarks(String body) {
+        Map<String, Long> parsed = new HashMap<>();
+        for (String line : body.split("\n")) {
+            int separator = line.indexOf(':');
+            if (separator > 0)
+                parsed.put(line.substring(0, separator), Long.parseLong(line.substring(separator + 1).trim()));
+        }
+        return parsed;
+    }
+
+    /**
+     * This function saves the log to the disk memory.
+     */
+    private void saveLog() {
+        Properties log = new Properties();
+        log.setProperty(LAST_SEQUENCE, Long.toString(lastSequence));
+        for (Map.Entry<Long, String> entry : entries.entrySet()) {
+            log.setProperty(Long.toString(entry.getKey()), entry.getValue() + " " + String.join(",", pendingHolders.get(entry.getKey())));
+        }
+        try (FileOutputStream output = new FileOutputStream(peer.getPeerId() + "/deleteLog.properties")) {
+            log.store(output, null);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void saveWatermarks() {
+        Properties properties = new Properties();
+        for (Map.Entry<String, Long> entry : watermarks.entrySet()) {
+            properties.setProperty(entry.getKey(), Long.toString(entry.getValue()));
+        }
+        try (FileOutputStream output = new FileOutputStream(peer.getPeerId() + "/deleteWatermarks.properties")) {
+            properties.store(output, null);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * This function loads the log and the watermarks from the disk memory.
+     */
+    public synchronized void load() {
+        Properties log = loadProperties(peer.getPeerId() + "/deleteLog.properties");
+        for (String key : log.stringPropertyNames()) {
+            if (key.equals(LAST_SEQUENCE)) {
+                lastSequence = Long.parseLong(log.getProperty(key));
+                continue;
+            }
+            String[] value = log.getProperty(key).split(" ");
+            long sequence = Long.parseLong(key);
+            entries.put(sequence, value[0]);
+            pendingHolders.put(sequence, new HashSet<>(Arrays.asList(value[1].split(","))));
+        }
+
+        Properties properties = loadProperties(peer.getPeerId() + "/deleteWatermarks.properties");
+        for (String origin : properties.stringPropertyNames()) {
+            watermarks.put(origin, Long.parseLong(properties.getProperty(origin)));
+        }
+    }
+
+    private Properties loadProperties(String path) {
+        Properties properties = new Properties();
+        File file = new File(path);
+        if (file.exists() && !file.isDirectory()) {
+            try (FileInputStream input = new FileInputStream(file)) {
+                properties.load(input);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        return properties;
+    }
+}
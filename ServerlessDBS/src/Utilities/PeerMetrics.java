@@ -0,0 +1,363 @@
+package Utilities;
+
+import Peer.Peer;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import static Utilities.Constants.*;
+
+/**
+ * Metrics of a running peer, exposed through JMX.
+ * Recording only adds to LongAdders and atomic arrays created up front, so it never allocates,
+ * and the maps seen through JMX are only built when an attribute is read.
+ */
+public class PeerMetrics implements PeerMetricsMXBean {
+
+    public static final int MC_CHANNEL = 0;
+    public static final int MDB_CHANNEL = 1;
+    public static final int MDR_CHANNEL = 2;
+    private static final String[] CHANNELS = {"MC", "MDB", "MDR"};
+
+    private static final String[] MESSAGE_TYPES = {PUTCHUNK, PUTSHARD, STORED, GETCHUNK, CHUNK, DELETE, DELETEBATCH, DELETED,
+            REMOVED, REMOVEDBATCH, ALIVE, DIGEST, DIGESTREQ};
+
+    /* Index of each message type in the counters, looked up without allocating */
+    private static final Map<String, Integer> TYPE_INDEX = new HashMap<>();
+
+    static {
+        for (int i = 0; i < MESSAGE_TYPES.length; i++)
+            TYPE_INDEX.put(MESSAGE_TYPES[i], i);
+    }
+
+    private Peer peer;
+    private ObjectName name;
+
+    private LongAdder[] sentMessages = newAdders(MESSAGE_TYPES.length);
+    private LongAdder[] receivedMessages = newAdders(MESSAGE_TYPES.length);
+    private Meter[] sentPackets;
+    private Meter[] receivedPackets;
+    private Meter[] sentBytes;
+    private Meter[] receivedBytes;
+    private LongAdder putchunkRetries = new LongAdder();
+    private Histogram storedLatency = new Histogram();
+    private Histogram restoreTime = new Histogram();
+    private Histogram chunkWrite = new Histogram();
+    private Histogram chunkRead = new Histogram();
+    private Histogram metadataSave = new Histogram();
+
+    /**
+     * @param peer  peer whose metrics are kept
+     * @param clock clock of the peer, the rates are measured in its time
+     */
+    public PeerMetrics(Peer peer, Clock clock) {
+        this.peer = peer;
+        sentPackets = newMeters(CHANNELS.length, clock);
+        receivedPackets = newMeters(CHANNELS.length, clock);
+        sentBytes = newMeters(CHANNELS.length, clock);
+        receivedBytes = newMeters(CHANNELS.length, clock);
+    }
+
+    /**
+     * Registers the metrics in the platform MBean server, replacing the ones of a previous peer with the same id
+     */
+    public void register() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            name = new ObjectName("ServerlessDBS:type=PeerMetrics,peer=" + ObjectName.quote(peer.getPeerId()));
+            if (server.isRegistered(name))
+                server.unregisterMBean(name);
+            server.registerMBean(this, name);
+        } catch (JMException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Removes the metrics from the platform MBean server
+     */
+    public void unregister() {
+        try {
+            if (name != null && ManagementFactory.getPlatformMBeanServer().isRegistered(name))
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        } catch (JMException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * @param addr multicast address
+     * @param port multicast port
+     * @return returns the channel of the peer with that address and port, -1 if none
+     */
+    public int getChannel(String addr, int port) {
+        if (port == peer.getMc_port() && addr.equals(peer.getMc_ip()))
+            return MC_CHANNEL;
+        if (port == peer.getMdb_port() && addr.equals(peer.getMdb_ip()))
+            return MDB_CHANNEL;
+        if (port == peer.getMdr_port() && addr.equals(peer.getMdr_ip()))
+            return MDR_CHANNEL;
+        return -1;
+    }
+
+    /**
+     * @param type    message type
+     * @param channel channel the message was sent to, -1 if unknown
+     * @param bytes   size of the datagram
+     */
+    public void recordSent(String type, int channel, int bytes) {
+        int index = TYPE_INDEX.getOrDefault(type, -1);
+        if (index >= 0)
+            sentMessages[index].increment();
+        if (channel >= 0) {
+            sentPackets[channel].mark(1);
+            sentBytes[channel].mark(bytes);
+        }
+    }
+
+    /**
+     * @param channel channel the datagram was received on
+     * @param bytes   size of the datagram
+     */
+    public void recordPacket(int channel, int bytes) {
+        if (channel >= 0) {
+            receivedPackets[channel].mark(1);
+            receivedBytes[channel].mark(bytes);
+        }
+    }
+
+    /**
+     * @param type type of a message received from another peer
+     */
+    public void recordReceived(String type) {
+        int index = TYPE_INDEX.getOrDefault(type, -1);
+        if (index >= 0)
+            receivedMessages[index].increment();
+    }
+
+    public void recordRetry() {
+        putchunkRetries.increment();
+    }
+
+    public void recordStoredLatency(long millis) {
+        storedLatency.record(millis);
+    }
+
+    public void recordRestoreTime(long millis) {
+        restoreTime.record(millis);
+    }
+
+    public void recordChunkWrite(long nanos) {
+        chunkWrite.record(nanos / 1000);
+    }
+
+    public void recordChunkRead(long nanos) {
+        chunkRead.record(nanos / 1000);
+    }
+
+    public void recordMetadataSave(long nanos) {
+        metadataSave.record(nanos / 1000);
+    }
+
+    public Map<String, Long> getSentMessages() {
+        return sum(sentMessages);
+    }
+
+    public Map<String, Long> getReceivedMessages() {
+        return sum(receivedMessages);
+    }
+
+    public Map<String, Double> getSendRates() {
+        return rates(sentPackets);
+    }
+
+    public Map<String, Double> getReceiveRates() {
+        return rates(receivedPackets);
+    }
+
+    public Map<String, Double> getSendThroughput() {
+        return rates(sentBytes);
+    }
+
+    public Map<String, Double> getReceiveThroughput() {
+        return rates(receivedBytes);
+    }
+
+    public Map<String, Long> getStoredLatencyMillis() {
+        return storedLatency.summary();
+    }
+
+    public long getPutchunkRetries() {
+        return putchunkRetries.sum();
+    }
+
+    public Map<String, Long> getRestoreTimeMillis() {
+        return restoreTime.summary();
+    }
+
+    public Map<String, Long> getChunkWriteMicros() {
+        return chunkWrite.summary();
+    }
+
+    public Map<String, Long> getChunkReadMicros() {
+        return chunkRead.summary();
+    }
+
+    public Map<String, Long> getMetadataSaveMicros() {
+        return metadataSave.summary();
+    }
+
+    public Map<String, Integer> getQueueDepths() {
+        Map<String, Integer> depths = new LinkedHashMap<>();
+        depths.put("sender", getQueueDepth(peer.getSenderExecutor()));
+        depths.put("receiver", getQueueDepth(peer.getReceiverExecutor()));
+        depths.put("deliver", getQueueDepth(peer.getDeliverExecutor()));
+        return depths;
+    }
+
+    public Map<String, Integer> getActiveThreads() {
+        Map<String, Integer> threads = new LinkedHashMap<>();
+        threads.put("sender", getActiveCount(peer.getSenderExecutor()));
+        threads.put("receiver", getActiveCount(peer.getReceiverExecutor()));
+        threads.put("deliver", getActiveCount(peer.getDeliverExecutor()));
+        return threads;
+    }
+
+    private static int getQueueDepth(ExecutorService executor) {
+        return executor instanceof ThreadPoolExecutor ? ((ThreadPoolExecutor) executor).getQueue().size() : 0;
+    }
+
+    private static int getActiveCount(ExecutorService executor) {
+        return executor instanceof ThreadPoolExecutor ? ((ThreadPoolExecutor) executor).getActiveCount() : 0;
+    }
+
+    private static Map<String, Long> sum(LongAdder[] adders) {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for (int i = 0; i < adders.length; i++)
+            counts.put(MESSAGE_TYPES[i], adders[i].sum());
+        return counts;
+    }
+
+    private static Map<String, Double> rates(Meter[] meters) {
+        Map<String, Double> rates = new LinkedHashMap<>();
+        for (int i = 0; i < meters.length; i++)
+            rates.put(CHANNELS[i], meters[i].getRate());
+        return rates;
+    }
+
+    private static LongAdder[] newAdders(int length) {
+        LongAdder[] adders = new LongAdder[length];
+        for (int i = 0; i < length; i++)
+            adders[i] = new LongAdder();
+        return adders;
+    }
+
+    private static Meter[] newMeters(int length, Clock clock) {
+        Meter[] meters = new Meter[length];
+        for (int i = 0; i < length; i++)
+            meters[i] = new Meter(clock);
+        return meters;
+    }
+
+    /**
+     * Rate of events per second, an exponentially weighted moving average over the last minute.
+     * The average is updated every TICK_INTERVAL of the clock by whichever thread first notices the interval passed.
+     */
+    private static class Meter {
+
+        private static final long TICK_INTERVAL = TimeUnit.SECONDS.toMillis(5);
+        private static final double ALPHA = 1 - Math.exp(-5 / 60.0);
+
+        private Clock clock;
+        private LongAdder uncounted = new LongAdder();
+        private AtomicLong lastTick;
+        private volatile double rate = -1;
+
+        Meter(Clock clock) {
+            this.clock = clock;
+            lastTick = new AtomicLong(clock.millis());
+        }
+
+        void mark(long count) {
+            tickIfNecessary();
+            uncounted.add(count);
+        }
+
+        double getRate() {
+            tickIfNecessary();
+            return Math.max(0, rate);
+        }
+
+        private void tickIfNecessary() {
+            long oldTick = lastTick.get();
+            long age = clock.millis() - oldTick;
+            if (age > TICK_INTERVAL && lastTick.compareAndSet(oldTick, oldTick + age - age % TICK_INTERVAL)) {
+                for (long ticks = age / TICK_INTERVAL; ticks > 0; ticks--) {
+                    double instantRate = uncounted.sumThenReset() / (double) TimeUnit.MILLISECONDS.toSeconds(TICK_INTERVAL);
+                    rate = rate < 0 ? instantRate : rate + ALPHA * (instantRate - rate);
+                }
+            }
+        }
+    }
+
+    /**
+     * Histogram with a bucket per power of two, bucket i counts the values from 2^(i-1) to 2^i - 1.
+     * Percentiles are given as the upper bound of their bucket, at most twice the real value.
+     */
+    private static class Histogram {
+
+        private AtomicLongArray buckets = new AtomicLongArray(Long.SIZE);
+        private LongAdder count = new LongAdder();
+        private LongAdder total = new LongAdder();
+        private AtomicLong max = new AtomicLong();
+
+        void record(long value) {
+            value = Math.max(0, value);
+            buckets.incrementAndGet(Long.SIZE - Long.numberOfLeadingZeros(value));
+            count.increment();
+            total.add(value);
+            long current;
+            while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+                //Retries until this value is stored or a larger one is
+            }
+        }
+
+        Map<String, Long> summary() {
+            long n = count.sum();
+            long highest = max.get();
+            Map<String, Long> summary = new LinkedHashMap<>();
+            summary.put("count", n);
+            summary.put("mean", n == 0 ? 0 : total.sum() / n);
+            summary.put("p50", Math.min(highest, percentile(0.50)));
+            summary.put("p90", Math.min(highest, percentile(0.90)));
+            summary.put("p99", Math.min(highest, percentile(0.99)));
+            summary.put("max", highest);
+            return summary;
+        }
+
+        private long percentile(double fraction) {
+            long seen = 0;
+            long recorded = 0;
+            for (int i = 0; i < buckets.length(); i++)
+                recorded += buckets.get(i);
+            long rank = (long) Math.ceil(fraction * recorded);
+            for (int i = 0; i < buckets.length(); i++) {
+                seen += buckets.get(i);
+                if (seen >= rank && seen > 0)
+                    return i == Long.SIZE - 1 ? Long.MAX_VALUE : (1L << i) - 1;
+            }
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package Utilities;
+
+import java.util.Map;
+
+/**
+ * Metrics of a running peer, registered in the platform MBean server as ServerlessDBS:type=PeerMetrics,peer=<PeerId>
+ * Histograms are summarized as count, mean, p50, p90, p99 and max
+ */
+public interface PeerMetricsMXBean {
+
+    /**
+     * @return returns the messages sent per message type
+     */
+    Map<String, Long> getSentMessages();
+
+    /**
+     * @return returns the messages received from other peers per message type
+     */
+    Map<String, Long> getReceivedMessages();
+
+    /**
+     * @return returns the packets sent per second per channel, averaged over the last minute
+     */
+    Map<String, Double> getSendRates();
+
+    /**
+     * @return returns the packets received per second per channel, averaged over the last minute
+     */
+    Map<String, Double> getReceiveRates();
+
+    /**
+     * @return returns the bytes sent per second per channel, averaged over the last minute
+     */
+    Map<String, Double> getSendThroughput();
+
+    /**
+     * @return returns the bytes received per second per channel, averaged over the last minute
+     */
+    Map<String, Double> getReceiveThroughput();
+
+    /**
+     * @return returns the time in milliseconds from a PUTCHUNK to each STORED that answered it
+     */
+    Map<String, Long> getStoredLatencyMillis();
+
+    /**
+     * @return returns the number of PUTCHUNK and PUTSHARD messages sent again
+     */
+    long getPutchunkRetries();
+
+    /**
+     * @return returns the time in milliseconds that restores and range restores took
+     */
+    Map<String, Long> getRestoreTimeMillis();
+
+    /**
+     * @return returns the time in microseconds of writing a chunk to the disk
+     */
+    Map<String, Long> getChunkWriteMicros();
+
+    /**
+     * @return returns the time in microseconds of reading a chunk from the disk
+     */
+    Map<String, Long> getChunkReadMicros();
+
+    /**
+     * @return returns the time in microseconds of saving the metadata to the disk
+     */
+    Map<String, Long> getMetadataSaveMicros();
+
+    /**
+     * @return returns the tasks waiting in the sender, receiver and deliver executors
+     */
+    Map<String, Integer> getQueueDepths();
+
+    /**
+     * @return returns the threads running a task in the sender, receiver and deliver executors
+     */
+    Map<String, Integer> getActiveThreads();
+}
@@ -0,0 +1,91 @@
+package Utilities;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+
+/**
+ * Chunk numbers of a file held by one peer, with the digests compared by anti-entropy.
+ * A digest covers a range of chunk numbers: the root covers the whole file, every node splits its range
+ * in FANOUT children and the leaves cover LEAF_SIZE chunks, with the bitmap of the chunks as digest.
+ * Other nodes are the exclusive or of a hash of every chunk number, so the root is updated in place on every change.
+ */
+public class RangeDigest {
+
+    public static final int LEAF_SIZE = 64;
+    public static final int FANOUT = 16;
+
+    /* Chunk numbers covered by the root, LEAF_SIZE * FANOUT^6 */
+    public static final int ROOT_SIZE = 1 << 30;
+
+    private NavigableSet<Integer> chunks = new TreeSet<>();
+    private long root = 0;
+
+    /**
+     * @return returns false if the chunk was already in the set
+     */
+    public synchronized boolean add(int chunkNo) {
+        if (!chunks.add(chunkNo))
+            return false;
+        root ^= mix(chunkNo);
+        return true;
+    }
+
+    /**
+     * @return returns false if the chunk wasn't in the set
+     */
+    public synchronized boolean remove(int chunkNo) {
+        if (!chunks.remove(chunkNo))
+            return false;
+        root ^= mix(chunkNo);
+        return true;
+    }
+
+    public synchronized boolean isEmpty() {
+        return chunks.isEmpty();
+    }
+
+    /**
+     * @return returns the digest of the root, without walking the chunks
+     */
+    public synchronized long getRoot() {
+        return root;
+    }
+
+    /**
+     * @param from first chunk number of the range
+     * @param to   chunk number after the range
+     * @return returns the digest of the chunks of a range
+     */
+    public synchronized long digest(int from, int to) {
+        if (from == 0 && to == ROOT_SIZE)
+            return root;
+        long digest = 0;
+        for (int chunkNo : chunks.subSet(from, to)) {
+            digest ^= to - from == LEAF_SIZE ? 1L << (chunkNo - from) : mix(chunkNo);
+        }
+        return digest;
+    }
+
+    /**
+     * @return returns a copy of the chunk numbers of a range
+     */
+    public synchronized List<Integer> getChunks(int from, int to) {
+        return new ArrayList<>(chunks.subSet(from, to));
+    }
+
+    public synchronized boolean contains(int chunkNo) {
+        return chunks.contains(chunkNo);
+    }
+
+    /**
+     * SplitMix64 finalizer, spreads consecutive chunk numbers over the whole long
+     */
+    private static long mix(long x) {
+        x += 0x9E3779B97F4A7C15L;
+        x = (x ^ (x >>> 30)) * 0xBF58476D1CE4E5B9L;
+        x = (x ^ (x >>> 27)) * 0x94D049BB133111EBL;
+        return x ^ (x >>> 31);
+    }
+}
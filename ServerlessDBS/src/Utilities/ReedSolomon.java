@@ -0,0 +1,247 @@
+package Utilities;
+
+import java.util.Arrays;
+
+/**
+ * Systematic Reed-Solomon erasure code over GF(2^8).
+ * A stripe has dataShards data shards followed by parityShards parity shards,
+ * all of the same size. Any dataShards of the dataShards + parityShards shards
+ * are enough to rebuild the others.
+ */
+public class ReedSolomon {
+
+    private static final int FIELD_SIZE = 256;
+    private static final int GENERATOR_POLYNOMIAL = 0x11D;
+
+    private static final byte[] EXP = new byte[FIELD_SIZE * 2];
+    private static final int[] LOG = new int[FIELD_SIZE];
+    private static final byte[][] MULTIPLY = new byte[FIELD_SIZE][FIELD_SIZE];
+
+    static {
+        int x = 1;
+        for (int i = 0; i < FIELD_SIZE - 1; i++) {
+            EXP[i] = (byte) x;
+            LOG[x] = i;
+            x <<= 1;
+            if (x >= FIELD_SIZE)
+                x ^= GENERATOR_POLYNOMIAL;
+        }
+        for (int i = FIELD_SIZE - 1; i < EXP.length; i++) {
+            EXP[i] = EXP[i - (FIELD_SIZE - 1)];
+        }
+        for (int a = 1; a < FIELD_SIZE; a++) {
+            for (int b = 1; b < FIELD_SIZE; b++) {
+                MULTIPLY[a][b] = EXP[LOG[a] + LOG[b]];
+            }
+        }
+    }
+
+    private int dataShards;
+    private int parityShards;
+
+    /**
+     * Rows of the encoding matrix, the first dataShards rows are the identity
+     */
+    private byte[][] matrix;
+
+    /**
+     * Creates a code with the given stripe geometry
+     *
+     * @param dataShards   number of data shards per stripe
+     * @param parityShards number of parity shards per stripe
+     */
+    public ReedSolomon(int dataShards, int parityShards) {
+        if (dataShards <= 0 || parityShards < 0 || dataShards + parityShards > FIELD_SIZE - 1) {
+            throw new IllegalArgumentException("Invalid stripe geometry: " + dataShards + "+" + parityShards);
+        }
+        this.dataShards = dataShards;
+        this.parityShards = parityShards;
+        this.matrix = buildMatrix(dataShards, dataShards + parityShards);
+    }
+
+    /**
+     * Computes the parity shards of a stripe
+     *
+     * @param shards    dataShards + parityShards arrays, the data shards must be filled
+     * @param shardSize number of bytes of each shard
+     */
+    public void encodeParity(byte[][] shards, int shardSize) {
+        for (int r = 0; r < parityShards; r++) {
+            byte[] row = matrix[dataShards + r];
+            byte[] output = shards[dataShards + r];
+            Arrays.fill(output, 0, shardSize, (byte) 0);
+            for (int c = 0; c < dataShards; c++) {
+                addMultiplied(output, shards[c], row[c], shardSize);
+            }
+        }
+    }
+
+    /**
+     * Rebuilds the missing shards of a stripe from any dataShards present shards
+     *
+     * @param shards    dataShards + parityShards arrays, missing ones may be null
+     * @param present   tells which shards hold valid data
+     * @param shardSize number of bytes of each shard
+     * @return returns false if there are not enough shards to rebuild the stripe
+     */
+    public boolean decodeMissing(byte[][] shards, boolean[] present, int shardSize) {
+        int totalShards = dataShards + parityShards;
+        int numberPresent = 0;
+        for (int i = 0; i < totalShards; i++) {
+            if (present[i])
+                numberPresent++;
+        }
+        if (numberPresent == totalShards)
+            return true;
+        if (numberPresent < dataShards)
+            return false;
+
+        //Picks the first dataShards surviving rows and inverts them
+        byte[][] subMatrix = new byte[dataShards][];
+        byte[][] subShards = new byte[dataShards][];
+        int row = 0;
+        for (int i = 0; i < totalShards && row < dataShards; i++) {
+            if (present[i]) {
+                subMatrix[row] = matrix[i];
+                subShards[row] = shards[i];
+                row++;
+            }
+        }
+        byte[][] decodeMatrix = invert(subMatrix);
+
+        for (int i = 0; i < dataShards; i++) {
+            if (!present[i]) {
+                if (shards[i] == null || shards[i].length < shardSize)
+                    shards[i] = new byte[shardSize];
+                Arrays.fill(shards[i], 0, shardSize, (byte) 0);
+                for (int c = 0; c < dataShards; c++) {
+                    addMultiplied(shards[i], subShards[c], decodeMatrix[i][c], shardSize);
+                }
+            }
+        }
+
+        //With every data shard in place the missing parity is simply re-encoded
+        for (int r = 0; r < parityShards; r++) {
+            int index = dataShards + r;
+            if (!present[index]) {
+                if (shards[index] == null || shards[index].length < shardSize)
+                    shards[index] = new byte[shardSize];
+                Arrays.fill(shards[index], 0, shardSize, (byte) 0);
+                for (int c = 0; c < dataShards; c++) {
+                    addMultiplied(shards[index], shards[c], matrix[index][c], shardSize);
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * output ^= coefficient * input
+     */
+    private static void addMultiplied(byte[] output, byte[] input, byte coefficient, int length) {
+        if (coefficient == 0)
+            return;
+        byte[] table = MULTIPLY[coefficient & 0xFF];
+        for (int i = 0; i < length; i++) {
+            output[i] ^= table[input[i] & 0xFF];
+        }
+    }
+
+    private static byte multiply(byte a, byte b) {
+        return MULTIPLY[a & 0xFF][b & 0xFF];
+    }
+
+    private static byte inverse(byte a) {
+        return EXP[(FIELD_SIZE - 1) - LOG[a & 0xFF]];
+    }
+
+    /**
+     * Builds a Vandermonde matrix and normalizes it so that the top square is the identity,
+     * which keeps the data shards unchanged while any dataShards rows stay invertible
+     */
+    private static byte[][] buildMatrix(int dataShards, int totalShards) {
+        byte[][] vandermonde = new byte[totalShards][dataShards];
+        for (int r = 0; r < totalShards; r++) {
+            for (int c = 0; c < dataShards; c++) {
+                vandermonde[r][c] = power((byte) r, c);
+            }
+        }
+        byte[][] top = new byte[dataShards][];
+        System.arraycopy(vandermonde, 0, top, 0, dataShards);
+        byte[][] topInverse = invert(top);
+
+        byte[][] result = new byte[totalShards][dataShards];
+        for (int r = 0; r < totalShards; r++) {
+            for (int c = 0; c < dataShards; c++) {
+                byte value = 0;
+                for (int i = 0; i < dataShards; i++) {
+                    value ^= multiply(vandermonde[r][i], topInverse[i][c]);
+                }
+                result[r][c] = value;
+            }
+        }
+        return result;
+    }
+
+    private static byte power(byte base, int exponent) {
+        if (exponent == 0)
+            return 1;
+        if (base == 0)
+            return 0;
+        return EXP[(LOG[base & 0xFF] * exponent) % (FIELD_SIZE - 1)];
+    }
+
+    /**
+     * Gauss-Jordan inversion of a square matrix over GF(2^8)
+     */
+    private static byte[][] invert(byte[][] source) {
+        int size = source.length;
+        byte[][] work = new byte[size][size * 2];
+        for (int r = 0; r < size; r++) {
+            System.arraycopy(source[r], 0, work[r], 0, size);
+            work[r][size + r] = 1;
+        }
+
+        for (int c = 0; c < size; c++) {
+            int pivot = c;
+            while (pivot < size && work[pivot][c] == 0)
+                pivot++;
+            if (pivot == size)
+                throw new IllegalArgumentException("Matrix is singular");
+            byte[] swap = work[c];
+            work[c] = work[pivot];
+            work[pivot] = swap;
+
+            byte scale = inverse(work[c][c]);
+            for (int i = 0; i < size * 2; i++) {
+                work[c][i] = multiply(work[c][i], scale);
+            }
+            for (int r = 0; r < size; r++) {
+                if (r != c && work[r][c] != 0) {
+                    byte factor = work[r][c];
+                    for (int i = 0; i < size * 2; i++) {
+                        work[r][i] ^= multiply(factor, work[c][i]);
+                    }
+                }
+            }
+        }
+
+        byte[][] result = new byte[size][size];
+        for (int r = 0; r < size; r++) {
+            System.arraycopy(work[r], size, result[r], 0, size);
+        }
+        return result;
+    }
+
+    public int getDataShards() {
+        return dataShards;
+    }
+
+    public int getParityShards() {
+        return parityShards;
+    }
+
+    public int getTotalShards() {
+        return dataShards + parityShards;
+    }
+}
@@ -0,0 +1,82 @@
+package Utilities;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Clock of a peer that runs in real time.
+ * Random sources are seeded when -Dclock.seed=<Seed> is set, so the random delays of a run can be repeated.
+ */
+public class SystemClock implements Clock {
+
+    /* Seed of the random sources, null for unseeded ones */
+    private final Long seed;
+
+    /**
+     * Seeds the random sources with -Dclock.seed=<Seed> if it is set
+     */
+    public SystemClock() {
+        this(Long.getLong("clock.seed"));
+    }
+
+    /**
+     * @param seed seed of the random sources, null for unseeded ones
+     */
+    public SystemClock(Long seed) {
+        this.seed = seed;
+    }
+
+    public long millis() {
+        return System.currentTimeMillis();
+    }
+
+    public void sleep(long millis) throws InterruptedException {
+        Thread.sleep(millis);
+    }
+
+    public void await(Object monitor, long millis) throws InterruptedException {
+        monitor.wait(millis);
+    }
+
+    public void signal(Object monitor) {
+        monitor.notifyAll();
+    }
+
+    public Future<?> schedule(Runnable task, long delay) {
+        return Scheduler.EXECUTOR.schedule(task, delay, TimeUnit.MILLISECONDS);
+    }
+
+    public ExecutorService newExecutor(int threads) {
+        return Executors.newFixedThreadPool(threads);
+    }
+
+    public void start(Thread thread) {
+        thread.start();
+    }
+
+    public void enter() {
+    }
+
+    public void exit() {
+    }
+
+    public Random newRandom(String name) {
+        return seed != null ? new Random(seed ^ name.hashCode()) : new Random();
+    }
+
+    /**
+     * Thread that runs the scheduled tasks of every peer of the JVM, only started once a task is scheduled
+     */
+    private static class Scheduler {
+
+        private static final ScheduledExecutorService EXECUTOR = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "SystemClock");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+}
@@ -3,28 +3,73 @@ package Utilities;
 
 import Message.Message;
 import Peer.Peer;
+import Subprotocols.Backup;
 
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.IOException;
+import java.io.*;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.Properties;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
 
-import static Utilities.Constants.DELETE;
 import static Utilities.Constants.PUTCHUNK;
-import static java.lang.Thread.sleep;
 
+/**
+ * Pending tasks of a peer (version 1.1): chunks waiting for a STORED and files being backed up,
+ * together with the chunks of each file that were already sent.
+ * Every change is appended to pendingTasks.journal by a writer thread that writes and syncs the changes
+ * made in the meantime at once. The journal is compacted into a snapshot of the pending tasks
+ * when it's loaded and whenever it grows too much.
+ */
 public class Tasks {
 
-    Properties pendingTasks;
+    /* How long the writer waits for more changes before writing them */
+    private static final long FLUSH_DELAY = 10;
+
+    /* Records after which the journal is compacted */
+    private static final int COMPACT_THRESHOLD = 50000;
+
+    /* Journal records: task added, task finished, number of chunks of a file, chunk sent, chunks sent */
+    private static final String ADD = "T";
+    private static final String FINISH = "X";
+    private static final String CHUNKS = "N";
+    private static final String SENT = "C";
+    private static final String PROGRESS = "B";
+
     private Peer peer;
 
+    /**
+     * String is a chunkId or a fileId
+     * String holds the chunkId, or <ReplicationDegree>-<FileName> for a file
+     */
+    private Map<String, String> pendingTasks = new HashMap<>();
+
+    /**
+     * String is the fileId of a file task
+     * BitSet holds the chunks of the file that were sent
+     */
+    private Map<String, BitSet> progress = new HashMap<>();
+
+    /**
+     * String is the fileId of a file task
+     * Integer holds the number of chunks of the file, known once all of them were read
+     */
+    private Map<String, Integer> numberOfChunks = new HashMap<>();
+
+    private List<String> buffer = new ArrayList<>();
+    private int journalRecords = 0;
+    private Thread writer;
+
+    /* Held while a batch is appended to the journal, so that close doesn't compact in the middle of it */
+    private final Object journal = new Object();
+
+    /* Set by close, guarded by journal, the writer drops the batches it takes afterwards since the snapshot has them */
+    private boolean closed = false;
+
     public Tasks(Peer peer) {
         this.peer = peer;
-        this.pendingTasks = new Properties();
+        writer = new Thread(this::writeJournal, "TasksJournal-" + peer.getPeerId());
+        writer.setDaemon(true);
     }
 
 
@@ -32,117 +77,333 @@ public class Tasks {
      * This function adds a Task to file pendingTasks.
      * @param chunkId
      */
-    public void addTask(String chunkId) {
-        pendingTasks.setProperty(chunkId, chunkId);
-        saveTasks();
+    public synchronized void addTask(String chunkId) {
+        if (chunkId.equals(pendingTasks.put(chunkId, chunkId)))
+            return;
+        append(ADD + " " + chunkId + " " + chunkId);
     }
 
     /**
      * This function adds a Task to file pendingTasks.
+     * The chunks sent by an earlier backup of the same file are kept, since the fileId changes with the file
      * @param fileId
      * @param repDeg
      */
-    public void addTask(String fileId, String repDeg) {
+    public synchronized void addTask(String fileId, String repDeg) {
         System.out.println(fileId);
         System.out.println(repDeg);
 
-        pendingTasks.setProperty(fileId, repDeg);
-        saveTasks();
+        pendingTasks.put(fileId, repDeg);
+        progress.computeIfAbsent(fileId, id -> new BitSet());
+        append(ADD + " " + fileId + " " + repDeg);
     }
 
     /**
      * When a Task is done, this function remove it from the file pendingTasks.
      * @param chunkId
      */
-    public void finishTask(String chunkId) {
-        pendingTasks.remove(chunkId);
-        saveTasks();
+    public synchronized void finishTask(String chunkId) {
+        if (pendingTasks.remove(chunkId) == null)
+            return;
+        progress.remove(chunkId);
+        numberOfChunks.remove(chunkId);
+        append(FINISH + " " + chunkId);
+    }
+
+    /**
+     * Marks a chunk of a file task as sent, finishing the task if it was the last one
+     *
+     * @param fileId  id of the file
+     * @param chunkNo chunk number
+     */
+    public synchronized void chunkDone(String fileId, int chunkNo) {
+        BitSet sent = progress.get(fileId);
+        if (sent == null || sent.get(chunkNo))
+            return;
+        sent.set(chunkNo);
+        append(SENT + " " + fileId + " " + chunkNo);
+        finishIfComplete(fileId);
+    }
+
+    /**
+     * Sets the number of chunks of a file task once all of them were read, finishing the task if they were all sent
+     *
+     * @param fileId id of the file
+     * @param total  number of chunks of the file
+     */
+    public synchronized void setNumberOfChunks(String fileId, int total) {
+        if (!progress.containsKey(fileId))
+            return;
+        numberOfChunks.put(fileId, total);
+        append(CHUNKS + " " + fileId + " " + total);
+        finishIfComplete(fileId);
+    }
+
+    private void finishIfComplete(String fileId) {
+        Integer total = numberOfChunks.get(fileId);
+        if (total != null && progress.get(fileId).cardinality() >= total)
+            finishTask(fileId);
+    }
+
+    private void append(String record) {
+        buffer.add(record);
+        //The writer waits for the first change only, then for FLUSH_DELAY
+        if (buffer.size() == 1)
+            peer.getClock().signal(this);
+    }
+
+    /**
+     * Writer thread: waits for changes, gives other threads FLUSH_DELAY to add theirs,
+     * and writes and syncs them all at once
+     */
+    private void writeJournal() {
+        peer.getClock().enter();
+        try {
+            writeChanges();
+        } finally {
+            peer.getClock().exit();
+        }
+    }
+
+    private void writeChanges() {
+        while (true) {
+            List<String> batch;
+            synchronized (this) {
+                try {
+                    while (buffer.isEmpty())
+                        peer.getClock().await(this, 0);
+                    long deadline = peer.getClock().millis() + FLUSH_DELAY;
+                    for (long left = FLUSH_DELAY; left > 0; left = deadline - peer.getClock().millis())
+                        peer.getClock().await(this, left);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (journalRecords + buffer.size() > COMPACT_THRESHOLD) {
+                    compact();
+                    continue;
+                }
+                batch = buffer;
+                buffer = new ArrayList<>();
+                journalRecords += batch.size();
+            }
+
+            StringBuilder records = new StringBuilder();
+            for (String record : batch) {
+                records.append(record).append('\n');
+            }
+            synchronized (journal) {
+                if (closed)
+                    return;
+                try (FileOutputStream output = new FileOutputStream(peer.getPeerId() + "/pendingTasks.journal", true)) {
+                    output.write(records.toString().getBytes());
+                    output.getChannel().force(false);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
     }
 
     /**
-     * This function saves all Tasks to the disk memory.
+     * Replaces the journal by a snapshot of the pending tasks, the changes waiting to be written are part of it.
+     * The snapshot is written to a temporary file and renamed over the journal, so a crash leaves one of them whole
      */
-    public void saveTasks() {
+    private synchronized void compact() {
+        List<String> snapshot = new ArrayList<>();
+        for (Map.Entry<String, String> task : pendingTasks.entrySet()) {
+            snapshot.add(ADD + " " + task.getKey() + " " + task.getValue());
+        }
+        for (Map.Entry<String, BitSet> sent : progress.entrySet()) {
+            snapshot.add(PROGRESS + " " + sent.getKey() + " " + Base64.getEncoder().encodeToString(sent.getValue().toByteArray()));
+        }
+        for (Map.Entry<String, Integer> total : numberOfChunks.entrySet()) {
+            snapshot.add(CHUNKS + " " + total.getKey() + " " + total.getValue());
+        }
+        buffer.clear();
 
+        Path journal = Paths.get(peer.getPeerId(), "pendingTasks.journal");
+        Path temporary = Paths.get(peer.getPeerId(), "pendingTasks.journal.tmp");
+        try (FileOutputStream output = new FileOutputStream(temporary.toFile())) {
+            output.write((String.join("\n", snapshot) + (snapshot.isEmpty() ? "" : "\n")).getBytes());
+            output.getChannel().force(false);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
         try {
-            pendingTasks.store(new FileOutputStream(peer.getPeerId() + "/pendingTasks.properties"), null);
+            Files.move(temporary, journal, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            journalRecords = snapshot.size();
         } catch (IOException e) {
-            //..
+            e.printStackTrace();
         }
     }
 
     /**
-     * This function loads all Tasks from the disk memory.
+     * This function loads all Tasks from the disk memory, replaying the journal and compacting it,
+     * and starts the writer thread.
+     * Tasks saved by older versions in pendingTasks.properties are moved to the journal.
      */
-    public void loadTasks() {
+    public synchronized void loadTasks() {
 
         File pendingTasksFile = new File(peer.getPeerId() + "/pendingTasks.properties");
-
         if (pendingTasksFile.exists() && !pendingTasksFile.isDirectory()) {
-            try {
-                pendingTasks.load(new FileInputStream(peer.getPeerId() + "/pendingTasks.properties"));
+            Properties properties = new Properties();
+            try (FileInputStream input = new FileInputStream(pendingTasksFile)) {
+                properties.load(input);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            for (String key : properties.stringPropertyNames()) {
+                pendingTasks.put(key, properties.getProperty(key));
+                if (key.length() == 64)
+                    progress.put(key, new BitSet());
+            }
+        }
+
+        File journalFile = new File(peer.getPeerId() + "/pendingTasks.journal");
+        if (journalFile.exists() && !journalFile.isDirectory()) {
+            try (BufferedReader reader = new BufferedReader(new FileReader(journalFile))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    replay(line);
+                }
             } catch (IOException e) {
-                //...
+                e.printStackTrace();
             }
         }
 
+        compact();
+        pendingTasksFile.delete();
+        peer.getClock().start(writer);
+    }
+
+    /**
+     * Stops the journal writer and compacts the journal, so that the changes it didn't write yet are kept
+     */
+    public void close() {
+        writer.interrupt();
+        synchronized (journal) {
+            closed = true;
+            compact();
+        }
+    }
+
+    /**
+     * Applies a record of the journal, a record cut by a crash is ignored
+     */
+    private void replay(String record) {
+        String[] fields = record.split(" ", 3);
+        if (fields.length < 2)
+            return;
+        String key = fields[1];
+        try {
+            switch (fields[0]) {
+                case ADD:
+                    if (fields.length < 3)
+                        return;
+                    pendingTasks.put(key, fields[2]);
+                    if (key.length() == 64)
+                        progress.computeIfAbsent(key, id -> new BitSet());
+                    break;
+                case FINISH:
+                    pendingTasks.remove(key);
+                    progress.remove(key);
+                    numberOfChunks.remove(key);
+                    break;
+                case CHUNKS:
+                    numberOfChunks.put(key, Integer.parseInt(fields[2]));
+                    break;
+                case SENT:
+                    progress.computeIfAbsent(key, id -> new BitSet()).set(Integer.parseInt(fields[2]));
+                    break;
+                case PROGRESS:
+                    progress.put(key, BitSet.valueOf(Base64.getDecoder().decode(fields[2])));
+                    break;
+                default:
+                    break;
+            }
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+            System.out.println("Ignoring journal record: " + record);
+        }
     }
 
 
     /**
-     * This function run all the Tasks.
+     * @return returns a copy of the pending tasks, the key is a chunkId or a fileId
      */
-    public void finishPendingTasks() {
+    public synchronized Map<String, String> getPendingTasks() {
+        return new HashMap<>(pendingTasks);
+    }
 
-        for (String chunkId : pendingTasks.stringPropertyNames()) {
+    /**
+     * This function runs a pending Task again.
+     * A chunk still waiting for a STORED is sent again and an interrupted file backup resumes from the chunks it
+     * didn't send yet
+     *
+     * @param key   chunkId or fileId of the task
+     * @param value value of the task
+     */
+    public void finishPendingTask(String key, String value) {
+        if (peer.getStoredChunks().containsKey(key))
+            resendChunk(key);
+        else if (key.length() == 64)
+            resumeBackup(key, value);
+    }
+
+    private void resendChunk(String chunkId) {
+        String fileId = peer.getFileIdFromChunkId(chunkId);
+        String chunkNo = peer.getChunkNoFromChunkId(chunkId);
+
+        Message putchunk = new Message(PUTCHUNK, peer.getVersion(), peer.getPeerId(), fileId, chunkNo, Integer.toString(peer.getDesiredReplicationDegree(fileId + chunkNo)));
+
+        Path path = Paths.get(peer.getPeerId() + "/" + fileId + "/" + chunkNo);
+        try {
+            byte[] data = Files.readAllBytes(path);
+            putchunk.setBody(data);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        //Sent by a session of its own that isn't registered, as the file may have been backed up by another peer
+        new Backup(peer, fileId, peer.getDesiredReplicationDegree(fileId + chunkNo)).deliverPutchunkMessage(putchunk);
+    }
 
-            if (peer.getStoredChunks().containsKey(chunkId)) {
+    /**
+     * Resumes the backup of a file from the chunks it didn't send yet.
+     * If the file changed since, its fileId changed too, so the old chunks are deleted and the file is backed up again
+     *
+     * @param fileId id of the file
+     * @param value  <ReplicationDegree>-<FileName>, or <DataShards>+<ParityShards>-<FileName> for erasure coded backups
+     */
+    private void resumeBackup(String fileId, String value) {
+        String[] task = value.split("-", 2);
 
-                String fileId = peer.getFileIdFromChunkId(chunkId);
-                String chunkNo = peer.getChunkNoFromChunkId(chunkId);
+        System.out.println("FILE ID: " + fileId);
+        System.out.println("VALUE: " + value);
 
-                Message putchunk = new Message(PUTCHUNK, peer.getVersion(), peer.getPeerId(), fileId, chunkNo, Integer.toString(peer.getDesiredReplicationDegree(fileId + chunkNo)));
+        Backup backup;
+        //Erasure coded backups keep their stripe layout instead of a replication degree
+        if (task[0].contains("+")) {
+            int[] layout = Utilities.parseLayout(task[0]);
+            backup = new Backup(task[1], layout[0], layout[1], peer);
+        } else {
+            backup = new Backup(task[1], Integer.parseInt(task[0]), peer);
+        }
 
-                Path path = Paths.get(peer.getPeerId() + "/" + fileId + "/" + chunkNo);
-                try {
-                    byte[] data = Files.readAllBytes(path);
-                    putchunk.setBody(data);
-                } catch (IOException e) {
-                    //..
-                }
-                peer.getBackup().setReplicationDegree(peer.getDesiredReplicationDegree(fileId + chunkNo));
-                peer.getBackup().setFileId(fileId);
-                peer.getBackup().deliverPutchunkMessage(putchunk);
-            } else {
-
-               if(chunkId.length()==64){
-                    try {
-                        sleep(6000);
-                    } catch (InterruptedException e) {
-                        e.printStackTrace();
-                    }
-
-                    Message deleteFileMessage = new Message(DELETE, peer.getVersion(), peer.getPeerId(), chunkId);
-                    peer.getDeleteProtocol().deliverDeleteMessage(deleteFileMessage);
-
-                    try {
-                        sleep(2000);
-                    } catch (InterruptedException e) {
-                        e.printStackTrace();
-                    }
-
-                    String[] value = pendingTasks.getProperty(chunkId).split("-");
-
-                    System.out.println("CHUNK ID: " + chunkId);
-                    System.out.println("VALUE: " + pendingTasks.getProperty(chunkId));
-                    System.out.println("REPdeg: " + value[0]);
-
-                    peer.getBackup().setFileId(chunkId);
-                    peer.getBackup().setReplicationDegree(Integer.parseInt(value[0]));
-                    peer.getBackup().setFileName(value[1]);
-                    peer.getBackup().readChunks();
-                }
+        BitSet sent;
+        if (fileId.equals(backup.computeFileId())) {
+            synchronized (this) {
+                sent = (BitSet) progress.getOrDefault(fileId, new BitSet()).clone();
             }
+        } else {
+            finishTask(fileId);
+            peer.getDeleteProtocol().deleteFile(fileId);
+            sent = new BitSet();
         }
+
+        if (backup.isErasureCoded())
+            backup.readStripes(sent);
+        else
+            backup.readChunks(sent);
     }
 }
@@ -0,0 +1,66 @@
+package Utilities;
+
+/**
+ * Token bucket rate limiter.
+ * Tokens are refilled continuously at a fixed rate up to the capacity of the bucket,
+ * so a burst of up to capacity tokens goes through at once and longer runs are paced at the rate.
+ */
+public class TokenBucket {
+
+    private final double rate;
+    private final double capacity;
+    private final Clock clock;
+    private double tokens;
+    private long lastRefill;
+
+    /**
+     * @param rate     tokens refilled per second
+     * @param capacity most tokens the bucket holds
+     * @param clock    clock of the peer
+     */
+    public TokenBucket(double rate, double capacity, Clock clock) {
+        this.rate = rate;
+        this.capacity = capacity;
+        this.clock = clock;
+        this.tokens = capacity;
+        this.lastRefill = clock.millis();
+    }
+
+    /**
+     * Takes tokens from the bucket, waiting until enough are available.
+     * Asking for more than the capacity waits for a full bucket and leaves it in debt,
+     * so the following callers wait for the difference.
+     *
+     * @param count number of tokens
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public synchronized void acquire(int count) throws InterruptedException {
+        double needed = Math.min(count, capacity);
+        refill();
+        while (tokens < needed) {
+            clock.await(this, (long) Math.ceil((needed - tokens) * 1000 / rate));
+            refill();
+        }
+        tokens -= count;
+    }
+
+    /**
+     * Takes tokens from the bucket only if they are available right away
+     *
+     * @param count number of tokens
+     * @return returns true if the tokens were taken
+     */
+    public synchronized boolean tryAcquire(int count) {
+        refill();
+        if (tokens < count)
+            return false;
+        tokens -= count;
+        return true;
+    }
+
+    private void refill() {
+        long now = clock.millis();
+        tokens = Math.min(capacity, tokens + (now - lastRefill) * rate / 1000);
+        lastRefill = now;
+    }
+}
@@ -0,0 +1,112 @@
+package Utilities;
+
+import Peer.Peer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Deletes the chunks of deleted files in the background.
+ * A deleted file folder is renamed into peerId/.trash right away, and this thread
+ * removes its chunks from the disk at a limited rate so that deletes don't compete with the protocols.
+ * Whatever is left in the trash when the peer stops is purged when it starts again.
+ */
+public class TrashPurger extends Thread {
+
+    /* Bytes purged per second, can be set with -Dpurge.rate=<Bytes> */
+    private static final long PURGE_RATE = Long.getLong("purge.rate", 8 * 1024 * 1024);
+
+    /* How long the purger sleeps when the trash is empty, in milliseconds */
+    private static final long IDLE_WAIT = 5000;
+
+    private Path trash;
+
+    public TrashPurger(Peer peer) {
+        this.trash = Paths.get(peer.getPeerId(), ".trash");
+        trash.toFile().mkdirs();
+        setName("TrashPurger-" + peer.getPeerId());
+        setDaemon(true);
+    }
+
+    /**
+     * Renames a folder into the trash, the rename is atomic so the folder either
+     * stays in place or is gone from the peer's storage
+     *
+     * @param folder folder to delete
+     * @return returns false if the folder doesn't exist or couldn't be moved
+     */
+    public boolean moveToTrash(File folder) {
+        if (!folder.exists())
+            return false;
+        Path target = trash.resolve(folder.getName() + "-" + System.nanoTime());
+        try {
+            Files.move(folder.toPath(), target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+        synchronized (this) {
+            notifyAll();
+        }
+        return true;
+    }
+
+    public void run() {
+        while (!isInterrupted()) {
+            File[] folders = trash.toFile().listFiles();
+            if (folders == null || folders.length == 0) {
+                synchronized (this) {
+                    try {
+                        wait(IDLE_WAIT);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                continue;
+            }
+            for (File folder : folders) {
+                if (!purge(folder))
+                    return;
+            }
+        }
+    }
+
+    /**
+     * Deletes a folder of the trash, sleeping whenever it's ahead of PURGE_RATE
+     *
+     * @return returns false if the purger was interrupted
+     */
+    private boolean purge(File folder) {
+        File[] files = folder.listFiles();
+        if (files != null) {
+            long start = System.currentTimeMillis();
+            long purged = 0;
+            for (File f : files) {
+                if (f.isDirectory()) {
+                    if (!purge(f))
+                        return false;
+                    continue;
+                }
+                purged += f.length();
+                if (!f.delete())
+                    System.out.println("Error purging: " + f.getPath());
+
+                long ahead = purged * 1000 / PURGE_RATE - (System.currentTimeMillis() - start);
+                if (ahead > 0) {
+                    try {
+                        sleep(ahead);
+                    } catch (InterruptedException e) {
+                        return false;
+                    }
+                }
+            }
+        }
+        if (!folder.delete())
+            System.out.println("Error purging: " + folder.getPath());
+        return true;
+    }
+}
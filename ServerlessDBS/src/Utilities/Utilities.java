@@ -3,6 +3,8 @@ package Utilities;
 import javax.xml.bind.DatatypeConverter;
 import java.security.MessageDigest;
 
+import static Utilities.Constants.CHUNK_SIZE;
+
 public class Utilities {
 
     /**
@@ -23,6 +25,38 @@ public class Utilities {
         return result;
     }
 
+    /**
+     * Parses a stripe layout with the format <DataShards>+<ParityShards>
+     *
+     * @param layout stripe layout
+     * @return array with the number of data shards and the number of parity shards
+     */
+    public static int[] parseLayout(String layout) {
+        String[] shards = layout.split("\\+");
+        return new int[]{Integer.parseInt(shards[0]), Integer.parseInt(shards[1])};
+    }
+
+    /**
+     * @param layout stripe layout with the format <DataShards>+<ParityShards>
+     * @return number of shards in each stripe
+     */
+    public static int getStripeWidth(String layout) {
+        int[] shards = parseLayout(layout);
+        return shards[0] + shards[1];
+    }
+
+    /**
+     * Number of stripes needed to hold a file, there is always at least one
+     *
+     * @param fileLength size of the file in bytes
+     * @param dataShards number of data shards per stripe
+     * @return number of stripes
+     */
+    public static int getNumberOfStripes(long fileLength, int dataShards) {
+        long dataChunks = Math.max(1, (fileLength + CHUNK_SIZE - 1) / CHUNK_SIZE);
+        return (int) ((dataChunks + dataShards - 1) / dataShards);
+    }
+
     /**
      * Use javax.xml.bind.DatatypeConverter class in JDK to convert byte array
      * to a hexadecimal string. Note that this generates hexadecimal in upper case.
@@ -0,0 +1,618 @@
+package Utilities;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Discrete event clock of a simulation, so that peers of the same JVM run faster than real time and the same way on every run.
+ * The work of the peers runs one turn at a time, in the order it was handed out: a task given to an executor of the clock,
+ * a thread started by the clock and a thread woken by a signal or a timer each wait for their turn,
+ * and a turn lasts until its thread waits on the clock again or is done.
+ * Once no turn is left the clock jumps to the earliest timer and fires it, so time never moves while work is runnable.
+ * Timers due at the same time fire in the order they were set and every random source is seeded, so a run doesn't
+ * depend on how long its work takes in real time or on how the threads are scheduled.
+ * Threads of the peers must only block through the clock, a thread blocked otherwise keeps its turn and stops the simulation.
+ * The tasks of every executor of the clock run on threads shared by all of them, so a peer only holds a thread
+ * while one of its tasks runs or waits, and a thread whose task is done runs the next task itself when its turn is next.
+ * The peers of a simulation share one clock and a network that delivers on it, such as a MemoryNetwork.
+ */
+public class VirtualClock implements Clock {
+
+    private final long seed;
+    private volatile long now = 0;
+    private long nextSequence = 0;
+
+    /* True while a turn or a timer runs */
+    private boolean running = false;
+
+    /* Turns handed out that didn't run yet, oldest first */
+    private Deque<Turn> turns = new ArrayDeque<>();
+
+    /* Timers still to fire, soonest first */
+    private PriorityQueue<Timer> timers = new PriorityQueue<>(Comparator.comparingLong((Timer t) -> t.due).thenComparingLong(t -> t.sequence));
+
+    /* Turns of the threads waiting on each monitor, in the order they started waiting */
+    private Map<Object, List<Turn>> waiting = new IdentityHashMap<>();
+
+    /* Turns of the threads started by the clock that didn't enter yet */
+    private Map<Thread, Turn> started = new HashMap<>();
+
+    /* Threads that run the tasks of the executors and have none, the last one to be done first */
+    private Deque<Worker> idleWorkers = new ArrayDeque<>();
+    private int nextWorker = 0;
+
+    /**
+     * Starts the clock at time 0
+     *
+     * @param seed seed of the random sources
+     */
+    public VirtualClock(long seed) {
+        this.seed = seed;
+        Thread driver = new Thread(this::drive, "VirtualClock");
+        driver.setDaemon(true);
+        driver.start();
+    }
+
+    public long millis() {
+        return now;
+    }
+
+    public void sleep(long millis) throws InterruptedException {
+        if (millis <= 0)
+            return;
+        Object sleeper = new Object();
+        synchronized (sleeper) {
+            await(sleeper, millis);
+        }
+    }
+
+    /**
+     * Ends the turn of the calling thread, which gets a new one once it's signalled or the time runs out
+     */
+    public void await(Object monitor, long millis) throws InterruptedException {
+        if (millis < 0)
+            throw new IllegalArgumentException("Timeout is negative");
+
+        Turn turn = new Turn(monitor);
+        synchronized (this) {
+            turn.parked = true;
+            waiting.computeIfAbsent(monitor, m -> new ArrayList<>()).add(turn);
+            if (millis > 0)
+                add(new Wakeup(turn), millis);
+        }
+        release();
+
+        boolean interrupted = false;
+        while (!turn.granted) {
+            try {
+                monitor.wait();
+            } catch (InterruptedException e) {
+                //Interrupted threads take a turn as well, to throw once it comes
+                interrupted = true;
+                boolean woken;
+                synchronized (this) {
+                    woken = unpark(turn);
+                }
+                if (woken)
+                    handOut(turn);
+            }
+        }
+        if (interrupted)
+            throw new InterruptedException();
+    }
+
+    /**
+     * Hands a turn to every thread waiting on the monitor, in the order they started waiting
+     */
+    public void signal(Object monitor) {
+        List<Turn> woken;
+        synchronized (this) {
+            woken = waiting.remove(monitor);
+            if (woken == null)
+                return;
+            for (Turn turn : woken)
+                turn.parked = false;
+        }
+        for (Turn turn : woken)
+            handOut(turn);
+    }
+
+    public Future<?> schedule(Runnable task, long delay) {
+        Task timer = new Task(task);
+        synchronized (this) {
+            add(timer, delay);
+        }
+        return timer.future;
+    }
+
+    /**
+     * Tasks take one of the threads of the executor from their turn until they are done, so once every one is busy
+     * the following tasks wait in the queue of the executor and get their turns as threads are freed.
+     * The threads of the executor are only a limit, the tasks run on the threads shared by every executor of the clock.
+     */
+    public ExecutorService newExecutor(int threads) {
+        return new Executor(threads);
+    }
+
+    public void start(Thread thread) {
+        Turn turn = new Turn(null);
+        synchronized (this) {
+            started.put(thread, turn);
+        }
+        handOut(turn);
+        thread.start();
+    }
+
+    /**
+     * Waits for the turn handed out when the calling thread was started, or for a new one if it wasn't started by the clock
+     */
+    public void enter() {
+        Turn turn;
+        synchronized (this) {
+            turn = started.remove(Thread.currentThread());
+        }
+        if (turn == null) {
+            turn = new Turn(null);
+            handOut(turn);
+        }
+        turn.take();
+    }
+
+    public void exit() {
+        release();
+    }
+
+    public Random newRandom(String name) {
+        return new Random(seed ^ name.hashCode());
+    }
+
+    /**
+     * Called with the lock of the clock held
+     */
+    private void add(Timer timer, long delay) {
+        timer.due = now + Math.max(0, delay);
+        timer.sequence = nextSequence++;
+        timers.add(timer);
+        if (!running)
+            notifyAll();
+    }
+
+    /**
+     * Queues a turn, or runs it right away if nothing runs
+     */
+    private void handOut(Turn turn) {
+        boolean idle;
+        synchronized (this) {
+            idle = !running;
+            running = true;
+            if (!idle)
+                turns.add(turn);
+        }
+        if (idle)
+            turn.grant();
+    }
+
+    /**
+     * Ends the current turn and runs the next one, or lets the driver fire the next timer if there is none
+     */
+    private void release() {
+        Turn next;
+        synchronized (this) {
+            next = turns.poll();
+            if (next == null) {
+                running = false;
+                notifyAll();
+                return;
+            }
+        }
+        next.grant();
+    }
+
+    /**
+     * Ends the turn of a worker whose task is done, as release
+     *
+     * @return returns the next turn if it's a task, that the worker runs itself instead of handing it to another one
+     */
+    private Work releaseWorker() {
+        Turn next;
+        synchronized (this) {
+            next = turns.poll();
+            if (next == null) {
+                running = false;
+                notifyAll();
+                return null;
+            }
+        }
+        if (next instanceof Work)
+            return (Work) next;
+        next.grant();
+        return null;
+    }
+
+    /**
+     * Called with the lock of the clock held
+     *
+     * @return returns false if the thread was already woken
+     */
+    private boolean unpark(Turn turn) {
+        if (!turn.parked)
+            return false;
+        turn.parked = false;
+        List<Turn> monitorTurns = waiting.get(turn.monitor);
+        monitorTurns.remove(turn);
+        if (monitorTurns.isEmpty())
+            waiting.remove(turn.monitor);
+        return true;
+    }
+
+    /**
+     * Driver thread: fires the next timer once no turn is left
+     */
+    private void drive() {
+        while (true) {
+            Timer timer;
+            try {
+                timer = next();
+            } catch (InterruptedException e) {
+                return;
+            }
+            timer.fire();
+            //A task cancelled while it runs interrupts the driver
+            Thread.interrupted();
+            release();
+        }
+    }
+
+    /**
+     * Waits until nothing runs and moves the time to the earliest timer
+     *
+     * @return returns the timer, to be fired as a turn
+     */
+    private synchronized Timer next() throws InterruptedException {
+        while (true) {
+            if (!running) {
+                Timer timer = timers.poll();
+                while (timer != null && timer.isCancelled())
+                    timer = timers.poll();
+                if (timer != null) {
+                    now = Math.max(now, timer.due);
+                    running = true;
+                    return timer;
+                }
+            }
+            wait();
+        }
+    }
+
+    /**
+     * Turn of a thread, granted by the thread whose turn ended
+     */
+    private static class Turn {
+
+        /* Monitor the thread waits on for its turn */
+        private final Object monitor;
+
+        /* Waiting on the monitor for a signal or a timer, guarded by the lock of the clock */
+        private boolean parked = false;
+
+        /* Guarded by the monitor */
+        private boolean granted = false;
+
+        Turn(Object monitor) {
+            this.monitor = monitor != null ? monitor : this;
+        }
+
+        void grant() {
+            synchronized (monitor) {
+                granted = true;
+                monitor.notifyAll();
+            }
+        }
+
+        /**
+         * Waits for the turn, interrupts are kept for the work of the turn
+         */
+        void take() {
+            boolean interrupted = false;
+            synchronized (monitor) {
+                while (!granted) {
+                    try {
+                        monitor.wait();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            }
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+    }
+
+    private abstract static class Timer {
+
+        private long due;
+        private long sequence;
+
+        abstract void fire();
+
+        abstract boolean isCancelled();
+    }
+
+    private static class Task extends Timer {
+
+        private FutureTask<Void> future;
+
+        Task(Runnable task) {
+            future = new FutureTask<>(task, null);
+        }
+
+        void fire() {
+            future.run();
+        }
+
+        boolean isCancelled() {
+            return future.isCancelled();
+        }
+    }
+
+    /**
+     * Hands a turn to a thread whose wait timed out
+     */
+    private class Wakeup extends Timer {
+
+        private Turn turn;
+
+        Wakeup(Turn turn) {
+            this.turn = turn;
+        }
+
+        void fire() {
+            boolean woken;
+            synchronized (VirtualClock.this) {
+                woken = unpark(turn);
+            }
+            if (woken)
+                handOut(turn);
+        }
+
+        /**
+         * Called with the lock of the clock held
+         */
+        boolean isCancelled() {
+            return !turn.parked;
+        }
+    }
+
+    /**
+     * Fixed thread pool whose tasks run as turns, on the workers of the clock
+     */
+    private class Executor extends ThreadPoolExecutor {
+
+        private final int threads;
+
+        /* Tasks that hold a thread, guarded by the lock of the clock */
+        private int busy = 0;
+
+        /* Workers running a task of the executor and whether shutdownNow was called, guarded by the lock of the clock */
+        private Set<Thread> running = new HashSet<>();
+        private boolean stopped = false;
+
+        /* Tasks waiting for a thread, they get their turns in this order, guarded by the lock of the clock */
+        private Deque<Work> queue = new ArrayDeque<>();
+
+        Executor(int threads) {
+            super(threads, threads, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>());
+            this.threads = threads;
+        }
+
+        public void execute(Runnable task) {
+            if (isShutdown()) {
+                super.execute(task);
+                return;
+            }
+            Work work = new Work(this, task);
+            boolean free;
+            synchronized (VirtualClock.this) {
+                free = busy < threads;
+                if (free)
+                    busy++;
+                else
+                    queue.add(work);
+            }
+            if (free)
+                handOut(work);
+        }
+
+        /**
+         * @return returns a copy of the tasks waiting for a thread
+         */
+        public BlockingQueue<Runnable> getQueue() {
+            BlockingQueue<Runnable> tasks = new LinkedBlockingQueue<>();
+            synchronized (VirtualClock.this) {
+                for (Work work : queue)
+                    tasks.add(work.task);
+            }
+            return tasks;
+        }
+
+        public int getActiveCount() {
+            synchronized (VirtualClock.this) {
+                return running.size();
+            }
+        }
+
+        public boolean isTerminated() {
+            synchronized (VirtualClock.this) {
+                return isShutdown() && busy == 0;
+            }
+        }
+
+        /**
+         * Waiting for the tasks would block outside the clock, they are waited for on the clock by whoever needs them done
+         */
+        public boolean awaitTermination(long timeout, TimeUnit unit) {
+            throw new UnsupportedOperationException();
+        }
+
+        /**
+         * Drops the tasks waiting for a thread, interrupts the running ones and skips the ones whose turn didn't come yet
+         */
+        public List<Runnable> shutdownNow() {
+            List<Runnable> tasks = new ArrayList<>();
+            synchronized (VirtualClock.this) {
+                stopped = true;
+                for (Work work : queue)
+                    tasks.add(work.task);
+                queue.clear();
+                for (Thread worker : running)
+                    worker.interrupt();
+            }
+            super.shutdownNow();
+            return tasks;
+        }
+
+        /**
+         * Hands the thread to the next task and ends the turn
+         *
+         * @return returns the next turn if the worker runs it itself
+         */
+        private Work done() {
+            Work next;
+            synchronized (VirtualClock.this) {
+                running.remove(Thread.currentThread());
+                next = queue.poll();
+                if (next == null)
+                    busy--;
+            }
+            if (next != null)
+                handOut(next);
+            return releaseWorker();
+        }
+    }
+
+    /**
+     * Task of an executor, that runs on a worker once its turn comes
+     */
+    private class Work extends Turn {
+
+        private Executor executor;
+        private Runnable task;
+
+        Work(Executor executor, Runnable task) {
+            super(null);
+            this.executor = executor;
+            this.task = task;
+        }
+
+        /**
+         * Hands the task to an idle worker, or to a new one if every worker is busy
+         */
+        void grant() {
+            Worker worker;
+            int number = 0;
+            synchronized (VirtualClock.this) {
+                worker = idleWorkers.poll();
+                if (worker == null)
+                    number = nextWorker++;
+            }
+            if (worker != null)
+                worker.assign(this);
+            else
+                new Worker(number, this);
+        }
+
+        /**
+         * Runs the task on the calling worker, unless the executor was shut down now
+         *
+         * @return returns the next turn if the worker runs it itself
+         */
+        Work run() {
+            //Interrupts of the task the worker ran before are not for this one
+            Thread.interrupted();
+            boolean skipped;
+            synchronized (VirtualClock.this) {
+                skipped = executor.stopped;
+                if (!skipped)
+                    executor.running.add(Thread.currentThread());
+            }
+            try {
+                if (!skipped)
+                    task.run();
+            } catch (Throwable e) {
+                e.printStackTrace();
+            }
+            return executor.done();
+        }
+    }
+
+    /**
+     * Thread shared by every executor of the clock, that runs one task at a time and then the following task
+     * as long as it's the next turn
+     */
+    private class Worker implements Runnable {
+
+        /* Task handed to the worker, guarded by the worker */
+        private Work work;
+
+        /**
+         * Starts the thread of the worker with its first task
+         */
+        Worker(int number, Work work) {
+            this.work = work;
+            Thread thread = new Thread(this, "VirtualClock-Worker-" + number);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        synchronized void assign(Work work) {
+            this.work = work;
+            notifyAll();
+        }
+
+        public void run() {
+            Work next = take();
+            while (true) {
+                next = next.run();
+                if (next == null) {
+                    synchronized (VirtualClock.this) {
+                        idleWorkers.push(this);
+                    }
+                    next = take();
+                }
+            }
+        }
+
+        /**
+         * Waits for a task, interrupts meant for the task that was done are ignored
+         */
+        private synchronized Work take() {
+            while (work == null) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    //Not for the worker
+                }
+            }
+            Work next = work;
+            work = null;
+            return next;
+        }
+    }
+}
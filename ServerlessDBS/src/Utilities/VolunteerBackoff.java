@@ -0,0 +1,96 @@
+package Utilities;
+
+import Peer.Peer;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import static Utilities.Utilities.createHash;
+
+/**
+ * Computes how long a peer waits before volunteering to store a chunk.
+ * Peers with more free space, shorter receive queues and fewer recent stores wait less,
+ * so the best candidates store first and the others find the replication degree already met.
+ */
+public class VolunteerBackoff {
+
+    /* Upper bound of the delay, same as the old uniform random delay */
+    private static final long MAX_DELAY = 1500;
+
+    /* Window used to break ties between equally loaded peers */
+    private static final long TIE_BREAK_WINDOW = 150;
+
+    /* Receive queue length and number of recent stores that count as fully loaded */
+    private static final double QUEUE_SATURATION = 20;
+    private static final double LOAD_SATURATION = 50;
+
+    /* Half life of the recent stores counter, in milliseconds */
+    private static final double LOAD_HALF_LIFE = 10000;
+
+    private static final double SPACE_WEIGHT = 0.5;
+    private static final double QUEUE_WEIGHT = 0.25;
+    private static final double LOAD_WEIGHT = 0.25;
+
+    private Peer peer;
+    private double recentStores = 0;
+    private long lastUpdate;
+
+    public VolunteerBackoff(Peer peer) {
+        this.peer = peer;
+        this.lastUpdate = peer.getClock().millis();
+    }
+
+    /**
+     * Delay before volunteering to store a chunk
+     *
+     * @param chunkId   fileId + chunkNo
+     * @param chunkSize size of the chunk in bytes
+     * @return returns the delay in milliseconds, or -1 if the chunk doesn't fit in the peer
+     */
+    public long getDelay(String chunkId, int chunkSize) {
+        int storageSpace = peer.getStorageSpace();
+        long freeSpace = storageSpace - peer.getUsedSpace() - chunkSize;
+        if (storageSpace <= 0 || freeSpace < 0)
+            return -1;
+
+        double fullness = 1 - (double) freeSpace / storageSpace;
+        double queue = Math.min(1, getReceiverQueueDepth() / QUEUE_SATURATION);
+        double load = Math.min(1, getRecentStores() / LOAD_SATURATION);
+
+        double score = SPACE_WEIGHT * fullness + QUEUE_WEIGHT * queue + LOAD_WEIGHT * load;
+
+        //Deterministic per peer and chunk, so ties go to different peers for different chunks
+        long tieBreak = Math.floorMod(createHash(peer.getPeerId() + chunkId).hashCode(), TIE_BREAK_WINDOW);
+
+        return (long) (score * (MAX_DELAY - TIE_BREAK_WINDOW)) + tieBreak;
+    }
+
+    /**
+     * Registers that the peer stored a chunk
+     */
+    public synchronized void recordStore() {
+        decay();
+        recentStores++;
+    }
+
+    /**
+     * @return returns the number of recently stored chunks, decayed over time
+     */
+    public synchronized double getRecentStores() {
+        decay();
+        return recentStores;
+    }
+
+    private void decay() {
+        long now = peer.getClock().millis();
+        recentStores *= Math.pow(0.5, (now - lastUpdate) / LOAD_HALF_LIFE);
+        lastUpdate = now;
+    }
+
+    private int getReceiverQueueDepth() {
+        ExecutorService receiver = peer.getReceiverExecutor();
+        if (receiver instanceof ThreadPoolExecutor)
+            return ((ThreadPoolExecutor) receiver).getQueue().size();
+        return 0;
+    }
+}
@@ -3,7 +3,7 @@
 
 function launchTCA {
 
-	xterm -e "java TestingClientApplication.TCA "$1" "$2" "$3" "$4"" & $SHELL &
+	xterm -e "java TestingClientApplication.TCA $*" & $SHELL &
 
 }
 function usage {
@@ -12,18 +12,33 @@ function usage {
 		BACKUP )
 			echo "Usage: <Access Point> <Protocol> <File> <Replication Degree>"
 			exit ;;
+		BACKUPEC )
+			echo "Usage: <Access Point> <Protocol> <File> <Data Shards> <Parity Shards>"
+			exit ;;
 		RESTORE )
 			echo "Usage: <Access Point> <Protocol> <File>"
 			exit ;;
+		RESTORESTREAM )
+			echo "Usage: <Access Point> <Protocol> <File>"
+			exit ;;
+		RESTORERANGE )
+			echo "Usage: <Access Point> <Protocol> <File> <Offset> <Length>"
+			exit ;;
 		SPACERECLAIM )
 			echo "Usage: <Access Point> <Protocol> <Number of Bytes>"
 			exit ;;
 		STATE )
 			echo "Usage: <Access Point> <Protocol>"
 			exit ;;
+		STATUS )
+			echo "Usage: <Access Point> <Protocol>"
+			exit ;;
 		DELETE )
 			echo "Usage: <Access Point> <Protocol> <File>"
 			exit ;;
+		DELETEFILES )
+			echo "Usage: <Access Point> <Protocol> <File> [<File> ...]"
+			exit ;;
 		EMPTY )
 			echo "Usage: <Access Point> <Protocol> [ <Number of Bytes> | <File> | <File>, <Replication Degree>]"
 			exit ;;
@@ -45,11 +60,26 @@ case $2 in
     			usage BACKUP
 		fi
 		launchTCA $1 $2 $3 $4 ;;
+	BACKUPEC )
+		if (( $# != 5 )); then
+    			usage BACKUPEC
+		fi
+		launchTCA $1 $2 $3 $4 $5 ;;
 	RESTORE )
 		if (( $# != 3 )); then
     			usage RESTORE
 		fi
 		launchTCA $1 $2 $3 ;;
+	RESTORESTREAM )
+		if (( $# != 3 )); then
+    			usage RESTORESTREAM
+		fi
+		launchTCA $1 $2 $3 ;;
+	RESTORERANGE )
+		if (( $# != 5 )); then
+    			usage RESTORERANGE
+		fi
+		launchTCA $1 $2 $3 $4 $5 ;;
 	SPACERECLAIM )
 		if (( $# != 3 )); then
     			usage SPACERECLAIM
@@ -60,11 +90,21 @@ case $2 in
     			usage STATE
 		fi
 		launchTCA $1 $2 ;;
+	STATUS )
+		if (( $# != 2 )); then
+    			usage STATUS
+		fi
+		launchTCA $1 $2 ;;
 	DELETE )
 		if (( $# != 3 )); then
     			usage DELETE
 		fi
 		launchTCA $1 $2 $3 ;;
+	DELETEFILES )
+		if (( $# < 3 )); then
+    			usage DELETEFILES
+		fi
+		launchTCA "$@" ;;
 esac
 
 cd ..